@@ -0,0 +1,254 @@
+package com.stinja.jrdf;
+
+import java.lang.reflect.Field;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A description of the aggregates to be computed over the instances of
+ * a class in the graph, optionally grouped by the values of some of
+ * its @PropertyFields and restricted to the instances that satisfy some
+ * Criteria.
+ *
+ *	Aggregation a = Aggregation.of(VitalInfo.class)
+ *		.groupBy("hairColor")
+ *		.count()
+ *		.average("heightInches");
+ *
+ * The instances are grouped by the values of fields whose values are
+ * literals, such as enumerated types; an instance with several values
+ * for such a field is counted in the group of each of them, and one
+ * with none in the group whose value is null. The aggregated fields
+ * must hold a single value, which must be a number to be summed or
+ * averaged, or a String, number or date to find its minimum or maximum.
+ *
+ * @see PersistenceManager#aggregate(Aggregation)
+ */
+
+public final class Aggregation {
+	/**
+	 * The functions by which the values of a field are aggregated.
+	 */
+	public enum Function {
+		COUNT 		("COUNT"),
+		SUM 			("SUM"),
+		MIN 			("MIN"),
+		MAX 			("MAX"),
+		AVERAGE 	("AVG");
+
+		/** The name of the SPARQL aggregate computing the function. */
+		public final String aggregate;
+
+		Function (String aggregate) {
+			this.aggregate = aggregate;
+		}
+	}
+
+	/**
+	 * A single aggregate, of the values of a field, or of the instances
+	 * themselves if the field name is null.
+	 */
+	static final class Aggregate {
+		final Function function;
+		final String fieldName;
+
+		Aggregate(Function function, String fieldName) {
+			this.function = function;
+			this.fieldName = fieldName;
+		}
+	}
+
+	/**
+	 * The values of the aggregates of a single group of instances.
+	 */
+	public static final class Row {
+		private final Map<String, Object> groups;
+		private final List<Object> values;
+
+		Row(Map<String, Object> groups, List<Object> values) {
+			this.groups = groups;
+			this.values = values;
+		}
+
+		/**
+		 * The value of the given field shared by the instances of this
+		 * group, or null if they have none. Throws an
+		 * IllegalArgumentException if the instances are not grouped by
+		 * the field.
+		 */
+		public Object getGroup(String fieldName) {
+			if (! groups.containsKey(fieldName))
+				throw new IllegalArgumentException(
+					String.format("The instances are not grouped by the field %s.",
+						fieldName));
+			return groups.get(fieldName);
+		}
+
+		/**
+		 * The value of the aggregate at the given position, in the order
+		 * the aggregates were added. A count is a Long; a sum is a Long,
+		 * a Double, a BigInteger or a BigDecimal, by the values summed; an
+		 * average is a Double; a minimum or maximum is a value of the
+		 * field. An aggregate of no values is null, except for a count
+		 * or a sum, which is 0.
+		 */
+		public Object getValue(int index) {
+			return values.get(index);
+		}
+	}
+
+	private final Class clazz;
+	private final List<String> groupedBy;
+	private final List<Aggregate> aggregates;
+	private Criteria criteria;
+
+	private Aggregation(Class clazz) {
+		this.clazz = clazz;
+		this.groupedBy = new ArrayList<String>();
+		this.aggregates = new ArrayList<Aggregate>();
+		this.criteria = Criteria.of(clazz);
+	}
+
+	/**
+	 * Creates an Aggregation over every instance of the given class,
+	 * which computes nothing yet.
+	 */
+	public static Aggregation of(Class clazz) {
+		return new Aggregation(clazz);
+	}
+
+	/**
+	 * Groups the instances by the values of the given @PropertyFields.
+	 * Throws an IllegalArgumentException if the class has no such
+	 * @PropertyField.
+	 */
+	public Aggregation groupBy(String... fieldNames) {
+		for (String fieldName : fieldNames) {
+			propertyField(fieldName);
+			groupedBy.add(fieldName);
+		}
+		return this;
+	}
+
+	/**
+	 * Restricts the instances to those that satisfy the given Criteria,
+	 * which must be on the same class.
+	 */
+	public Aggregation where(Criteria criteria) {
+		if (criteria.getCriteriaClass() != clazz)
+			throw new IllegalArgumentException(
+				String.format("Criteria on %s cannot restrict an Aggregation over %s.",
+					criteria.getCriteriaClass().getCanonicalName(),
+					clazz.getCanonicalName()));
+		this.criteria = criteria;
+		return this;
+	}
+
+	/**
+	 * Counts the instances.
+	 */
+	public Aggregation count() {
+		aggregates.add(new Aggregate(Function.COUNT, null));
+		return this;
+	}
+
+	/**
+	 * Counts the instances that have a value for the given field.
+	 */
+	public Aggregation count(String fieldName) {
+		return aggregate(Function.COUNT, fieldName);
+	}
+
+	public Aggregation sum(String fieldName) {
+		return aggregate(Function.SUM, fieldName);
+	}
+
+	public Aggregation min(String fieldName) {
+		return aggregate(Function.MIN, fieldName);
+	}
+
+	public Aggregation max(String fieldName) {
+		return aggregate(Function.MAX, fieldName);
+	}
+
+	public Aggregation average(String fieldName) {
+		return aggregate(Function.AVERAGE, fieldName);
+	}
+
+	/**
+	 * Adds an aggregate of the values of the given field by the given
+	 * function. Throws an IllegalArgumentException if the class has no
+	 * such @PropertyField, if it may hold several values, or if its
+	 * values cannot be aggregated by the function.
+	 */
+	public Aggregation aggregate(Function function, String fieldName) {
+		PropertyField pf = propertyField(fieldName);
+		if (pf.policy().isCollection)
+			throw new IllegalArgumentException(
+				String.format("The field %s on the class %s may hold several values, which cannot be aggregated.",
+					fieldName,
+					clazz.getCanonicalName()));
+		if ((function == Function.SUM || function == Function.AVERAGE)
+			&& ! Number.class.isAssignableFrom(pf.valueClazz()))
+			throw new IllegalArgumentException(
+				String.format("The values of the field %s on the class %s are not numbers.",
+					fieldName,
+					clazz.getCanonicalName()));
+		if ((function == Function.MIN || function == Function.MAX)
+			&& ! ValueIndex.isOrdered(pf.valueClazz()))
+			throw new IllegalArgumentException(
+				String.format("The values of the field %s on the class %s are not ordered as their literals are.",
+					fieldName,
+					clazz.getCanonicalName()));
+		aggregates.add(new Aggregate(function, fieldName));
+		return this;
+	}
+
+	/**
+	 * The class whose instances are aggregated.
+	 */
+	public Class getAggregatedClass() {
+		return clazz;
+	}
+
+	/**
+	 * The Criteria the instances must satisfy.
+	 */
+	public Criteria getCriteria() {
+		return criteria;
+	}
+
+	/**
+	 * The names of the fields by which the instances are grouped.
+	 */
+	List<String> getGroupedBy() {
+		return Collections.unmodifiableList(groupedBy);
+	}
+
+	/**
+	 * The aggregates, in the order they were added.
+	 */
+	List<Aggregate> getAggregates() {
+		return Collections.unmodifiableList(aggregates);
+	}
+
+	private PropertyField propertyField(String fieldName) {
+		// the @PropertyFields of the superclasses are inherited
+		for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+			try {
+				Field f = c.getDeclaredField(fieldName);
+				if (f.isAnnotationPresent(PropertyField.class))
+					return f.getAnnotation(PropertyField.class);
+			} catch (NoSuchFieldException e) {
+				// reported below
+			}
+		}
+		throw new IllegalArgumentException(
+			String.format("The class %s has no @PropertyField named '%s'.",
+				clazz.getCanonicalName(),
+				fieldName));
+	}
+}
@@ -0,0 +1,203 @@
+package com.stinja.jrdf;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import org.apache.jena.graph.Node;
+
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+
+import org.apache.jena.rdf.model.Model;
+
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.rdfconnection.RDFConnectionRemote;
+
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.WebContent;
+
+import org.apache.jena.sparql.core.Quad;
+
+import org.apache.jena.system.Txn;
+
+import org.apache.jena.update.UpdateRequest;
+
+/**
+ * A StorageBackend on an RDFConnection, which may be a connection to
+ * a local Dataset or to a remote SPARQL endpoint. Queries and updates
+ * are sent through the connection, and quads are removed with SPARQL 
+ * Update, since a remote store offers no direct access to its graphs.
+ *
+ * The transactions of a remote connection only exclude the other users
+ * of the same connection object; they do not make several requests
+ * atomic on the endpoint.
+ *
+ * A backend for a remote SPARQL endpoint, such as a Fuseki dataset,
+ * is best created with remote(), which reuses its HTTP connections
+ * and exchanges results in binary formats.
+ */
+
+public class ConnectionBackend implements StorageBackend, AutoCloseable {
+	/** The default number of pooled HTTP connections of remote(). */
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+	private final RDFConnection conn;
+	private final CloseableHttpClient httpClient;
+
+	public ConnectionBackend(RDFConnection conn) {
+		this(conn, null);
+	}
+
+	private ConnectionBackend(RDFConnection conn, CloseableHttpClient httpClient) {
+		this.conn = conn;
+		this.httpClient = httpClient;
+	}
+
+	/**
+	 * Creates a backend for the SPARQL endpoint of a remote dataset,
+	 * such as "http://localhost:3030/ds", whose query, update and graph
+	 * store services are at the "sparql", "update" and "data" paths
+	 * under it, as they are in Fuseki.
+	 *
+	 * @see #remote(String, int)
+	 */
+	public static ConnectionBackend remote(String destination) {
+		return remote(destination, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Creates a backend for the SPARQL endpoint of a remote dataset.
+	 * Its requests share a pool of at most maxConnections persistent
+	 * HTTP connections, rather than opening one for each request, and
+	 * SELECT results and graphs are exchanged as SPARQL Results Thrift
+	 * and RDF Thrift rather than parsed from XML or JSON. ASK results,
+	 * which have no Thrift form, are read as JSON.
+	 */
+	public static ConnectionBackend remote(String destination, int maxConnections) {
+		if (maxConnections < 1)
+			throw new IllegalArgumentException(
+				String.format("A remote backend needs at least one connection, not %d.", maxConnections));
+
+		PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+		pool.setMaxTotal(maxConnections);
+		pool.setDefaultMaxPerRoute(maxConnections);
+		CloseableHttpClient httpClient = HttpClients.custom()
+			.setConnectionManager(pool)
+			.build();
+
+		// the updates are generated, so they are not parsed before they
+		// are sent.
+		RDFConnection conn = RDFConnectionRemote.create()
+			.destination(destination)
+			.queryEndpoint("sparql")
+			.updateEndpoint("update")
+			.gspEndpoint("data")
+			.httpClient(httpClient)
+			.acceptHeaderSelectQuery(WebContent.contentTypeResultsThrift)
+			.acceptHeaderAskQuery(WebContent.contentTypeResultsJSON)
+			.acceptHeaderGraph(WebContent.contentTypeRDFThrift)
+			.triplesFormat(RDFFormat.RDF_THRIFT)
+			.parseCheckSPARQL(false)
+			.build();
+		return new ConnectionBackend(conn, httpClient);
+	}
+
+	/**
+	 * The connection this backend stores its data through.
+	 */
+	public RDFConnection getConnection() {
+		return conn;
+	}
+
+	// queries are parsed before they are sent, since a remote
+	// connection only chooses the result format for a parsed Query.
+
+	public void select(String query, Consumer<QuerySolution> action) {
+		conn.querySelect(QueryFactory.create(query), action);
+	}
+
+	public boolean ask(String query) {
+		return conn.queryAsk(QueryFactory.create(query));
+	}
+
+	public Model construct(String query) {
+		return conn.queryConstruct(QueryFactory.create(query));
+	}
+
+	public void update(String operations) {
+		conn.update(operations);
+	}
+
+	public void update(UpdateRequest request) {
+		conn.update(request);
+	}
+
+	public void remove(Node graph, Node subject, Node predicate, Node object) {
+		String pattern = String.format(
+			"%s %s %s .",
+			patternNode(subject, "?s"),
+			patternNode(predicate, "?p"),
+			patternNode(object, "?o")
+		);
+
+		List<String> operations = new ArrayList<String>();
+		if (graph == null || graph == Node.ANY || Quad.isDefaultGraph(graph))
+			operations.add(String.format("DELETE WHERE {\n\t%s\n}", pattern));
+		if (graph == null || graph == Node.ANY)
+			operations.add(String.format("DELETE WHERE {\n\tGRAPH ?g { %s }\n}", pattern));
+		else if (! Quad.isDefaultGraph(graph))
+			operations.add(String.format("DELETE WHERE {\n\tGRAPH %s { %s }\n}", patternNode(graph, "?g"), pattern));
+		conn.update(String.join(" ;\n", operations));
+	}
+
+	public void executeRead(Runnable action) {
+		Txn.executeRead(conn, action);
+	}
+
+	public <T> T calculateRead(Supplier<T> action) {
+		return Txn.calculateRead(conn, action);
+	}
+
+	public void executeWrite(Runnable action) {
+		Txn.executeWrite(conn, action);
+	}
+
+	/**
+	 * Closes the connection, and the pool of HTTP connections of a
+	 * backend created with remote().
+	 */
+	public void close() {
+		conn.close();
+		if (httpClient != null) {
+			try {
+				httpClient.close();
+			} catch (IOException e) {
+				throw new RuntimeException(
+					String.format("Encountered an IOException when trying to close the HTTP connections: %s", e.getMessage())
+				);
+			}
+		}
+	}
+
+	/**
+	 * Writes a node of a pattern as it appears in a SPARQL update, 
+	 * using the given variable for Node.ANY.
+	 */
+	private static String patternNode(Node node, String varName) {
+		if (node == null || node == Node.ANY)
+			return varName;
+		if (node.isURI())
+			return String.format("<%s>", node.getURI());
+		throw new IllegalArgumentException(
+			String.format("Only URIs and Node.ANY can be removed by pattern, not %s.", node));
+	}
+}
@@ -0,0 +1,193 @@
+package com.stinja.jrdf;
+
+import java.lang.reflect.Field;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of conditions on the @PropertyFields of a class, which select
+ * the instances of that class in the graph that satisfy all of them.
+ *
+ *	Criteria c = Criteria.of(VitalInfo.class)
+ *		.equalTo("hairColor", HairColor.BROWN)
+ *		.atLeast("heightInches", 70);
+ *
+ * A condition on a collection field is satisfied if any of its values
+ * satisfies it. A field whose values are resources can only be
+ * compared for equality, with an object that identifies the resource.
+ * A Number compared with a numeric field is converted to the value
+ * class of the field first, so that 70 may be compared with a Double.
+ *
+ * @see PersistenceManager#count(Criteria)
+ */
+
+public final class Criteria {
+	/**
+	 * The ways a value of a field can be compared with the value of a
+	 * condition.
+	 */
+	public enum Comparison {
+		EQUAL 				("="),
+		LESS_THAN 		("<"),
+		AT_MOST 			("<="),
+		GREATER_THAN 	(">"),
+		AT_LEAST 			(">=");
+
+		/** The operator used for the comparison in a SPARQL FILTER. */
+		public final String operator;
+
+		Comparison (String operator) {
+			this.operator = operator;
+		}
+	}
+
+	/**
+	 * A single condition on the values of a field.
+	 */
+	static final class Condition {
+		final String fieldName;
+		final Comparison comparison;
+		final Object value;
+
+		Condition(String fieldName, Comparison comparison, Object value) {
+			this.fieldName = fieldName;
+			this.comparison = comparison;
+			this.value = value;
+		}
+	}
+
+	private final Class clazz;
+	private final List<Condition> conditions;
+
+	private Criteria(Class clazz) {
+		this.clazz = clazz;
+		this.conditions = new ArrayList<Condition>();
+	}
+
+	/**
+	 * Creates Criteria selecting every instance of the given class.
+	 */
+	public static Criteria of(Class clazz) {
+		return new Criteria(clazz);
+	}
+
+	/**
+	 * Adds a condition that the given field has a value that compares
+	 * with the given (non-null) value in the given way. Throws an
+	 * IllegalArgumentException if the class has no such @PropertyField,
+	 * or if the value is a Number that the value class of the field
+	 * cannot represent exactly.
+	 */
+	public Criteria where(String fieldName, Comparison comparison, Object value) {
+		if (value == null)
+			throw new IllegalArgumentException(
+				String.format("The value compared with the field %s cannot be null.",
+					fieldName));
+		Field field = getPropertyField(fieldName);
+		if (value instanceof Number)
+			value = coerce(field, (Number) value);
+		conditions.add(new Condition(fieldName, comparison, value));
+		return this;
+	}
+
+	public Criteria equalTo(String fieldName, Object value) {
+		return where(fieldName, Comparison.EQUAL, value);
+	}
+
+	public Criteria lessThan(String fieldName, Object value) {
+		return where(fieldName, Comparison.LESS_THAN, value);
+	}
+
+	public Criteria atMost(String fieldName, Object value) {
+		return where(fieldName, Comparison.AT_MOST, value);
+	}
+
+	public Criteria greaterThan(String fieldName, Object value) {
+		return where(fieldName, Comparison.GREATER_THAN, value);
+	}
+
+	public Criteria atLeast(String fieldName, Object value) {
+		return where(fieldName, Comparison.AT_LEAST, value);
+	}
+
+	/**
+	 * The class whose instances are selected.
+	 */
+	public Class getCriteriaClass() {
+		return clazz;
+	}
+
+	/**
+	 * The conditions, in the order they were added.
+	 */
+	List<Condition> getConditions() {
+		return Collections.unmodifiableList(conditions);
+	}
+
+	private Field getPropertyField(String fieldName) {
+		// the @PropertyFields of the superclasses are inherited
+		for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+			try {
+				Field f = c.getDeclaredField(fieldName);
+				if (f.isAnnotationPresent(PropertyField.class))
+					return f;
+			} catch (NoSuchFieldException e) {
+				// reported below
+			}
+		}
+		throw new IllegalArgumentException(
+			String.format("The class %s has no @PropertyField named '%s'.",
+				clazz.getCanonicalName(),
+				fieldName));
+	}
+
+	/**
+	 * Converts a Number to the numeric value class of the given field,
+	 * which the converter of the field expects. A Number compared with
+	 * a field of any other class is left as it is.
+	 */
+	private static Object coerce(Field field, Number value) {
+		Class valueClazz = field.getAnnotation(PropertyField.class).valueClazz();
+		if (valueClazz.isInstance(value) || ! Number.class.isAssignableFrom(valueClazz))
+			return value;
+		if (valueClazz == Double.class)
+			return Double.valueOf(value.doubleValue());
+		if (valueClazz == Float.class)
+			return Float.valueOf(value.floatValue());
+
+		BigDecimal exact;
+		try {
+			exact = value instanceof BigDecimal ?
+				(BigDecimal) value :
+				value instanceof BigInteger ?
+					new BigDecimal((BigInteger) value) :
+					value instanceof Double || value instanceof Float ?
+						new BigDecimal(value.doubleValue()) :
+						BigDecimal.valueOf(value.longValue());
+			if (valueClazz == BigDecimal.class)
+				return exact;
+			if (valueClazz == BigInteger.class)
+				return exact.toBigIntegerExact();
+			if (valueClazz == Long.class)
+				return Long.valueOf(exact.longValueExact());
+			if (valueClazz == Integer.class)
+				return Integer.valueOf(exact.intValueExact());
+			if (valueClazz == Short.class)
+				return Short.valueOf(exact.shortValueExact());
+			if (valueClazz == Byte.class)
+				return Byte.valueOf(exact.byteValueExact());
+		} catch (ArithmeticException | NumberFormatException e) {
+			throw new IllegalArgumentException(
+				String.format("The value %s compared with the field %s cannot be represented as a %s.",
+					value,
+					field.getName(),
+					valueClazz.getSimpleName()));
+		}
+		return value;
+	}
+}
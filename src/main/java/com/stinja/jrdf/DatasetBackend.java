@@ -0,0 +1,196 @@
+package com.stinja.jrdf;
+
+import java.io.IOException;
+
+import java.lang.reflect.Field;
+
+import java.nio.file.Path;
+
+import java.util.Iterator;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+
+import org.apache.jena.query.text.EntityDefinition;
+import org.apache.jena.query.text.TextDatasetFactory;
+import org.apache.jena.query.text.TextIndexConfig;
+
+import org.apache.jena.rdf.model.Model;
+
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+
+import org.apache.jena.system.Txn;
+
+import org.apache.jena.update.UpdateAction;
+import org.apache.jena.update.UpdateFactory;
+import org.apache.jena.update.UpdateRequest;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * A StorageBackend on a local Jena Dataset, such as an in-memory or a
+ * TDB2 Dataset. Queries and updates are executed directly against the
+ * Dataset, and graph operations are applied to its graphs directly,
+ * so that they use the indexes of the store. If the Dataset does not
+ * support transactions, the operations are simply run.
+ */
+
+public class DatasetBackend implements StorageBackend {
+	private final Dataset ds;
+
+	public DatasetBackend(Dataset ds) {
+		this.ds = ds;
+	}
+
+	/**
+	 * Creates a DatasetBackend on the given Dataset, with a Lucene text
+	 * index of the values of the @Searchable fields of the given classes
+	 * kept in the given directory, or in memory if it is null. The 
+	 * values written through the backend are indexed as they are 
+	 * written, and the index follows the graph they are written to, so
+	 * that a search can be scoped to a named graph. Values that were in
+	 * the Dataset before the index was created are not indexed; an 
+	 * existing store can be indexed with Jena's textindexer.
+	 *
+	 * Each predicate is indexed in a Lucene field named after its URI,
+	 * so further classes can be added to an index later on, but the
+	 * index must be created with the same classes whenever it is opened.
+	 *
+	 * @see Searchable
+	 */
+	public static DatasetBackend withTextIndex(Dataset ds, Path directory, Class... clazzes)
+	throws JRDFAnnotationException, IOException {
+		EntityDefinition entities = null;
+		for (Class clazz : clazzes) {
+			for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass())
+				for (Field f : c.getDeclaredFields()) {
+					if (! f.isAnnotationPresent(Searchable.class))
+						continue;
+					PropertyField pf = f.getAnnotation(PropertyField.class);
+					if (pf == null || pf.valueClazz() != String.class)
+						throw JRDFAnnotationException.badlyAnnotatedProperty(
+							clazz,
+							f,
+							"Marked as @Searchable, but it is not a @PropertyField whose valueClazz is String."
+						);
+
+					String predicate = PersistenceManager.getPropertyURI(clazz, f);
+					String indexField = textField(predicate);
+
+					if (entities == null) {
+						entities = new EntityDefinition("uri", indexField, NodeFactory.createURI(predicate));
+						entities.setGraphField("graph");
+						entities.setUidField("uid");
+					} else {
+						entities.set(indexField, NodeFactory.createURI(predicate));
+					}
+				}
+		}
+		if (entities == null)
+			throw new IllegalArgumentException("None of the classes has a @Searchable field.");
+
+		Directory index = directory == null ? 
+			new RAMDirectory() : 
+			FSDirectory.open(directory);
+		return new DatasetBackend(
+			TextDatasetFactory.createLucene(ds, index, new TextIndexConfig(entities))
+		);
+	}
+
+	/**
+	 * The name of the Lucene field in which the values of the given
+	 * predicate are indexed. The name of a field is written before a 
+	 * colon in the queries parsed by Lucene, so it is made of letters,
+	 * digits and underscores alone.
+	 */
+	static String textField(String predicateURI) {
+		return predicateURI.replaceAll("[^A-Za-z0-9]", "_");
+	}
+
+	/**
+	 * The Dataset this backend stores its data in.
+	 */
+	public Dataset getDataset() {
+		return ds;
+	}
+
+	public void select(String query, Consumer<QuerySolution> action) {
+		executeRead(() -> {
+			try (QueryExecution qexec = QueryExecutionFactory.create(
+					QueryFactory.create(query), ds)) {
+				Iterator<QuerySolution> results = qexec.execSelect();
+				while (results.hasNext())
+					action.accept(results.next());
+			}
+		});
+	}
+
+	public boolean ask(String query) {
+		return calculateRead(() -> {
+			try (QueryExecution qexec = QueryExecutionFactory.create(
+					QueryFactory.create(query), ds)) {
+				return qexec.execAsk();
+			}
+		});
+	}
+
+	public Model construct(String query) {
+		return calculateRead(() -> {
+			try (QueryExecution qexec = QueryExecutionFactory.create(
+					QueryFactory.create(query), ds)) {
+				return qexec.execConstruct();
+			}
+		});
+	}
+
+	public void update(String operations) {
+		update(UpdateFactory.create(operations));
+	}
+
+	public void update(UpdateRequest request) {
+		executeWrite(() -> UpdateAction.execute(request, ds));
+	}
+
+	public void remove(Node graph, Node subject, Node predicate, Node object) {
+		DatasetGraph dsg = ds.asDatasetGraph();
+		executeWrite(() -> {
+			// not every store includes the default graph in Node.ANY
+			if (graph == null || graph == Node.ANY || Quad.isDefaultGraph(graph))
+				dsg.getDefaultGraph().remove(subject, predicate, object);
+			if (graph == null || graph == Node.ANY || ! Quad.isDefaultGraph(graph))
+				dsg.deleteAny(graph == null ? Node.ANY : graph, subject, predicate, object);
+		});
+	}
+
+	public void executeRead(Runnable action) {
+		if (ds.supportsTransactions())
+			Txn.executeRead(ds, action);
+		else
+			action.run();
+	}
+
+	public <T> T calculateRead(Supplier<T> action) {
+		if (ds.supportsTransactions())
+			return Txn.calculateRead(ds, action);
+		return action.get();
+	}
+
+	public void executeWrite(Runnable action) {
+		if (ds.supportsTransactions())
+			Txn.executeWrite(ds, action);
+		else
+			action.run();
+	}
+}
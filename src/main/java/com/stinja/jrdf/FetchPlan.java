@@ -0,0 +1,132 @@
+package com.stinja.jrdf;
+
+import java.lang.reflect.Field;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A description of the part of an object graph to be retrieved. A
+ * FetchPlan for a class lists the @PropertyFields of that class that
+ * are to be loaded; a field whose values are resources has a nested
+ * FetchPlan for the objects it refers to, and so on, so that the
+ * nesting of the plans bounds the depth of the retrieval.
+ *
+ *	FetchPlan plan = FetchPlan.of(ContactInfo.class)
+ *		.include("familyName")
+ *		.include("appointments", FetchPlan.of(Appointment.class)
+ *			.include("officialTitle"));
+ *
+ * Only the predicates of the included fields are queried; the other
+ * fields are left as they are when the object is constructed. The
+ * identifying fields and the @Version field of a class are always
+ * loaded, so that a retrieved object can be found in the graph again,
+ * and recorded optimistically. A field whose values are resources that
+ * is included without a nested plan refers to objects in which only 
+ * the identifying fields are loaded.
+ *
+ * The PersistenceManager remembers which fields of an object retrieved
+ * with a FetchPlan were not loaded. When the object is recorded, only
+ * the fields that were loaded are written, and the statements of the
+ * others are left as they are in the graph, whatever the fields hold.
+ *
+ * @see PersistenceManager#retrieve(String, Class, FetchPlan)
+ */
+
+public final class FetchPlan {
+	private final Class clazz;
+	private final Map<String, FetchPlan> included;
+
+	private FetchPlan(Class clazz) {
+		this.clazz = clazz;
+		this.included = new LinkedHashMap<String, FetchPlan>();
+	}
+
+	/**
+	 * Creates a plan for the given class that loads only its
+	 * identifying fields.
+	 */
+	public static FetchPlan of(Class clazz) {
+		return new FetchPlan(clazz);
+	}
+
+	/**
+	 * Includes the given @PropertyFields of the class in this plan. Any
+	 * objects they refer to are loaded with their identifying fields
+	 * only. Throws an IllegalArgumentException if the class has no such
+	 * @PropertyField.
+	 */
+	public FetchPlan include(String... fieldNames) {
+		for (String fieldName : fieldNames)
+			include(fieldName, FetchPlan.of(propertyField(fieldName).valueClazz()));
+		return this;
+	}
+
+	/**
+	 * Includes the given @PropertyField of the class in this plan, and
+	 * loads the objects it refers to with the given plan. Throws an
+	 * IllegalArgumentException if the class has no such @PropertyField,
+	 * or if the plan is not for the valueClazz of the field.
+	 */
+	public FetchPlan include(String fieldName, FetchPlan nested) {
+		PropertyField pf = propertyField(fieldName);
+		if (nested.clazz != pf.valueClazz())
+			throw new IllegalArgumentException(
+				String.format("The field %s on the class %s refers to %s, not %s.",
+					fieldName,
+					clazz.getCanonicalName(),
+					pf.valueClazz().getCanonicalName(),
+					nested.clazz.getCanonicalName()));
+		included.put(fieldName, nested);
+		return this;
+	}
+
+	/**
+	 * The class this plan is for.
+	 */
+	public Class getPlannedClass() {
+		return clazz;
+	}
+
+	/**
+	 * The names of the fields included in this plan, mapped to the
+	 * plans for the objects they refer to.
+	 */
+	public Map<String, FetchPlan> getIncluded() {
+		return Collections.unmodifiableMap(included);
+	}
+
+	/**
+	 * Whether the given field is loaded by this plan.
+	 */
+	boolean includes(PropertyMapping m) {
+		return m.policy() == Policy.IDENTIFIER || m.isVersion || included.containsKey(m.name());
+	}
+
+	/**
+	 * The plan with which the objects the given field refers to are
+	 * loaded.
+	 */
+	FetchPlan planFor(PropertyMapping m) {
+		FetchPlan nested = included.get(m.name());
+		return nested != null ? nested : FetchPlan.of(m.valueClazz());
+	}
+
+	private PropertyField propertyField(String fieldName) {
+		// the @PropertyFields of the superclasses are inherited
+		for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+			try {
+				Field f = c.getDeclaredField(fieldName);
+				if (f.isAnnotationPresent(PropertyField.class))
+					return f.getAnnotation(PropertyField.class);
+			} catch (NoSuchFieldException e) {
+				// reported below
+			}
+		}
+		throw new IllegalArgumentException(
+			String.format("The class %s has no @PropertyField named '%s'.",
+				clazz.getCanonicalName(),
+				fieldName));
+	}
+}
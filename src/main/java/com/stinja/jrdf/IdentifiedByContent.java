@@ -0,0 +1,41 @@
+package com.stinja.jrdf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation is born by a class that has no @IdentifiedByField
+ * annotation, but whose instances are identified by the values of
+ * the @PropertyFields that have the IDENTIFIER policy.
+ *
+ * Without this annotation, the URI of such an instance has to be
+ * found by querying the graph for a node matching all of its
+ * identifying fields, and a new URI is generated from the current
+ * time if there is none. With it, the URI is derived from a stable
+ * hash of the identifying values, so that finding the node for an
+ * instance requires no query at all, and two equal instances always
+ * receive the same URI no matter when or where they are persisted.
+ *
+ * It is inherited by the subclasses of the class. Unless the uriLabel
+ * is given, each subclass labels the URIs of its instances with its
+ * own name.
+ *
+ * Note that this changes the URIs of the instances, so it should
+ * not be added to a class that already has data in the graph.
+ */
+
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface IdentifiedByContent {
+	/**
+	 * The generated URI of an @IdentifiedByContent class has three
+	 * parts: the anonymous stem of the PersistenceManager, a label and
+	 * the hash of the identifying values. If the label is not specified,
+	 * the simple name of the class is used by default.
+	 */
+	String uriLabel() default "";
+}
@@ -1,17 +1,23 @@
 package com.stinja.jrdf;
 
 import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
  * This annotation is born by a class whose URIs are determined by
- * a single field, which must be convertible to an unisgned int.
+ * a single field, which is encoded in the URI by an IdentifierCodec.
+ *
+ * It is inherited by the subclasses of the class, whose idField may be
+ * declared by any class in the hierarchy. Unless the uriLabel is given,
+ * each subclass labels the URIs of its instances with its own name.
  */
 
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.RUNTIME)
+@Inherited
 public @interface IdentifiedByField {
 	/**
 	 * When this annotation is present, only the field matching the 
@@ -61,4 +67,15 @@ public @interface IdentifiedByField {
 	 * specified, the name of the class is used by default.
 	 */
 	String uriLabel() default "";
+
+	/**
+	 * The class of the IdentifierCodec that encodes the value of the 
+	 * idField in the URIs of instances, and decodes it from them. If
+	 * it is not specified, the codec is chosen by the type of the
+	 * idField: int, long, java.util.UUID and String identifiers are 
+	 * supported by default.
+	 *
+	 * @see IdentifierCodec
+	 */
+	Class<? extends IdentifierCodec> codec() default IdentifierCodec.class;
 }
@@ -0,0 +1,122 @@
+package com.stinja.jrdf;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.HashSet;
+
+/**
+ * A bounded, least-recently-used cache from the identifying values of
+ * an Object to the URI of the node that represents it in the graph,
+ * used for classes whose nodes can only be found by querying for their
+ * identifying fields.
+ *
+ * Every entry also remembers the URIs it mentions (the URI of the node
+ * itself and the URIs of any resources among its identifying values),
+ * so that the entries made stale by the removal of a resource can be
+ * found without scanning the whole cache.
+ */
+
+class IdentifierCache {
+	private final int capacity;
+	private final LinkedHashMap<String, String> entries;
+	private final Map<String, Set<String>> keysByURI;
+	private final Map<String, Collection<String>> urisByKey;
+
+	IdentifierCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String, String>(16, 0.75f, true);
+		this.keysByURI = new HashMap<String, Set<String>>();
+		this.urisByKey = new HashMap<String, Collection<String>>();
+	}
+
+	/**
+	 * Builds the key under which the given identifying values of an
+	 * instance of the given class are cached.
+	 */
+	static String keyOf(Class clazz, Map<String, String> values) {
+		StringBuilder sb = new StringBuilder(clazz.getName());
+		for (Map.Entry<String, String> e : values.entrySet())
+			sb.append('\n')
+				.append(e.getKey())
+				.append(' ')
+				.append(e.getValue());
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the URI cached under the given key, or null.
+	 */
+	synchronized String get(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Caches the URI of the node identified by the given key. The
+	 * mentioned URIs are those whose removal makes this entry stale.
+	 */
+	synchronized void put(String key, String uri, Collection<String> mentioned) {
+		if (capacity <= 0)
+			return;
+		remove(key);
+
+		Set<String> uris = new HashSet<String>(mentioned);
+		uris.add(uri);
+		entries.put(key, uri);
+		urisByKey.put(key, uris);
+		for (String u : uris)
+			keysByURI.computeIfAbsent(u, k -> new HashSet<String>()).add(key);
+
+		while (entries.size() > capacity)
+			remove(entries.keySet().iterator().next());
+	}
+
+	/**
+	 * Removes every entry that mentions the given URI.
+	 */
+	synchronized void invalidate(String uri) {
+		Set<String> keys = keysByURI.get(uri);
+		if (keys == null)
+			return;
+		for (String key : keys.toArray(new String[keys.size()]))
+			remove(key);
+	}
+
+	/**
+	 * Removes the entries of the given class that resolve to the
+	 * given URI.
+	 */
+	synchronized void invalidate(Class clazz, String uri) {
+		Set<String> keys = keysByURI.get(uri);
+		if (keys == null)
+			return;
+		String clazzPrefix = clazz.getName() + '\n';
+		for (String key : keys.toArray(new String[keys.size()]))
+			if (key.startsWith(clazzPrefix) && uri.equals(entries.get(key)))
+				remove(key);
+	}
+
+	/**
+	 * Removes every entry.
+	 */
+	synchronized void clear() {
+		entries.clear();
+		keysByURI.clear();
+		urisByKey.clear();
+	}
+
+	private void remove(String key) {
+		entries.remove(key);
+		Collection<String> uris = urisByKey.remove(key);
+		if (uris == null)
+			return;
+		for (String u : uris) {
+			Set<String> keys = keysByURI.get(u);
+			keys.remove(key);
+			if (keys.isEmpty())
+				keysByURI.remove(u);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.stinja.jrdf;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.UUID;
+
+/**
+ * An object that converts the value of the idField of an
+ * @IdentifiedByField class to and from the last part of the URIs of
+ * its instances. The encoded form must consist only of characters
+ * that are allowed in an IRI (and not '>'), and decoding it must
+ * give back an identifier equal to the one that was encoded.
+ *
+ * Implementations must have a public no-argument constructor, and
+ * will be shared by every instance of the classes that use them.
+ *
+ * @see IdentifiedByField
+ */
+
+public interface IdentifierCodec {
+	/**
+	 * Appends the encoded form of the given identifier to the
+	 * StringBuilder. Throws a ClassCastException if the identifier
+	 * is not of the type handled by this codec.
+	 */
+	void encode(Object id, StringBuilder sb);
+
+	/**
+	 * Decodes the identifier whose encoded form is the part of the
+	 * CharSequence between start (inclusive) and end (exclusive).
+	 * Throws an IllegalArgumentException if it is not a valid encoded
+	 * form.
+	 */
+	Object decode(CharSequence cs, int start, int end);
+
+	/**
+	 * Returns the codec used by default for identifiers of the given
+	 * type, or null if there is none.
+	 */
+	static IdentifierCodec forType(Class type) {
+		if (type == int.class || type == Integer.class)
+			return new IntCodec();
+		if (type == long.class || type == Long.class)
+			return new LongCodec();
+		if (type == UUID.class)
+			return new UUIDCodec();
+		if (type == String.class)
+			return new StringCodec();
+		return null;
+	}
+
+	/**
+	 * Encodes an int as eight hexadecimal digits.
+	 */
+	public static class IntCodec implements IdentifierCodec {
+		public void encode(Object id, StringBuilder sb) {
+			appendHex(sb, (Integer) id, 8);
+		}
+
+		public Object decode(CharSequence cs, int start, int end) {
+			if (end - start != 8)
+				throw new IllegalArgumentException(
+					"An int identifier must have eight hexadecimal digits.");
+			return (int) parseHex(cs, start, end);
+		}
+	}
+
+	/**
+	 * Encodes a long as sixteen hexadecimal digits.
+	 */
+	public static class LongCodec implements IdentifierCodec {
+		public void encode(Object id, StringBuilder sb) {
+			appendHex(sb, (Long) id, 16);
+		}
+
+		public Object decode(CharSequence cs, int start, int end) {
+			if (end - start != 16)
+				throw new IllegalArgumentException(
+					"A long identifier must have sixteen hexadecimal digits.");
+			return parseHex(cs, start, end);
+		}
+	}
+
+	/**
+	 * Encodes a UUID in its canonical form, that is, as five groups
+	 * of hexadecimal digits separated by hyphens.
+	 */
+	public static class UUIDCodec implements IdentifierCodec {
+		public void encode(Object id, StringBuilder sb) {
+			UUID uuid = (UUID) id;
+			long msb = uuid.getMostSignificantBits();
+			long lsb = uuid.getLeastSignificantBits();
+			appendHex(sb, msb >>> 32, 8);
+			sb.append('-');
+			appendHex(sb, (msb >>> 16) & 0xffff, 4);
+			sb.append('-');
+			appendHex(sb, msb & 0xffff, 4);
+			sb.append('-');
+			appendHex(sb, lsb >>> 48, 4);
+			sb.append('-');
+			appendHex(sb, lsb & 0xffffffffffffL, 12);
+		}
+
+		public Object decode(CharSequence cs, int start, int end) {
+			if (end - start != 36
+				|| cs.charAt(start + 8) != '-'
+				|| cs.charAt(start + 13) != '-'
+				|| cs.charAt(start + 18) != '-'
+				|| cs.charAt(start + 23) != '-')
+				throw new IllegalArgumentException(
+					"A UUID identifier must be in the canonical form.");
+			long msb = (parseHex(cs, start, start + 8) << 32)
+				| (parseHex(cs, start + 9, start + 13) << 16)
+				| parseHex(cs, start + 14, start + 18);
+			long lsb = (parseHex(cs, start + 19, start + 23) << 48)
+				| parseHex(cs, start + 24, start + 36);
+			return new UUID(msb, lsb);
+		}
+	}
+
+	/**
+	 * Encodes a String by percent-encoding the UTF-8 bytes of every
+	 * character other than the unreserved characters of RFC 3986.
+	 */
+	public static class StringCodec implements IdentifierCodec {
+		public void encode(Object id, StringBuilder sb) {
+			String s = (String) id;
+			for (int x = 0; x < s.length(); x++) {
+				char c = s.charAt(x);
+				if (isUnreserved(c)) {
+					sb.append(c);
+				} else if (c < 0x80) {
+					appendEncoded(sb, c);
+				} else {
+					int cp = s.codePointAt(x);
+					if (Character.isSupplementaryCodePoint(cp))
+						x++;
+					if (cp < 0x800) {
+						appendEncoded(sb, 0xc0 | (cp >> 6));
+						appendEncoded(sb, 0x80 | (cp & 0x3f));
+					} else if (cp < 0x10000) {
+						appendEncoded(sb, 0xe0 | (cp >> 12));
+						appendEncoded(sb, 0x80 | ((cp >> 6) & 0x3f));
+						appendEncoded(sb, 0x80 | (cp & 0x3f));
+					} else {
+						appendEncoded(sb, 0xf0 | (cp >> 18));
+						appendEncoded(sb, 0x80 | ((cp >> 12) & 0x3f));
+						appendEncoded(sb, 0x80 | ((cp >> 6) & 0x3f));
+						appendEncoded(sb, 0x80 | (cp & 0x3f));
+					}
+				}
+			}
+		}
+
+		public Object decode(CharSequence cs, int start, int end) {
+			byte[] bytes = new byte[end - start];
+			int length = 0;
+			for (int x = start; x < end; x++) {
+				char c = cs.charAt(x);
+				if (c == '%') {
+					if (x + 3 > end)
+						throw new IllegalArgumentException(
+							"A percent sign must be followed by two hexadecimal digits.");
+					bytes[length++] = (byte) parseHex(cs, x + 1, x + 3);
+					x += 2;
+				} else if (isUnreserved(c)) {
+					bytes[length++] = (byte) c;
+				} else
+					throw new IllegalArgumentException(
+						String.format("The character '%c' should have been percent-encoded.", c));
+			}
+			return new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+
+		private static boolean isUnreserved(char c) {
+			return (c >= 'a' && c <= 'z')
+				|| (c >= 'A' && c <= 'Z')
+				|| (c >= '0' && c <= '9')
+				|| c == '-' || c == '.' || c == '_' || c == '~';
+		}
+
+		private static void appendEncoded(StringBuilder sb, int b) {
+			sb.append('%');
+			sb.append(HEX_DIGITS[(b >> 4) & 0xf]);
+			sb.append(HEX_DIGITS[b & 0xf]);
+		}
+
+		private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	}
+
+	/**
+	 * Appends the lowest digits of the given number to the
+	 * StringBuilder, as zero-padded lowercase hexadecimal.
+	 */
+	private static void appendHex(StringBuilder sb, long value, int digits) {
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+			sb.append(Character.forDigit((int) (value >>> shift) & 0xf, 16));
+	}
+
+	/**
+	 * Parses at most sixteen hexadecimal digits.
+	 */
+	private static long parseHex(CharSequence cs, int start, int end) {
+		long value = 0;
+		for (int x = start; x < end; x++) {
+			int digit = Character.digit(cs.charAt(x), 16);
+			if (digit < 0)
+				throw new IllegalArgumentException(
+					String.format("'%c' is not a hexadecimal digit.", cs.charAt(x)));
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+}
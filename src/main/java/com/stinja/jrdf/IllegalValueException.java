@@ -27,6 +27,34 @@ public class IllegalValueException extends RuntimeException {
 		);
 	}
 
+	public static IllegalValueException duplicateValues(
+		Class clazz,
+		Field field
+		) {
+		return new IllegalValueException(
+			String.format(
+				"The array in the field %s on the class %s holds the same value more than once, and its values are persisted as a set.",
+				field.getName(),
+				clazz.getCanonicalName()
+			)
+		);
+	}
+
+	public static IllegalValueException foreignView(
+		Class clazz,
+		Field field,
+		String uri
+		) {
+		return new IllegalValueException(
+			String.format(
+				"The @Paged field %s on the class %s holds the view of the values of %s, which can only be recorded for that resource, by the PersistenceManager that retrieved it.",
+				field.getName(),
+				clazz.getCanonicalName(),
+				uri
+			)
+		);
+	}
+
 	public static IllegalValueException nullIdField(
 		Class clazz,
 		Field field
@@ -64,4 +92,19 @@ public class IllegalValueException extends RuntimeException {
 		);
 	}
 
+	public static IllegalValueException unconvertibleLiteral(
+		Class clazz,
+		Field field,
+		String lexicalForm
+		) {
+		return new IllegalValueException(
+			String.format(
+				"The literal \"%s\" cannot be converted into a value of the field %s on the class %s.",
+				lexicalForm,
+				field.getName(),
+				clazz.getCanonicalName()
+			)
+		);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.stinja.jrdf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation may be born by a @PropertyField whose values are
+ * literals, to have the PersistenceManager keep an index from each of
+ * its values to the nodes that hold it, in memory, once the indexes of
+ * the class have been built with buildIndexes().
+ *
+ * Criteria on the class are then answered from the indexes: a
+ * condition of equality on an indexed field is looked up by its value,
+ * as is a comparison if the values of the field are Strings, numbers,
+ * Instants or LocalDates, whose order is that of their literals. If
+ * every condition is answered this way, count() and find() do not
+ * query the graph for the matching nodes at all; otherwise they only
+ * query the nodes found in the indexes.
+ *
+ * The indexes are kept up to date by record(), removeData() and 
+ * removeResource(), but not by other writers to the graph, so they 
+ * should be built again if the graph may have been changed otherwise.
+ * A field that is @Paged cannot be indexed.
+ *
+ * @see PersistenceManager#buildIndexes(Class)
+ */
+
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Indexed {
+}
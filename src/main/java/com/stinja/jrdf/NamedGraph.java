@@ -0,0 +1,34 @@
+package com.stinja.jrdf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation may be born by a managed class to keep the statements
+ * about its instances in a named graph of their own, rather than in the
+ * graph of the PersistenceManager. Every query and update concerning
+ * the class is then scoped to that graph, so that it only matches the
+ * statements of the class, and all of them can be removed at once by
+ * dropping the graph.
+ *
+ * A class without this annotation uses the graph set on the
+ * PersistenceManager, which is the default graph unless another has
+ * been set, for example to keep the data of each tenant apart.
+ *
+ * Note that this moves the statements of the class, so it should not
+ * be added to a class that already has data in the graph.
+ *
+ * @see PersistenceManager#setGraph(String)
+ * @see PersistenceManager#removeGraph(String)
+ */
+
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface NamedGraph {
+	/**
+	 * The URI of the named graph, without enclosing angle braces.
+	 */
+	String uri();
+}
@@ -0,0 +1,34 @@
+package com.stinja.jrdf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation may be born by a @PropertyField with the MANY or
+ * SOME policy whose type is Set or Collection, and which may have too
+ * many values to load at once.
+ *
+ * When an object is retrieved, such a field is not filled with its
+ * values; it is given a view of the values in the graph instead. The
+ * view reads the values in pages of pageSize values, ordered by their
+ * lexical forms, while it is iterated or streamed, so that only one
+ * page is held at a time. The resources among the values of a page
+ * are retrieved together. Its size() and contains() methods are
+ * answered by a COUNT and an ASK query, without reading the values.
+ *
+ * Values added to or removed from the view are kept aside until the
+ * object is recorded again, and only those changes are written; the
+ * values in the graph are never rewritten in full. A view can only be
+ * recorded for the resource it was retrieved for.
+ */
+
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Paged {
+	/**
+	 * The number of values read from the graph by each query.
+	 */
+	int pageSize() default 1000;
+}
@@ -2,12 +2,13 @@ package com.stinja.jrdf;
 
 import java.lang.reflect.Field;
 
-import java.math.BigInteger;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import java.util.List;
 import java.util.Map;
@@ -17,25 +18,45 @@ import java.util.Collection;
 
 import java.util.Iterator;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.EnumSet;
-
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.function.Function;
 
 import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
 
-import org.apache.jena.query.QuerySolution;
-import org.apache.jena.query.QueryFactory;
-import org.apache.jena.query.QueryExecutionFactory;
 import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QuerySolution;
 
-import org.apache.jena.update.UpdateAction;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
 
-import org.apache.jena.rdf.model.Literal;
-import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.update.Update;
+import org.apache.jena.update.UpdateFactory;
+import org.apache.jena.update.UpdateRequest;
 
 import java.util.regex.Pattern;
 
@@ -52,39 +73,114 @@ public class PersistenceManager {
 	private static final Pattern plainLiteralPattern = Pattern
 			.compile(rdfPlainLiteral);
 
-	private Dataset ds;
+	/** 
+	 * The predicate that marks, for as long as it takes to read it 
+	 * back, that the version of an object was incremented by a batch.
+	 */
+	private static final String recordedBy = "<urn:x-jrdf:recordedBy>";
+
+	private List<StorageBackend> shards;
 	private Map<Class, String> prefixes;
 	private Map<Class, String> uriStems;
+	private Map<Class, String> graphs;
+	private Map<Class, String> types;
+	private String graph;
+	private Map<Class, IdentifierBinding> identifierBindings;
 	private String anonStem;
-	private List<Class> literalTypes;
+	private Map<Class, ValueConverter> converters;
+	private Map<Class, List<PropertyMapping>> propertyMappings;
+	private int recordingChunkSize;
+	private IdentifierCache identifierCache;
+	private Map<Class, Map<PropertyMapping, ValueIndex>> indexes;
+	private AtomicLong lastAnonymousId;
+	private AtomicLong removalGeneration;
+	private Map<String, Long> removals;
+	private volatile long removalHorizon;
+	private WeakIdentityMap<Object, Partial> partials;
+	private int maxRetrievalDepth;
+	private int maxRetrievedObjects;
+	private long maxRetrievedBytes;
+	private Executor retrievalExecutor;
+	private Executor recordingExecutor;
 
+	/**
+	 * Creates a PersistenceManager that persists objects in the given
+	 * local Dataset, such as an in-memory or a TDB2 Dataset.
+	 */
 	public PersistenceManager(Dataset ds, String anonStem) {
-		this.ds = ds;
+		this(new DatasetBackend(ds), anonStem);
+	}
+
+	/**
+	 * Creates a PersistenceManager that persists objects through the
+	 * given StorageBackend.
+	 */
+	public PersistenceManager(StorageBackend backend, String anonStem) {
+		this(Collections.singletonList(backend), anonStem);
+	}
+
+	/**
+	 * Creates a PersistenceManager that shards the objects it persists
+	 * across the given StorageBackends, such as several TDB2 Datasets.
+	 * Each resource is kept in the shard chosen by a stable hash of its
+	 * URI, so the shards must always be given in the same order. The 
+	 * nodes created for classes that are neither @IdentifiedByField nor
+	 * @IdentifiedByContent are given URIs that hash to the same shard as
+	 * their identifying values, so that they are looked up in a single
+	 * shard as well.
+	 *
+	 * An operation on one resource goes to its shard alone, and a 
+	 * retrieval follows the references of its objects into the other 
+	 * shards. Operations that scan a class, such as count() and find(),
+	 * query every shard concurrently on the retrieval executor, and 
+	 * merge the results. Note that a recording whose objects are kept in
+	 * several shards writes each shard in its own transaction.
+	 */
+	public PersistenceManager(List<StorageBackend> shards, String anonStem) {
+		if (shards.isEmpty())
+			throw new IllegalArgumentException("A PersistenceManager needs at least one StorageBackend.");
+		this.shards = new ArrayList<StorageBackend>(shards);
 		this.prefixes = new HashMap<Class, String>();
 		this.uriStems = new HashMap<Class, String>();
+		this.graphs = new HashMap<Class, String>();
+		this.types = new ConcurrentHashMap<Class, String>();
+		this.identifierBindings = new ConcurrentHashMap<Class, IdentifierBinding>();
 		this.anonStem = anonStem;
-
-		// These are the classes that can be persisted as Jena Literals
-		literalTypes = new LinkedList<Class>();
-    literalTypes.add(Integer.class);
-    literalTypes.add(Double.class);
-    literalTypes.add(Boolean.class);
-    literalTypes.add(Long.class);
-    literalTypes.add(Byte.class);
-    literalTypes.add(Short.class);
-    literalTypes.add(Float.class);
-    literalTypes.add(BigInteger.class);
-    literalTypes.add(BigDecimal.class);
+		this.recordingChunkSize = DEFAULT_RECORDING_CHUNK_SIZE;
+		this.identifierCache = new IdentifierCache(DEFAULT_IDENTIFIER_CACHE_SIZE);
+		this.indexes = new ConcurrentHashMap<Class, Map<PropertyMapping, ValueIndex>>();
+		this.lastAnonymousId = new AtomicLong();
+		this.removalGeneration = new AtomicLong();
+		this.removals = new ConcurrentHashMap<String, Long>();
+		this.partials = new WeakIdentityMap<Object, Partial>();
+		this.maxRetrievalDepth = Integer.MAX_VALUE;
+		this.maxRetrievedObjects = Integer.MAX_VALUE;
+		this.maxRetrievedBytes = Long.MAX_VALUE;
+		this.retrievalExecutor = ForkJoinPool.commonPool();
+		this.recordingExecutor = ForkJoinPool.commonPool();
+
+		this.converters = new ConcurrentHashMap<Class, ValueConverter>(ValueConverter.defaults());
+		this.propertyMappings = new ConcurrentHashMap<Class, List<PropertyMapping>>();
 	}
 
 	private static String ORIGIN_VARNAME = "?origin";
+	private static final int DEFAULT_RECORDING_CHUNK_SIZE = 1000;
+	private static final int DEFAULT_IDENTIFIER_CACHE_SIZE = 10000;
+	private static final int MAX_REMEMBERED_REMOVALS = 100000;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final int OBJECT_BYTES = 16;
+	private static final int FIELD_BYTES = 8;
+	private static final int LITERAL_BYTES = 48;
+	private static final int REFERENCE_BYTES = 32;
 
 	/* ############# INITIALIZATION ############# */
 
 	/**
 	 * Pre-process a class to find any and all @ResourcePrefix
-	 * annotations on it or on its package. All SPARQL queries
-	 * regarding that particular class will use those prefixes.
+	 * annotations on it or on its package, and on its superclasses,
+	 * whose @PropertyFields it inherits. All SPARQL queries
+	 * regarding that particular class will use those prefixes, and
+	 * will be scoped to its @NamedGraph, if it has one.
 	 */
 	public void manageClass(Class clazz) {
 		if (! prefixes.containsKey(clazz)) {
@@ -92,23 +188,9 @@ public class PersistenceManager {
 				? (IdentifiedByField) clazz.getAnnotation(IdentifiedByField.class) : null;
 			String uriPrefix = (id != null) ? id.uriPrefix() : null;
 
-			Map <String, String> draftPrefixes = 
-				new HashMap<String, String>();
-			Package currentPrefixes = clazz.getPackage();
-			if (currentPrefixes != null && currentPrefixes.isAnnotationPresent(ResourcePrefix.class)) {
-				for (ResourcePrefix up : (ResourcePrefix[]) currentPrefixes.getAnnotationsByType(ResourcePrefix.class)) {
-					draftPrefixes.put(up.abbreviated(), up.full());
-					if (up.abbreviated().equals(uriPrefix))
-						uriPrefix = up.full();
-				}
-			}
-			if (clazz.isAnnotationPresent(ResourcePrefix.class)) {
-				for (ResourcePrefix up : (ResourcePrefix[]) clazz.getAnnotationsByType(ResourcePrefix.class)) {
-					draftPrefixes.put(up.abbreviated(), up.full());
-					if (up.abbreviated().equals(uriPrefix))
-						uriPrefix = up.full();
-				}
-			}
+			Map <String, String> draftPrefixes = getResourcePrefixes(clazz);
+			if (draftPrefixes.containsKey(uriPrefix))
+				uriPrefix = draftPrefixes.get(uriPrefix);
 			StringBuilder sb = new StringBuilder();
 			for (Map.Entry e : draftPrefixes.entrySet())
 				sb.append(String.format(
@@ -118,6 +200,16 @@ public class PersistenceManager {
 					)
 				);
 			prefixes.put(clazz, sb.toString());
+			if (clazz.isAnnotationPresent(NamedGraph.class))
+				graphs.put(
+					clazz,
+					enclosed(((NamedGraph) clazz.getAnnotation(NamedGraph.class)).uri())
+				);
+			if (clazz.isAnnotationPresent(RDFType.class))
+				types.put(
+					clazz,
+					enclosed(((RDFType) clazz.getAnnotation(RDFType.class)).uri())
+				);
 			if (id != null)
 				uriStems.put(
 					clazz,
@@ -125,7 +217,133 @@ public class PersistenceManager {
 												clazz.getName() : 
 												id.uriLabel())
 				);
+			getPropertyMappings(clazz);
+		}
+	}
+
+	/**
+	 * Collects the @ResourcePrefix annotations on the given class and 
+	 * its package, and on its superclasses and theirs, as a map from the
+	 * abbreviated prefixes to the full ones. The prefixes of a class 
+	 * override those of its package, and those of its superclasses.
+	 */
+	static Map<String, String> getResourcePrefixes(Class clazz) {
+		List<Class> hierarchy = new ArrayList<Class>();
+		for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass())
+			hierarchy.add(0, c);
+
+		Map<String, String> resourcePrefixes = new HashMap<String, String>();
+		for (Class c : hierarchy) {
+			Package currentPrefixes = c.getPackage();
+			if (currentPrefixes != null)
+				for (ResourcePrefix up : (ResourcePrefix[]) currentPrefixes.getAnnotationsByType(ResourcePrefix.class))
+					resourcePrefixes.put(up.abbreviated(), up.full());
+			for (ResourcePrefix up : (ResourcePrefix[]) c.getAnnotationsByType(ResourcePrefix.class))
+				resourcePrefixes.put(up.abbreviated(), up.full());
+		}
+		return resourcePrefixes;
+	}
+
+	/**
+	 * Returns the URI of the RDF property of the given @PropertyField,
+	 * with its prefix resolved as it is in the queries regarding the 
+	 * given class, which declares or inherits the field. 
+	 */
+	static String getPropertyURI(Class clazz, Field f)
+	throws JRDFAnnotationException {
+		PropertyField pf = f.getAnnotation(PropertyField.class);
+		if (! pf.abbreviated())
+			return pf.propertyPrefix() + pf.rdfProperty();
+
+		String prefix = getResourcePrefixes(clazz).get(pf.propertyPrefix());
+		if (prefix == null)
+			throw JRDFAnnotationException.badlyAnnotatedProperty(
+				clazz,
+				f,
+				String.format("There is no @ResourcePrefix for '%s'.", 
+					pf.propertyPrefix())
+			);
+		return prefix + pf.rdfProperty();
+	}
+
+	/**
+	 * Registers the converter used for the values of every @PropertyField
+	 * whose valueClazz is the given class, replacing any default converter
+	 * for that class. Converters should be registered before the classes
+	 * that use them are managed, since the fields of classes that have 
+	 * already been managed must be bound again, and their indexes must
+	 * be built again.
+	 *
+	 * @see ValueConverter
+	 */
+	public void registerConverter(Class clazz, ValueConverter converter) {
+		converters.put(clazz, converter);
+		propertyMappings.clear();
+		indexes.clear();
+	}
+
+	/**
+	 * Returns the converter for values of the given class, or null if
+	 * those values are persisted as resources.
+	 */
+	private ValueConverter getConverter(Class valueClazz) {
+		ValueConverter converter = converters.get(valueClazz);
+		if (converter == null && valueClazz.isEnum())
+			converter = converters.computeIfAbsent(
+				valueClazz, 
+				ValueConverter.EnumConverter::new
+			);
+		return converter;
+	}
+
+	/**
+	 * Returns the PropertyMappings of the @PropertyFields of the given
+	 * class, binding each field to its converter the first time the
+	 * class is used. The fields inherited from its superclasses come
+	 * first, in the order of the hierarchy.
+	 */
+	private List<PropertyMapping> getPropertyMappings(Class clazz) {
+		List<PropertyMapping> mappings = propertyMappings.get(clazz);
+		if (mappings == null) {
+			mappings = new ArrayList<PropertyMapping>();
+			for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+				List<PropertyMapping> declared = new ArrayList<PropertyMapping>();
+				for (Field f : c.getDeclaredFields()) {
+					if (! f.isAnnotationPresent(PropertyField.class))
+						continue;
+					PropertyField pf = f.getAnnotation(PropertyField.class);
+					declared.add(new PropertyMapping(f, getConverter(pf.valueClazz())));
+				}
+				mappings.addAll(0, declared);
+			}
+			propertyMappings.put(clazz, mappings);
 		}
+		return mappings;
+	}
+
+	/**
+	 * Returns the rdf:types asserted for the instances of the given 
+	 * class, enclosed in angle braces: its own, if it is an @RDFType
+	 * class, followed by those of its superclasses.
+	 */
+	private List<String> getTypes(Class clazz) {
+		List<String> hierarchyTypes = new ArrayList<String>();
+		for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass())
+			if (c.isAnnotationPresent(RDFType.class))
+				hierarchyTypes.add(enclosed(((RDFType) c.getAnnotation(RDFType.class)).uri()));
+		return hierarchyTypes;
+	}
+
+	/**
+	 * Returns the managed @RDFType classes that are proper subclasses of
+	 * the given class, keyed by their rdf:types.
+	 */
+	private Map<String, Class> getTypedSubclasses(Class clazz) {
+		Map<String, Class> subclasses = new LinkedHashMap<String, Class>();
+		for (Map.Entry<Class, String> e : types.entrySet())
+			if (e.getKey() != clazz && clazz.isAssignableFrom(e.getKey()))
+				subclasses.put(e.getValue(), e.getKey());
+		return subclasses;
 	}
 
 	/**
@@ -147,564 +365,3352 @@ public class PersistenceManager {
 	}
 
 	/**
-	 * Method to generate a URI, for use in a SPARQL Query. Only works
-	 * on a @IdentifiedByField class. If @IdentifiedByField.abbreviated() is true, then
-	 * the URI will not have enclosing angle braces, since those are not
-	 * required if a prefix is used. Otherwise, it will have enclosing 
-	 * angle braces.
-	 *
-	 * The URI pattern is: (<){prefix}{unqualified class name}.{hashCode}(>)
-	 * Where the hashCode is the hashCode of the value stored in the idField.
-	 *
-	 * @see IdentifiedByField
+	 * Sets the maximum number of objects whose operations are combined
+	 * into a single SPARQL Update request by a recording operation. A
+	 * batch containing more objects than this is split into several
+	 * requests, each of which is executed exactly once, all of them in
+	 * the same write transaction.
 	 */
-	public String getURI(Object o) 
-	throws JRDFAnnotationException {
-		Class clazz = o.getClass();
-		if (clazz.isAnnotationPresent(IdentifiedByField.class)) {
-			IdentifiedByField r =  (IdentifiedByField) clazz.getAnnotation(IdentifiedByField.class);
-			Field idField;
-			Object idValue;
-			try {
-				idField = clazz.getField(r.idField());
-				idField.setAccessible(true);
-				idValue = idField.get(o);
-				if (!uriStems.containsKey(clazz))
-					throw new RuntimeException(
-						String.format("%s is not a class managed by this PersistenceManager.", 
-							clazz.getCanonicalName()));
-
-				return String.format("<%s.%08x>", uriStems.get(clazz), (int) idValue);
-			} catch (NoSuchFieldException e) {
-				throw JRDFAnnotationException.badlyAnnotatedClass(
-				clazz,
-				String.format("The class has no field '%s'.",
-					r.idField())
-				);
-			} catch (ClassCastException e) {
-				throw JRDFAnnotationException.badlyAnnotatedClass(
-						clazz,
-						String.format("The identifier field %s could not be cast to an integer.", r.idField()));
-			} catch (IllegalArgumentException e) {
-				throw new RuntimeException(
-					String.format(
-						"Encountered an IllegalArgumentException when trying to access the field %s on the class %s.",
-						r.idField(),
-						clazz.getCanonicalName()
-					)
-				);
-			} catch (IllegalAccessException e) {
-				throw new RuntimeException(
-					String.format(
-						"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
-						r.idField(),
-						clazz.getCanonicalName()
-					)
-				);
-			} catch (NullPointerException e) {
-				throw IllegalValueException.nullIdField(
-					clazz,
-					r.idField()
-				);
-			}
-		} else {
-			throw JRDFAnnotationException.badlyAnnotatedClass(
-				clazz,
-				"Is not annotated with @IdentifiedByField."
+	public void setRecordingChunkSize(int recordingChunkSize) {
+		if (recordingChunkSize < 1)
+			throw new IllegalArgumentException(
+				String.format(
+					"The recording chunk size must be positive, not %d.",
+					recordingChunkSize
+				)
 			);
-		}
+		this.recordingChunkSize = recordingChunkSize;
 	}
 
 	/**
-	 * Method to get a pattern to delete all the infomration associated with
-	 * the given class from the resource with the given URI. Note that only
-	 * the statements associated with that class are deleted; if another class
-	 * has data associated with the same URI, it will not be affected.
+	 * Sets the maximum number of entries in the cache that maps the
+	 * identifying values of instances of classes that are neither 
+	 * @IdentifiedByField nor @IdentifiedByContent to the URIs of their
+	 * nodes. A size of zero disables the cache. Changing the size 
+	 * empties the cache.
+	 *
+	 * @see warmIdentifierCache()
 	 */
-	public static String getDeletionPattern(String uri, Class clazz) {
-		StringBuilder sb = new StringBuilder(uri + " ");
-		boolean hasFields = false;
-
-		for (Field f : clazz.getDeclaredFields()) {
-			if (! f.isAnnotationPresent(PropertyField.class))
-				continue;
-			PropertyField pf = f.getAnnotation(PropertyField.class);
+	public void setIdentifierCacheSize(int identifierCacheSize) {
+		if (identifierCacheSize < 0)
+			throw new IllegalArgumentException(
+				String.format(
+					"The identifier cache size cannot be negative, not %d.",
+					identifierCacheSize
+				)
+			);
+		this.identifierCache = new IdentifierCache(identifierCacheSize);
+	}
 
-			if (! hasFields)
-				hasFields = true; // first field
-			else
-				sb.append(" ;\n\t\t"); // not the first field
+	/**
+	 * Sets the maximum depth of the objects loaded by a retrieval
+	 * operation. The object being retrieved has depth zero, and the
+	 * objects it refers to have depth one, and so on. The objects 
+	 * referred to by the objects at the maximum depth are not loaded;
+	 * only their identifiers are set, if they can be decoded from their
+	 * URIs. These stubs still stand for the nodes they were created for:
+	 * recording them writes none of their fields, and only refers to 
+	 * those nodes. By default, the depth is not limited.
+	 */
+	public void setMaxRetrievalDepth(int maxRetrievalDepth) {
+		if (maxRetrievalDepth < 0)
+			throw new IllegalArgumentException(
+				String.format(
+					"The maximum retrieval depth cannot be negative, not %d.",
+					maxRetrievalDepth
+				)
+			);
+		this.maxRetrievalDepth = maxRetrievalDepth;
+	}
 
-			sb.append(
-					String.format(
-						pf.abbreviated() ? " %s%s ?%s" : " <%s%s> ?%s",
-						pf.propertyPrefix(),
-						pf.rdfProperty(),
-						f.getName()
-						)
-					);
-		}
+	/**
+	 * Sets the maximum number of objects created by a retrieval 
+	 * operation. Once it is reached, a field that refers to an object
+	 * that has not been created yet is left unloaded, and is not written
+	 * when its object is recorded. By default, the number of objects is
+	 * not limited.
+	 */
+	public void setMaxRetrievedObjects(int maxRetrievedObjects) {
+		if (maxRetrievedObjects < 1)
+			throw new IllegalArgumentException(
+				String.format(
+					"The maximum number of retrieved objects must be positive, not %d.",
+					maxRetrievedObjects
+				)
+			);
+		this.maxRetrievedObjects = maxRetrievedObjects;
+	}
 
-		if (! hasFields) return null;
-		sb.append(" .");
-		return sb.toString();
+	/**
+	 * Sets the maximum estimated size, in bytes, of the objects loaded
+	 * by a retrieval operation. The estimate counts the objects, their
+	 * fields, the lexical forms of their literals and their references.
+	 * Once it is reached, the objects that have not been loaded yet are
+	 * left with only their identifiers, as if they were past the 
+	 * maximum depth. The object being retrieved is always loaded. By
+	 * default, the size is not limited.
+	 */
+	public void setMaxRetrievedBytes(long maxRetrievedBytes) {
+		if (maxRetrievedBytes < 1)
+			throw new IllegalArgumentException(
+				String.format(
+					"The maximum retrieved size must be positive, not %d.",
+					maxRetrievedBytes
+				)
+			);
+		this.maxRetrievedBytes = maxRetrievedBytes;
 	}
 
 	/**
-	 * Method to get a pattern to use in a SPARQL query to identify
-	 * the blank node representing an Object.
+	 * Sets the Executor on which the roots of a bulk retrieval, such as
+	 * retrieveAll(), are loaded concurrently, each in a read transaction
+	 * of its own. If it is null, the roots are loaded one after another 
+	 * in the calling thread. By default, the common ForkJoinPool is used.
 	 */
-	private String getIdentifyingPattern(String varName, Object o)
-	throws JRDFAnnotationException {
-		Class clazz = o.getClass();		
-		StringBuilder sb = new StringBuilder(varName);		
+	public void setRetrievalExecutor(Executor retrievalExecutor) {
+		this.retrievalExecutor = retrievalExecutor;
+	}
 
-		if (!clazz.isAnnotationPresent(IdentifiedByField.class)) {
-			boolean hasIdentifier = false;
-			for (Field f : clazz.getDeclaredFields()) {
-				if (! f.isAnnotationPresent(PropertyField.class))
-					continue;
-				PropertyField pf = f.getAnnotation(PropertyField.class);
-				if (pf.policy() != Policy.IDENTIFIER)
-					continue;
-				
-				if (! hasIdentifier) 
-					hasIdentifier = true; // first identifying field
-				else 
-					sb.append(" ;\n\t\t"); // not the first identifying field
+	/**
+	 * Sets the Executor on which the objects of a recording operation
+	 * are converted into SPARQL Update operations and parsed, 
+	 * concurrently, in pieces of at most recordingChunkSize objects, so
+	 * that even a single chunk is converted by several tasks. The chunks
+	 * are still executed in order by the calling thread. If it is null,
+	 * the objects are converted in the calling thread. By default, the
+	 * common ForkJoinPool is used.
+	 */
+	public void setRecordingExecutor(Executor recordingExecutor) {
+		this.recordingExecutor = recordingExecutor;
+	}
 
-				String idValue;
-				try {					
-					Object val =  f.get(o);
-					if (val == null)
-						throw IllegalValueException.nullField(
-							clazz, 
-							f,
-							pf
-						);
-					if (val instanceof java.util.Collection)
-						throw JRDFAnnotationException.badlyAnnotatedProperty(
-							clazz,
-							f,
-							"A @PropertyField with the IDENTIFIER policy cannot be a collection.");
+	/**
+	 * Sets the named graph in which the statements about the instances
+	 * of classes without a @NamedGraph annotation are kept, or the 
+	 * default graph if it is null. Several PersistenceManagers can keep
+	 * the data of different tenants apart in one store this way, each
+	 * with the graph of its tenant. Changing the graph empties the 
+	 * identifier cache and drops the indexes of @Indexed fields, and the
+	 * collections retrieved before no longer track the values persisted
+	 * for their resources.
+	 *
+	 * @see NamedGraph
+	 */
+	public void setGraph(String graphURI) {
+		this.graph = graphURI == null ? null : enclosed(graphURI);
+		identifierCache.clear();
+		indexes.clear();
+		forgetRemovals();
+	}
 
-					if (val instanceof java.lang.Enum)
-						val = val.toString();
+	/**
+	 * Returns the graph in which the statements about the instances of
+	 * the given class are kept, enclosed in angle braces, or null if
+	 * they are kept in the default graph.
+	 */
+	private String getGraph(Class clazz) {
+		String classGraph = graphs.get(clazz);
+		return classGraph != null ? classGraph : graph;
+	}
 
-					Literal lit = null;
+	/**
+	 * Method to scope a pattern to use in a SPARQL query or update to
+	 * the graph of the given class.
+	 */
+	private String scoped(Class clazz, String pattern) {
+		return scoped(getGraph(clazz), pattern);
+	}
 
-					if (val instanceof java.lang.String)
-						lit = ResourceFactory.createPlainLiteral((String) val);
-					else {
-						for (Class literalClazz : literalTypes) {
-							if (val.getClass() == literalClazz) {
-								lit = ResourceFactory.createTypedLiteral(val);
-								break;
-							}
-						}
-					}
+	/**
+	 * Method to scope a pattern to use in a SPARQL query or update to
+	 * the given graph, or to leave it as it is if the graph is null.
+	 */
+	private static String scoped(String graph, String pattern) {
+		if (graph == null)
+			return pattern;
+		return String.format("GRAPH %s { %s }", graph, pattern);
+	}
 
-					if (lit != null) {
-							String escaped = StringEscapeUtils
-								.escapeJava(lit.getLexicalForm());
-							if (!plainLiteralPattern.matcher(escaped).matches())
-								throw IllegalValueException.literalMismatch(escaped);
-					
-							if (lit.getDatatype() != null)
-								idValue =
-									String.format(
-										"\"%s\"^^<%s>",
-										escaped, 
-										lit.getDatatypeURI()
-									);
-								
-							else 
-								idValue = 
-									String.format(
-										"\"%s\"",
-										escaped
-									);
-					} else if (val.getClass().isAnnotationPresent(IdentifiedByField.class)) {
-						idValue = getURI(val);
-					} else
-						throw JRDFAnnotationException.badlyAnnotatedProperty(
-							clazz,
-							f,
-							"A @PropertyField that cannot be persisted as a Literal needs to be of a @IdentifiedByField type.");
-				} catch (IllegalArgumentException e) {
-					throw new RuntimeException(
-						String.format(
-							"Encountered an IllegalArgumentException when trying to access the field %s on the class %s.",
-							f.getName(),
-							clazz.getCanonicalName()
-						)
-					);
-				} catch (IllegalAccessException e) {
-					throw new RuntimeException(
-						String.format(
-							"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
-							f.getName(),
-							clazz.getCanonicalName()
-						)
-					);
-				}
+	/**
+	 * Encloses a URI in angle braces, unless it already is.
+	 */
+	private static String enclosed(String uri) {
+		if (uri.startsWith("<") && uri.endsWith(">"))
+			return uri;
+		return "<" + uri + ">";
+	}
 
-				if (idValue == null)
-					throw IllegalValueException.nullField(
-						clazz, 
-						f,
-						pf
-					);
+	/**
+	 * Returns the shard in which the resource with the given URI, with
+	 * or without enclosing angle braces, is kept.
+	 */
+	private StorageBackend shardOf(String uri) {
+		if (shards.size() == 1)
+			return shards.get(0);
+		return shards.get(shardIndex(enclosed(uri)));
+	}
 
-				sb.append(
-					String.format(
-						pf.abbreviated() ? " %s%s %s" : " <%s%s> %s",
-						pf.propertyPrefix(),
-						pf.rdfProperty(),
-						idValue
-						)
-					);
-			}
+	/**
+	 * Returns the index of the shard chosen by the given key. This only
+	 * depends on the key and on the number of shards, since the hash 
+	 * code of a String is part of its specification.
+	 */
+	private int shardIndex(String key) {
+		return Math.floorMod(key.hashCode(), shards.size());
+	}
 
-			if (! hasIdentifier)
-				throw JRDFAnnotationException.badlyAnnotatedClass(
-					clazz,
-					String.format("This class has no identifying fields!")
-				);
-		} else {
-			throw JRDFAnnotationException.badlyAnnotatedClass(
-				clazz,
-				String.format("An instance of an @IdentifiedByField cannot be identified in this way!")
-			);
+	/**
+	 * Runs the given task against every shard, concurrently on the 
+	 * retrieval executor if there are several, and returns the results 
+	 * in the order of the shards.
+	 */
+	private <T> List<T> scatter(Function<StorageBackend, T> task) 
+	throws JRDFAnnotationException {
+		List<T> results = new ArrayList<T>(shards.size());
+		if (shards.size() == 1 || retrievalExecutor == null) {
+			for (StorageBackend shard : shards)
+				results.add(task.apply(shard));
+			return results;
 		}
 
+		List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>();
+		for (StorageBackend shard : shards)
+			futures.add(CompletableFuture.supplyAsync(() -> task.apply(shard), retrievalExecutor));
+		for (CompletableFuture<T> future : futures)
+			results.add(await(future));
+		return results;
+	}
 
-		return sb.toString();
+	/**
+	 * Runs the given action in a read transaction on each of the given
+	 * backends, nested in their order.
+	 */
+	private static void executeRead(List<StorageBackend> backends, int from, Runnable action) {
+		if (from == backends.size())
+			action.run();
+		else
+			backends.get(from).executeRead(() -> executeRead(backends, from + 1, action));
 	}
 
-	/* ########## RETRIEVAL OPERATIONS ########## */
+	/**
+	 * Runs the given action in a write transaction on each of the given
+	 * backends, nested in their order.
+	 */
+	private static void executeWrite(List<StorageBackend> backends, int from, Runnable action) {
+		if (from == backends.size())
+			action.run();
+		else
+			backends.get(from).executeWrite(() -> executeWrite(backends, from + 1, action));
+	}
 
 	/**
-	 * Performs a retrieval operation against the dataset and attempts
-	 * to create an instance of clazz that represents the 
-	 * information in the graph associated with uri. Returns null if
-	 * no such URI exists in the graph.
+	 * Waits for the result of a task run on one of the executors, and
+	 * rethrows the exception it failed with, if any.
 	 */
-	public Object retrieve(String uri, Class clazz)
+	private static <T> T await(CompletableFuture<T> future)
 	throws JRDFAnnotationException {
-		if (uri == null || clazz == null) return null;
-		RetrievalBatch batch = new RetrievalBatch();
-		batch.enqueue(uri, clazz);
-		batch.run();
-		return batch.getData(uri, clazz);
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			throw unwrap(e);
+		}
 	}
 
-
 	/**
-	 * Performs a retrieval operation to fill in all of the non-
-	 * identifier fields of o, using the identifier fields (or a
-	 * URI, in the case of a @IdentifiedByField class) to find the appropriate
-	 * node in the graph. Returns null if no such node exists in the
-	 * graph.
+	 * Rethrows the exception a task failed with, if it is a 
+	 * JRDFAnnotationException, or else returns it to be thrown, if it is
+	 * unchecked.
 	 */
-	public Object retrieve(Object o) 
+	private static RuntimeException unwrap(CompletionException e)
 	throws JRDFAnnotationException {
-		if (o == null) return null;
-
-		Class clazz = o.getClass();
-		String uri;
+		if (e.getCause() instanceof JRDFAnnotationException)
+			throw (JRDFAnnotationException) e.getCause();
+		if (e.getCause() instanceof RuntimeException)
+			return (RuntimeException) e.getCause();
+		return e;
+	}
 
-		if (clazz.isAnnotationPresent(IdentifiedByField.class))
-			uri = getURI(o);
-		else {
-			String currentPrefixes = "";
-			if (prefixes.containsKey(clazz))
-				currentPrefixes = prefixes.get(clazz);
+	/**
+	 * Method to generate a URI, for use in a SPARQL Query. Only works
+	 * on a @IdentifiedByField class. The URI always has enclosing angle
+	 * braces.
+	 *
+	 * The URI pattern is: <{prefix}{label}.{identifier}>
+	 * Where the identifier is the value stored in the idField, encoded
+	 * by the IdentifierCodec of the class.
+	 *
+	 * @see IdentifiedByField
+	 * @see IdentifierCodec
+	 */
+	public String getURI(Object o) 
+	throws JRDFAnnotationException {
+		Class clazz = o.getClass();
+		IdentifierBinding binding = getIdentifierBinding(clazz);
+		Object idValue;
+		try {
+			idValue = binding.idField.get(o);
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException(
+				String.format(
+					"Encountered an IllegalArgumentException when trying to access the field %s on the class %s.",
+					binding.idField.getName(),
+					clazz.getCanonicalName()
+				)
+			);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(
+				String.format(
+					"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
+					binding.idField.getName(),
+					clazz.getCanonicalName()
+				)
+			);
+		}
+		if (idValue == null)
+			throw IllegalValueException.nullIdField(
+				clazz,
+				binding.idField
+			);
+
+		StringBuilder sb = new StringBuilder(binding.uriHead.length() + 40);
+		sb.append(binding.uriHead);
+		try {
+			binding.codec.encode(idValue, sb);
+		} catch (ClassCastException e) {
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				String.format("The identifier field %s could not be encoded by %s.", 
+					binding.idField.getName(),
+					binding.codec.getClass().getCanonicalName()));
+		}
+		return sb.append('>').toString();
+	}
+
+	/**
+	 * Method to decode the value of the idField of a @IdentifiedByField
+	 * class from the URI of an instance, with or without enclosing 
+	 * angle braces. Returns null if the URI was not generated for an
+	 * instance of that class.
+	 *
+	 * @see getURI()
+	 */
+	public Object getIdentifier(String uri, Class clazz)
+	throws JRDFAnnotationException {
+		IdentifierBinding binding = getIdentifierBinding(clazz);
+		if (uri.isEmpty())
+			return null;
+
+		// uriHead begins with an angle brace, which uri may lack
+		int skipped = (uri.charAt(0) == '<') ? 0 : 1;
+		int start = binding.uriHead.length() - skipped;
+		int end = uri.length();
+		if (skipped == 0 && uri.charAt(--end) != '>')
+			return null;
+		if (end < start 
+			|| ! uri.regionMatches(0, binding.uriHead, skipped, start))
+			return null;
+
+		try {
+			return binding.codec.decode(uri, start, end);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the IdentifierBinding of a @IdentifiedByField class,
+	 * creating it the first time the class is used.
+	 */
+	private IdentifierBinding getIdentifierBinding(Class clazz)
+	throws JRDFAnnotationException {
+		IdentifierBinding binding = identifierBindings.get(clazz);
+		if (binding != null)
+			return binding;
+
+		if (! clazz.isAnnotationPresent(IdentifiedByField.class))
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				"Is not annotated with @IdentifiedByField."
+			);
+		if (!uriStems.containsKey(clazz))
+			throw new RuntimeException(
+				String.format("%s is not a class managed by this PersistenceManager.", 
+					clazz.getCanonicalName()));
+
+		// the annotation and the idField may be inherited.
+		IdentifiedByField r =  (IdentifiedByField) clazz.getAnnotation(IdentifiedByField.class);
+		Field idField = null;
+		for (Class c = clazz; idField == null && c != null && c != Object.class; c = c.getSuperclass()) {
+			try {
+				idField = c.getDeclaredField(r.idField());
+			} catch (NoSuchFieldException e) {
+				// look in the superclass
+			}
+		}
+		if (idField == null)
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+			clazz,
+			String.format("The class has no field '%s'.",
+				r.idField())
+			);
+		idField.setAccessible(true);
+
+		IdentifierCodec codec;
+		if (r.codec() == IdentifierCodec.class) {
+			codec = IdentifierCodec.forType(idField.getType());
+			if (codec == null)
+				throw JRDFAnnotationException.badlyAnnotatedClass(
+					clazz,
+					String.format("The identifier field %s has no default IdentifierCodec; one must be specified.", 
+						r.idField()));
+		} else {
+			try {
+				codec = r.codec().getDeclaredConstructor().newInstance();
+			} catch (Exception e) {
+				throw JRDFAnnotationException.badlyAnnotatedClass(
+					clazz,
+					String.format("The IdentifierCodec %s has no public no-argument constructor.", 
+						r.codec().getCanonicalName()));
+			}
+		}
+
+		// if any other field is required, retrieving it is enough to 
+		// tell whether the resource exists.
+		boolean requiresOtherField = false;
+		for (PropertyMapping m : getPropertyMappings(clazz))
+			if (! m.field.equals(idField) && ! m.policy().nullable)
+				requiresOtherField = true;
+
+		binding = new IdentifierBinding(
+			idField,
+			codec,
+			"<" + uriStems.get(clazz) + ".",
+			requiresOtherField
+		);
+		identifierBindings.put(clazz, binding);
+		return binding;
+	}
+
+	/**
+	 * The idField and IdentifierCodec of a @IdentifiedByField class, 
+	 * and the beginning of the URIs of its instances.
+	 */
+	private static class IdentifierBinding {
+		final Field idField;
+		final IdentifierCodec codec;
+		final String uriHead;
+		final boolean requiresOtherField;
+
+		IdentifierBinding(
+			Field idField, 
+			IdentifierCodec codec, 
+			String uriHead,
+			boolean requiresOtherField) {
+			this.idField = idField;
+			this.codec = codec;
+			this.uriHead = uriHead;
+			this.requiresOtherField = requiresOtherField;
+		}
+	}
+
+	/**
+	 * The URI from which an object was retrieved without some of its
+	 * fields, and the fields that were not loaded, which are neither
+	 * read nor written when the object is recorded.
+	 */
+	private static class Partial {
+		final String uri;
+		final Set<PropertyMapping> unloaded;
+
+		Partial(String uri, Set<PropertyMapping> unloaded) {
+			this.uri = uri;
+			this.unloaded = unloaded;
+		}
+	}
+
+	/**
+	 * Remembers the fields of a retrieved object that were not loaded,
+	 * or forgets them if every field was loaded.
+	 */
+	private void loadedFrom(Object o, String uri, Set<PropertyMapping> unloaded) {
+		if (unloaded == null || unloaded.isEmpty())
+			partials.remove(o);
+		else
+			partials.put(o, new Partial(uri, unloaded));
+	}
+
+	/**
+	 * The fields of the given object that were not loaded when it was
+	 * retrieved, such as those outside its FetchPlan.
+	 */
+	private Set<PropertyMapping> unloadedFields(Object o) {
+		Partial p = partials.get(o);
+		return p == null ? Collections.<PropertyMapping>emptySet() : p.unloaded;
+	}
+
+	/**
+	 * The condition under which an object with a @Version field may be
+	 * recorded, which guards every operation that writes it, and the 
+	 * operation that increments its version in the graph if the 
+	 * condition still holds. That operation also marks the node with
+	 * the token of the batch, so that the batch can tell whether it was
+	 * the one to increment the version.
+	 */
+	private static class VersionCheck {
+		final Object o;
+		final PropertyMapping m;
+		final String uri;
+		final long version;
+		/** 
+		 * A pattern matching once if the version of the object in the 
+		 * graph is its version, and never otherwise. 
+		 */
+		final String guard;
+		/** The conditional update of the version in the graph. */
+		final String update;
+		/** An ASK query for the mark left by the update. */
+		final String committed;
+		/** The deletion of the mark left by the update. */
+		final String unmark;
+
+		VersionCheck(
+			Object o, 
+			PropertyMapping m, 
+			String uri, 
+			long version, 
+			String graph,
+			String token) {
+			this.o = o;
+			this.m = m;
+			this.uri = uri;
+			this.version = version;
+
+			String current = "\"" + version + PrimitiveKind.LONG.datatypeSuffix;
+			String next = "\"" + (version + 1) + PrimitiveKind.LONG.datatypeSuffix;
+			String pattern = version == 0 ?
+				String.format("FILTER NOT EXISTS {\n\t\t%s\n\t}", 
+					scoped(graph, String.format("%s %s ?version .", uri, m.predicate))) :
+				scoped(graph, String.format("%s %s %s .", uri, m.predicate, current));
+
+			String mark = scoped(graph, String.format("%s %s \"%s\" .", uri, recordedBy, token));
+
+			this.guard = pattern;
+			this.committed = String.format("ASK {\n\t%s\n}", mark);
+			this.unmark = String.format("DELETE DATA {\n\t%s\n}", mark);
+			this.update = String.format(
+				version == 0 ?
+					"INSERT {\n\t%3$s\n\t%4$s\n}\nWHERE {\n\t%1$s\n}" :
+					"DELETE {\n\t%2$s\n}\nINSERT {\n\t%3$s\n\t%4$s\n}\nWHERE {\n\t%1$s\n}",
+				pattern,
+				scoped(graph, String.format("%s %s %s .", uri, m.predicate, current)),
+				scoped(graph, String.format("%s %s %s .", uri, m.predicate, next)),
+				mark
+			);
+		}
+	}
+
+	/**
+	 * Method to get the SPARQL Update operations that delete all the
+	 * information associated with the given class from the resource
+	 * with the given URI. Each property is deleted by its own 
+	 * operation, so a property that has no values does not prevent the
+	 * others from being deleted. The operations are separated, but not
+	 * terminated, by semicolons. The properties of the skipped mappings
+	 * are left untouched. If a guard is given, the operations only 
+	 * delete anything where the guard matches.
+	 */
+	private String getDeletionOperations(
+		String uri, 
+		Class clazz, 
+		Collection<PropertyMapping> skipped,
+		String guard) {
+		StringBuilder sb = new StringBuilder();
+
+		for (PropertyMapping m : getPropertyMappings(clazz)) {
+			if (skipped.contains(m))
+				continue;
+			if (sb.length() > 0)
+				sb.append(" ;\n"); // not the first field
+
+			String pattern = scoped(clazz, String.format("%s %s ?%s .", uri, m.predicate, m.name()));
+			sb.append(
+					guard == null ?
+						String.format("DELETE WHERE {\n\t%s\n}", pattern) :
+						String.format("DELETE {\n\t%s\n}\nWHERE {\n\t%s\n\t%s\n}", pattern, pattern, guard)
+					);
+		}
+
+		if (sb.length() == 0) return null;
+		return sb.toString();
+	}
+
+	/**
+	 * Method to get a pattern to use in a SPARQL query to identify
+	 * the blank node representing an Object.
+	 */
+	private String getIdentifyingPattern(String varName, Object o)
+	throws JRDFAnnotationException {
+		return getIdentifyingPattern(varName, getIdentifyingValues(o));
+	}
+
+	/**
+	 * Method to get a pattern to use in a SPARQL query to identify
+	 * the blank node with the given identifying values.
+	 *
+	 * @see getIdentifyingValues()
+	 */
+	private static String getIdentifyingPattern(String varName, Map<String, String> values) {
+		StringBuilder sb = new StringBuilder(varName);		
+		boolean hasIdentifier = false;
+
+		for (Map.Entry<String, String> e : values.entrySet()) {
+			if (! hasIdentifier) 
+				hasIdentifier = true; // first identifying field
+			else 
+				sb.append(" ;\n\t\t"); // not the first identifying field
+
+			sb.append(
+				String.format(
+					" %s %s",
+					e.getKey(),
+					e.getValue()
+					)
+				);
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Method to get the values of the IDENTIFIER fields of an Object,
+	 * as they appear in a SPARQL query, keyed by the properties used
+	 * to persist those fields, in declaration order.
+	 */
+	private Map<String, String> getIdentifyingValues(Object o)
+	throws JRDFAnnotationException {
+		Class clazz = o.getClass();		
+		Map<String, String> values = new LinkedHashMap<String, String>();
+
+		if (!clazz.isAnnotationPresent(IdentifiedByField.class)) {
+			for (PropertyMapping m : getPropertyMappings(clazz)) {
+				if (m.policy() != Policy.IDENTIFIER)
+					continue;
+
+				String idValue;
+				try {					
+					Object val =  m.field.get(o);
+					if (val == null)
+						throw IllegalValueException.nullField(
+							clazz, 
+							m.field,
+							m.annotation
+						);
+					if (val instanceof java.util.Collection)
+						throw JRDFAnnotationException.badlyAnnotatedProperty(
+							clazz,
+							m.field,
+							"A @PropertyField with the IDENTIFIER policy cannot be a collection.");
+
+					if (m.converter != null) {
+						idValue = literalToSparql(toLiteral(m, val));
+					} else if (val.getClass().isAnnotationPresent(IdentifiedByField.class)) {
+						idValue = getURI(val);
+					} else if (val.getClass().isAnnotationPresent(IdentifiedByContent.class)) {
+						idValue = getContentURI(val);
+					} else
+						throw JRDFAnnotationException.badlyAnnotatedProperty(
+							clazz,
+							m.field,
+							"A @PropertyField that cannot be persisted as a Literal needs to be of a @IdentifiedByField or @IdentifiedByContent type.");
+				} catch (IllegalArgumentException e) {
+					throw new RuntimeException(
+						String.format(
+							"Encountered an IllegalArgumentException when trying to access the field %s on the class %s.",
+							m.name(),
+							clazz.getCanonicalName()
+						)
+					);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(
+						String.format(
+							"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
+							m.name(),
+							clazz.getCanonicalName()
+						)
+					);
+				}
+
+				values.put(m.predicate, idValue);
+			}
+
+			if (values.isEmpty())
+				throw JRDFAnnotationException.badlyAnnotatedClass(
+					clazz,
+					String.format("This class has no identifying fields!")
+				);
+		} else {
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				String.format("An instance of an @IdentifiedByField cannot be identified in this way!")
+			);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Method to generate the URI of an instance of an 
+	 * @IdentifiedByContent class, which always has enclosing angle 
+	 * braces.
+	 *
+	 * The URI pattern is: <{anonStem}.{label}.{hash}>
+	 * Where the hash is the SHA-1 digest of the identifying properties
+	 * and values of the instance, in the order of the properties.
+	 *
+	 * @see IdentifiedByContent
+	 */
+	private String getContentURI(Object o) 
+	throws JRDFAnnotationException {
+		Class clazz = o.getClass();
+		IdentifiedByContent r = (IdentifiedByContent) clazz.getAnnotation(IdentifiedByContent.class);
+		if (r == null)
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				"Is not annotated with @IdentifiedByContent."
+			);
+
+		// the properties are sorted, so that the hash does not depend on
+		// the order in which reflection happens to return the fields.
+		Map<String, String> values = new TreeMap<String, String>(getIdentifyingValues(o));
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("The SHA-1 algorithm is not available.");
+		}
+		for (Map.Entry<String, String> e : values.entrySet()) {
+			digest.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(e.getValue().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+
+		byte[] hash = digest.digest();
+		StringBuilder sb = new StringBuilder("<");
+		sb.append(getContentStem(clazz));
+		for (byte b : hash) {
+			sb.append(HEX_DIGITS[(b >> 4) & 0xf]);
+			sb.append(HEX_DIGITS[b & 0xf]);
+		}
+		return sb.append('>').toString();
+	}
+
+	/**
+	 * The part of the URIs of the instances of an @IdentifiedByContent
+	 * class that precedes the hash, without the angle brace.
+	 */
+	private String getContentStem(Class clazz) {
+		IdentifiedByContent r = (IdentifiedByContent) clazz.getAnnotation(IdentifiedByContent.class);
+		return anonStem + '.' 
+			+ (r.uriLabel().equals("") ? clazz.getSimpleName() : r.uriLabel()) 
+			+ '.';
+	}
+
+	/**
+	 * Method to find the URI of the node representing the given Object,
+	 * for use in a SPARQL query. For a @IdentifiedByField or an
+	 * @IdentifiedByContent class the URI is generated directly; for
+	 * other classes the graph is queried for a node matching the
+	 * identifying fields. Returns null if there is no such node.
+	 */
+	private String lookupURI(Object o)
+	throws JRDFAnnotationException {
+		Class clazz = o.getClass();
+
+		// an object retrieved without some of its fields keeps the URI
+		// it was retrieved from.
+		Partial partial = partials.get(o);
+		if (partial != null)
+			return partial.uri;
+
+		if (clazz.isAnnotationPresent(IdentifiedByField.class))
+			return getURI(o);
+		if (clazz.isAnnotationPresent(IdentifiedByContent.class))
+			return getContentURI(o);
+
+		Map<String, String> values = getIdentifyingValues(o);
+		String key = IdentifierCache.keyOf(clazz, values);
+		String uri = identifierCache.get(key);
+		if (uri != null)
+			return uri;
+
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
+
+		String queryString = String.format(
+			"%sSELECT ?origin\nWHERE {\n\t%s\n}\nLIMIT 1",
+			currentPrefixes,
+			scoped(clazz, getIdentifyingPattern("?origin", values) + " .")
+		);
+
+		uri = selectOrigin(shardOf(key), queryString);
+		if (uri != null)
+			identifierCache.put(key, uri, mentionedURIs(values));
+		return uri;
+	}
+
+	/**
+	 * Finds the URIs of the nodes associated with all the given objects,
+	 * as lookupURI() does. The objects that are looked up in the graph
+	 * are found with one query per class for every recordingChunkSize
+	 * objects, each matching their identifying values with a VALUES
+	 * block. Objects that have no node are left out of the result.
+	 */
+	private Map<Object, String> lookupURIs(Collection<?> os) 
+	throws JRDFAnnotationException {
+		Map<Object, String> uris = new HashMap<Object, String>();
+		Map<Class, Map<String, Map<String, String>>> pendingValues = 
+			new HashMap<Class, Map<String, Map<String, String>>>();
+		Map<String, List<Object>> pendingObjects = new HashMap<String, List<Object>>();
+
+		for (Object o : os) {
+			if (o == null) continue;
+			Class clazz = o.getClass();
+
+			Partial partial = partials.get(o);
+			if (partial != null) {
+				uris.put(o, partial.uri);
+			} else if (clazz.isAnnotationPresent(IdentifiedByField.class)) {
+				uris.put(o, getURI(o));
+			} else if (clazz.isAnnotationPresent(IdentifiedByContent.class)) {
+				uris.put(o, getContentURI(o));
+			} else {
+				Map<String, String> values = getIdentifyingValues(o);
+				String key = IdentifierCache.keyOf(clazz, values);
+				String uri = identifierCache.get(key);
+				if (uri != null) {
+					uris.put(o, uri);
+				} else {
+					pendingValues
+						.computeIfAbsent(clazz, k -> new LinkedHashMap<String, Map<String, String>>())
+						.put(key, values);
+					pendingObjects
+						.computeIfAbsent(key, k -> new ArrayList<Object>())
+						.add(o);
+				}
+			}
+		}
+
+		for (Map.Entry<Class, Map<String, Map<String, String>>> e : pendingValues.entrySet()) {
+			Class clazz = e.getKey();
+			// the nodes are looked up in the shards chosen by their
+			// identifying values.
+			Map<StorageBackend, List<Map<String, String>>> chunks = 
+				new LinkedHashMap<StorageBackend, List<Map<String, String>>>();
+			for (Map.Entry<String, Map<String, String>> v : e.getValue().entrySet()) {
+				StorageBackend shard = shardOf(v.getKey());
+				List<Map<String, String>> chunk = chunks
+					.computeIfAbsent(shard, k -> new ArrayList<Map<String, String>>());
+				chunk.add(v.getValue());
+				if (chunk.size() >= recordingChunkSize) {
+					selectOrigins(shard, clazz, chunk, pendingObjects, uris);
+					chunk.clear();
+				}
+			}
+			for (Map.Entry<StorageBackend, List<Map<String, String>>> c : chunks.entrySet())
+				if (! c.getValue().isEmpty())
+					selectOrigins(c.getKey(), clazz, c.getValue(), pendingObjects, uris);
+		}
+
+		return uris;
+	}
+
+	/**
+	 * Runs a single query against the given shard finding the nodes of
+	 * the instances of the given class with the given identifying values,
+	 * caches them, and maps the objects with those values to them.
+	 */
+	private void selectOrigins(
+		StorageBackend shard,
+		Class clazz, 
+		List<Map<String, String>> valuesList,
+		Map<String, List<Object>> objectsByKey,
+		Map<Object, String> uris) {
+		List<String> predicates = new ArrayList<String>(valuesList.get(0).keySet());
+
+		StringBuilder pattern = new StringBuilder("?origin");
+		for (int x = 0; x < predicates.size(); x++) {
+			if (x > 0)
+				pattern.append(" ;\n\t\t"); // not the first identifying field
+			pattern.append(String.format(" %s ?id%d", predicates.get(x), x));
+		}
+
+		StringBuilder rows = new StringBuilder();
+		for (Map<String, String> values : valuesList) {
+			rows.append("\n\t\t(");
+			for (String predicate : predicates)
+				rows.append(' ').append(values.get(predicate));
+			rows.append(" )");
+		}
+
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
+
+		String queryString = String.format(
+			"%sSELECT ?origin%s\nWHERE {\n\tVALUES (%s ) {%s\n\t}\n\t%s\n}",
+			currentPrefixes,
+			idVariables(predicates.size()),
+			idVariables(predicates.size()),
+			rows,
+			scoped(clazz, pattern + " .")
+		);
+
+		shard.select(queryString, soln -> {
+			Map<String, String> values = new LinkedHashMap<String, String>();
+			for (int x = 0; x < predicates.size(); x++)
+				values.put(
+					predicates.get(x), 
+					nodeToSparql(soln.get("id" + x))
+				);
+			String key = IdentifierCache.keyOf(clazz, values);
+			String uri = nodeToSparql(soln.get("origin"));
+			List<Object> objects = objectsByKey.get(key);
+			if (objects == null)
+				return;
+			for (Object o : objects)
+				uris.putIfAbsent(o, uri);
+			identifierCache.put(key, uri, mentionedURIs(values));
+		});
+	}
+
+	/**
+	 * Returns the URIs of the resources among the given identifying 
+	 * values.
+	 */
+	private static List<String> mentionedURIs(Map<String, String> values) {
+		List<String> uris = new ArrayList<String>();
+		for (String value : values.values())
+			if (value.startsWith("<"))
+				uris.add(value);
+		return uris;
+	}
+
+	/**
+	 * Resolves the identifying values of every instance of the given
+	 * class in the graph with a single query per shard, and fills the identifier
+	 * cache with the results, so that later operations on those 
+	 * instances do not need to query for their nodes. Only the most
+	 * recently resolved entries are kept if there are more instances
+	 * than the cache can hold. Does nothing for @IdentifiedByField and
+	 * @IdentifiedByContent classes, whose URIs are never looked up.
+	 *
+	 * @see setIdentifierCacheSize()
+	 */
+	public void warmIdentifierCache(Class clazz) 
+	throws JRDFAnnotationException {
+		if (clazz.isAnnotationPresent(IdentifiedByField.class)
+			|| clazz.isAnnotationPresent(IdentifiedByContent.class))
+			return;
+
+		List<String> predicates = new ArrayList<String>();
+		StringBuilder pattern = new StringBuilder("?origin");
+		for (PropertyMapping m : getPropertyMappings(clazz)) {
+			if (m.policy() != Policy.IDENTIFIER)
+				continue;
+
+			if (! predicates.isEmpty())
+				pattern.append(" ;\n\t\t"); // not the first identifying field
+			pattern.append(
+				String.format(
+					" %s ?id%d",
+					m.predicate,
+					predicates.size()
+				)
+			);
+			predicates.add(m.predicate);
+		}
+
+		if (predicates.isEmpty())
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				String.format("This class has no identifying fields!")
+			);
+
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
+
+		String queryString = String.format(
+			"%sSELECT ?origin%s\nWHERE {\n\t%s\n}",
+			currentPrefixes,
+			idVariables(predicates.size()),
+			scoped(clazz, pattern + " .")
+		);
+
+		for (StorageBackend shard : shards)
+			shard.select(queryString, soln -> {
+				Map<String, String> values = new LinkedHashMap<String, String>();
+				for (int x = 0; x < predicates.size(); x++)
+					values.put(
+						predicates.get(x), 
+						nodeToSparql(soln.get("id" + x))
+					);
+				identifierCache.put(
+					IdentifierCache.keyOf(clazz, values),
+					nodeToSparql(soln.get("origin")),
+					mentionedURIs(values)
+				);
+			});
+	}
+
+	/**
+	 * Builds the indexes of the @Indexed fields of the given class from
+	 * the values in the graph, with a single query per shard whose
+	 * results are streamed into them, replacing any indexes that were
+	 * built before. Until they are built, Criteria on the class are
+	 * answered by querying the graph alone.
+	 *
+	 * @see Indexed
+	 */
+	public void buildIndexes(Class clazz)
+	throws JRDFAnnotationException {
+		List<PropertyMapping> mappings = new ArrayList<PropertyMapping>();
+		for (PropertyMapping m : getPropertyMappings(clazz)) {
+			if (! m.isIndexed)
+				continue;
+			if (m.converter == null || m.isPaged() || m.field.getType().isArray())
+				throw JRDFAnnotationException.badlyAnnotatedProperty(
+					clazz,
+					m.field,
+					"Marked as @Indexed, but its values are not literals held by the field itself."
+				);
+			mappings.add(m);
+		}
+		if (mappings.isEmpty())
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				"This class has no @Indexed fields!"
+			);
+
+		Map<PropertyMapping, ValueIndex> classIndexes = new LinkedHashMap<PropertyMapping, ValueIndex>();
+		StringBuilder predicates = new StringBuilder();
+		for (int x = 0; x < mappings.size(); x++) {
+			classIndexes.put(mappings.get(x), new ValueIndex(mappings.get(x).valueClazz()));
+			predicates.append(
+				String.format("\n\t\t(%s %d)", mappings.get(x).predicate, x));
+		}
+
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
+
+		String queryString = String.format(
+			"%sSELECT ?origin ?i ?val\nWHERE {\n\tVALUES (?p ?i) {%s\n\t}\n\t%s\n}",
+			currentPrefixes,
+			predicates,
+			getSelectionPattern("?origin", Criteria.of(clazz), "?origin ?p ?val .\n\t")
+		);
+
+		for (StorageBackend shard : shards)
+			shard.select(queryString, soln -> {
+				PropertyMapping m = mappings.get(soln.getLiteral("i").getInt());
+				RDFNode val = soln.get("val");
+				if (val.isLiteral())
+					classIndexes.get(m).add(
+						nodeToSparql(soln.get("origin")),
+						fromLiteral(m, val.asLiteral())
+					);
+			});
+		indexes.put(clazz, classIndexes);
+	}
+
+	/**
+	 * Replaces the values of the given object, recorded at the given
+	 * URI, in the indexes built for its class and its superclasses. The
+	 * values of the given unloaded fields, which were not written, are
+	 * left as they are.
+	 */
+	private void index(Object o, String uri, Set<PropertyMapping> unloaded)
+	throws JRDFAnnotationException {
+		for (Map.Entry<Class, Map<PropertyMapping, ValueIndex>> e : indexes.entrySet()) {
+			if (! e.getKey().isAssignableFrom(o.getClass()))
+				continue;
+			for (Map.Entry<PropertyMapping, ValueIndex> index : e.getValue().entrySet()) {
+				PropertyMapping m = index.getKey();
+				if (unloaded.contains(m))
+					continue;
+				Object val;
+				try {
+					val = m.field.get(o);
+				} catch (IllegalAccessException ex) {
+					throw new RuntimeException(
+						String.format(
+							"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
+							m.name(),
+							o.getClass().getCanonicalName()
+						)
+					);
+				}
+
+				List<Object> values = new ArrayList<Object>();
+				if (val instanceof Collection) {
+					for (Object v : (Collection) val)
+						values.add(indexKey(m, v));
+				} else if (val != null) {
+					values.add(indexKey(m, val));
+				}
+				index.getValue().put(uri, values);
+			}
+		}
+	}
+
+	/**
+	 * Removes the node with the given URI from the indexes built for the
+	 * given class, and for its superclasses and subclasses, whose values
+	 * have been removed along with those of the class.
+	 */
+	private void unindex(Class clazz, String uri) {
+		for (Map.Entry<Class, Map<PropertyMapping, ValueIndex>> e : indexes.entrySet())
+			if (e.getKey().isAssignableFrom(clazz) || clazz.isAssignableFrom(e.getKey()))
+				for (ValueIndex index : e.getValue().values())
+					index.remove(uri);
+	}
+
+	/**
+	 * Returns the value under which the given value of the given field
+	 * is indexed, which is the value it is retrieved as.
+	 */
+	private static Object indexKey(PropertyMapping m, Object val)
+	throws JRDFAnnotationException {
+		return fromLiteral(m, toLiteral(m, val));
+	}
+
+	private static String idVariables(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int x = 0; x < count; x++)
+			sb.append(" ?id").append(x);
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the number used to generate the URI of a new node for an
+	 * Object that is not @IdentifiedByField or @IdentifiedByContent. 
+	 * This is the current time, unless that has already been used, so 
+	 * that two Objects recorded in the same millisecond do not share a
+	 * node.
+	 */
+	private long nextAnonymousId() {
+		return lastAnonymousId.updateAndGet(
+			last -> Math.max(last + 1, System.currentTimeMillis())
+		);
+	}
+
+	/**
+	 * Utility method for converting a value of the given field into a
+	 * Literal.
+	 */
+	private static Literal toLiteral(PropertyMapping m, Object val)
+	throws JRDFAnnotationException {
+		try {
+			return m.converter.toLiteral(val);
+		} catch (ClassCastException e) {
+			throw JRDFAnnotationException.badlyAnnotatedProperty(
+				m.field.getDeclaringClass(),
+				m.field,
+				String.format("The value %s could not be converted by %s.",
+					val,
+					m.converter.getClass().getCanonicalName()));
+		}
+	}
+
+	/**
+	 * Utility method for converting a Literal retrieved from the graph
+	 * into a value of the given field.
+	 */
+	private static Object fromLiteral(PropertyMapping m, Literal lit) {
+		if (m.converter == null)
+			return lit.getValue();
+		try {
+			return m.converter.fromLiteral(lit);
+		} catch (IllegalArgumentException e) {
+			throw IllegalValueException.unconvertibleLiteral(
+				m.field.getDeclaringClass(),
+				m.field,
+				lit.getLexicalForm()
+			);
+		}
+	}
+
+	/**
+	 * Utility method for writing a Literal as it appears in a SPARQL
+	 * query. The lexical form is escaped, and checked against the
+	 * pattern of a safe literal.
+	 */
+	private static String literalToSparql(Literal lit) {
+		String escaped = StringEscapeUtils
+			.escapeJava(lit.getLexicalForm());
+		if (!plainLiteralPattern.matcher(escaped).matches())
+			throw IllegalValueException.literalMismatch(escaped);
+
+		if (lit.getDatatype() != null)
+			return String.format("\"%s\"^^<%s>",
+				escaped, lit.getDatatypeURI());
+		return String.format("\"%s\"",
+				escaped);
+	}
+
+	/**
+	 * Utility method for writing a node returned by a query as it 
+	 * appears in a SPARQL query.
+	 */
+	private static String nodeToSparql(RDFNode node) {
+		if (node.isLiteral())
+			return literalToSparql(node.asLiteral());
+		return String.format("<%s>", node.asResource().getURI());
+	}
+
+	/**
+	 * Runs a query selecting ?origin against the given shard and returns
+	 * the first result as a URI enclosed in angle braces, or null if
+	 * the query has no results.
+	 */
+	private String selectOrigin(StorageBackend shard, String queryString) {
+		List<RDFNode> results = selectNodes(shard, queryString, "origin");
+		if (results.isEmpty())
+			return null;
+		return String.format("<%s>", results.get(0).asResource().getURI());
+	}
+
+	/**
+	 * Runs a query against the given shard, in a read transaction, and 
+	 * returns the values of the given variable in every result.
+	 */
+	private static List<RDFNode> selectNodes(StorageBackend shard, String queryString, String varName) {
+		List<RDFNode> nodes = new ArrayList<RDFNode>();
+		shard.select(queryString, soln -> nodes.add(soln.get(varName)));
+		return nodes;
+	}
+
+	/**
+	 * Estimates the number of bytes taken by the value of a field that
+	 * is loaded from the given node.
+	 */
+	private static long estimateBytes(RDFNode node) {
+		if (node.isLiteral())
+			return LITERAL_BYTES + 2L * node.asLiteral().getLexicalForm().length();
+		return REFERENCE_BYTES;
+	}
+
+	/* ########## RETRIEVAL OPERATIONS ########## */
+
+	/**
+	 * Performs a retrieval operation against the dataset and attempts
+	 * to create an instance of clazz that represents the 
+	 * information in the graph associated with uri. Returns null if
+	 * no such URI exists in the graph. If clazz has managed @RDFType
+	 * subclasses, an instance of the most specific of them whose type
+	 * the resource has is created instead.
+	 */
+	public Object retrieve(String uri, Class clazz)
+	throws JRDFAnnotationException {
+		return retrieve(uri, clazz, null);
+	}
+
+	/**
+	 * Performs a retrieval operation like retrieve(uri, clazz), but
+	 * loads only the fields (and the objects they refer to) included in
+	 * the given FetchPlan. If the plan is null, every field is loaded.
+	 *
+	 * @see FetchPlan
+	 */
+	public Object retrieve(String uri, Class clazz, FetchPlan plan)
+	throws JRDFAnnotationException {
+		if (uri == null || clazz == null) return null;
+		if (plan != null && plan.getPlannedClass() != clazz)
+			throw new IllegalArgumentException(
+				String.format("A FetchPlan for %s cannot be used to retrieve %s.",
+					plan.getPlannedClass().getCanonicalName(),
+					clazz.getCanonicalName()));
+		Class concrete = getConcreteClasses(Collections.singletonList(uri), clazz).get(uri);
+		RetrievalBatch batch = new RetrievalBatch();
+		batch.enqueue(uri, concrete, plan, 0);
+		batch.run();
+		return batch.getData(uri, concrete);
+	}
+
+
+	/**
+	 * Performs a retrieval operation to fill in all of the non-
+	 * identifier fields of o, using the identifier fields (or a
+	 * URI, in the case of a @IdentifiedByField or @IdentifiedByContent
+	 * class) to find the appropriate node in the graph. Returns null if
+	 * no such node exists in the graph.
+	 */
+	public Object retrieve(Object o) 
+	throws JRDFAnnotationException {
+		return retrieve(o, null);
+	}
+
+	/**
+	 * Performs a retrieval operation like retrieve(o), but loads only
+	 * the fields (and the objects they refer to) included in the given
+	 * FetchPlan. If the plan is null, every field is loaded.
+	 *
+	 * @see FetchPlan
+	 */
+	public Object retrieve(Object o, FetchPlan plan) 
+	throws JRDFAnnotationException {
+		if (o == null) return null;
+
+		String uri = lookupURI(o);
+		if (uri == null) return null;
+
+		return retrieve(uri, o.getClass(), plan);
+	}
+
+	/**
+	 * Performs a retrieval operation like retrieve(uri, clazz) for each
+	 * of the given URIs, and returns the objects in the same order, with
+	 * null in place of any that could not be retrieved. A failure to 
+	 * retrieve one of them does not affect the others.
+	 *
+	 * The values of the fields of all the roots are read together, and
+	 * the roots are then loaded concurrently on the retrieval executor.
+	 *
+	 * @see #setRetrievalExecutor(Executor)
+	 */
+	public List<Object> retrieveAll(List<String> uris, Class clazz)
+	throws JRDFAnnotationException {
+		return retrieveAll(uris, clazz, null);
+	}
+
+	/**
+	 * Performs a retrieval operation like retrieveAll(uris, clazz), but
+	 * loads only the fields (and the objects they refer to) included in
+	 * the given FetchPlan. If the plan is null, every field is loaded.
+	 */
+	public List<Object> retrieveAll(List<String> uris, Class clazz, FetchPlan plan)
+	throws JRDFAnnotationException {
+		if (plan != null && plan.getPlannedClass() != clazz)
+			throw new IllegalArgumentException(
+				String.format("A FetchPlan for %s cannot be used to retrieve %s.",
+					plan.getPlannedClass().getCanonicalName(),
+					clazz.getCanonicalName()));
+		List<String> roots = new ArrayList<String>();
+		for (String uri : uris)
+			if (uri != null)
+				roots.add(uri);
+		Map<String, Class> concrete = getConcreteClasses(roots, clazz);
+
+		RetrievalBatch batch = new RetrievalBatch();
+		for (String uri : roots)
+			batch.enqueue(uri, concrete.get(uri), plan, 0);
+		batch.run();
+
+		List<Object> results = new ArrayList<Object>(uris.size());
+		for (String uri : uris)
+			results.add(uri == null ? null : batch.getData(uri, concrete.get(uri)));
+		return results;
+	}
+
+	/**
+	 * Maps each of the given URIs to the class of the object to be 
+	 * retrieved for it as an instance of the given class: the most
+	 * specific of its managed @RDFType subclasses whose type the 
+	 * resource has, or the class itself. The types are read with one 
+	 * query for every recordingChunkSize resources in each shard, and
+	 * only if the class has such subclasses.
+	 */
+	private Map<String, Class> getConcreteClasses(List<String> uris, Class clazz) {
+		Map<String, Class> concrete = new HashMap<String, Class>();
+		for (String uri : uris)
+			concrete.put(uri, clazz);
+
+		Map<String, Class> subclasses = getTypedSubclasses(clazz);
+		if (subclasses.isEmpty() || uris.isEmpty())
+			return concrete;
+
+		// the types of a subclass are kept in its own graph.
+		Map<String, StringBuilder> typesByGraph = new LinkedHashMap<String, StringBuilder>();
+		for (Map.Entry<String, Class> e : subclasses.entrySet())
+			typesByGraph
+				.computeIfAbsent(getGraph(e.getValue()), k -> new StringBuilder())
+				.append(' ').append(e.getKey());
+		List<String> branches = new ArrayList<String>();
+		for (Map.Entry<String, StringBuilder> e : typesByGraph.entrySet())
+			branches.add(
+				String.format(
+					"{ VALUES ?type {%s }\n\t\t%s }",
+					e.getValue(),
+					scoped(e.getKey(), "?origin a ?type .")
+				)
+			);
+
+		for (Map.Entry<StorageBackend, List<String>> shard : groupByShard(uris).entrySet())
+			for (String values : valuesBlocks(shard.getValue()))
+				shard.getKey().select(
+					String.format(
+						"SELECT ?origin ?type\nWHERE {\n\tVALUES ?origin {%s }\n\t%s\n}",
+						values,
+						String.join("\n\tUNION ", branches)
+					),
+					soln -> {
+						String uri = nodeToSparql(soln.get("origin"));
+						Class current = concrete.get(uri);
+						Class typed = subclasses.get(nodeToSparql(soln.get("type")));
+						// a node has the types of the superclasses of its class.
+						if (current != null && typed != null && current.isAssignableFrom(typed))
+							concrete.put(uri, typed);
+					}
+				);
+		return concrete;
+	}
+
+	/**
+	 * Performs a retrieval operation like retrieve(o) for each of the
+	 * given objects, as retrieveAll(uris, clazz) does, and returns the
+	 * retrieved objects in the iteration order of the given ones. The 
+	 * nodes associated with the objects are found with one query per 
+	 * class, as removeAll() does.
+	 */
+	public List<Object> retrieveAll(Collection<?> os)
+	throws JRDFAnnotationException {
+		Map<Object, String> uris = lookupURIs(os);
+
+		RetrievalBatch batch = new RetrievalBatch();
+		for (Object o : os)
+			if (o != null && uris.containsKey(o))
+				batch.enqueue(uris.get(o), o.getClass(), null, 0);
+		batch.run();
+
+		List<Object> results = new ArrayList<Object>(os.size());
+		for (Object o : os)
+			results.add(o == null || ! uris.containsKey(o) ? 
+				null : 
+				batch.getData(uris.get(o), o.getClass()));
+		return results;
+	}
+
+	/**
+	 * Performs a retrieval operation like retrieve(uri, clazz), but 
+	 * reads the part of the object graph within the given depth of the
+	 * root with a single CONSTRUCT query, and creates the objects from 
+	 * its result, which is held in memory. This takes one request to the
+	 * backend, rather than one per level of the object graph, which 
+	 * matters most for a remote store. The objects at the given depth 
+	 * refer to objects in which only the identifying fields are set, as
+	 * they do past the maximum retrieval depth, which still applies.
+	 *
+	 * The statements of every resource at the same level are read
+	 * together, so a resource that can be reached by several paths is
+	 * read once per level it is found at. @Paged fields are not read by
+	 * the query; they read their values from the backend when they are
+	 * used, as they do after retrieve().
+	 *
+	 * On a sharded PersistenceManager, the object graph may span several
+	 * shards, which a single query cannot follow, so it is read level by
+	 * level as retrieve() reads it, down to the given depth.
+	 */
+	public Object fetch(String uri, Class clazz, int depth)
+	throws JRDFAnnotationException {
+		if (uri == null || clazz == null) return null;
+		if (depth < 0)
+			throw new IllegalArgumentException(
+				String.format("The depth of a fetch cannot be negative, but was %d.", depth));
+
+		RetrievalBatch batch = new RetrievalBatch();
+		if (shards.size() == 1) {
+			Model subgraph = shards.get(0).construct(getSubgraphQuery(uri, clazz, depth));
+			batch.source = new DatasetBackend(DatasetFactory.create(subgraph));
+		}
+		batch.depthLimit = Math.min(depth, maxRetrievalDepth);
+		batch.enqueue(uri, clazz, null, 0);
+		batch.run();
+		return batch.getData(uri, clazz);
+	}
+
+	/**
+	 * Performs a retrieval operation like fetch(uri, clazz, depth), for
+	 * the node associated with the given object, as retrieve(o) does.
+	 */
+	public Object fetch(Object o, int depth) 
+	throws JRDFAnnotationException {
+		if (o == null) return null;
+
+		String uri = lookupURI(o);
+		if (uri == null) return null;
+
+		return fetch(uri, o.getClass(), depth);
+	}
+
+	/**
+	 * Generates the CONSTRUCT query that copies the statements a
+	 * retrieval of the given resource reads, down to the given depth.
+	 * The query has one branch of its UNION for each level of the object
+	 * graph, which copies the values of the fields of every resource at
+	 * that level. The resources at a level are selected by a DISTINCT 
+	 * subquery that follows the resource fields of the classes at the
+	 * level above from the resources it selects, so that the query grows
+	 * with the depth rather than with the number of paths through the 
+	 * object graph, and the values of sibling fields are never joined 
+	 * with each other. The fields of the classes kept in different 
+	 * graphs are read and followed by a branch for each graph.
+	 */
+	private String getSubgraphQuery(String uri, Class clazz, int depth) 
+	throws JRDFAnnotationException {
+		Set<String> prefixLines = new LinkedHashSet<String>();
+		StringBuilder templates = new StringBuilder();
+		List<String> branches = new ArrayList<String>();
+
+		Set<Class> level = Collections.singleton(clazz);
+		String nodes = String.format("VALUES ?n0 { %s }", uri);
+		for (int x = 0; ! level.isEmpty(); x++) {
+			// the predicates are grouped by the graph of their class
+			Map<String, Set<String>> predicates = new LinkedHashMap<String, Set<String>>();
+			Map<String, Set<String>> references = new LinkedHashMap<String, Set<String>>();
+			Set<Class> next = new LinkedHashSet<Class>();
+			for (Class c : level) {
+				if (prefixes.containsKey(c))
+					for (String line : prefixes.get(c).split("\\R"))
+						if (! line.isEmpty())
+							prefixLines.add(line);
+
+				String classGraph = getGraph(c);
+				for (PropertyMapping m : getPropertyMappings(c)) {
+					if (m.isPaged())
+						continue;
+					predicates
+						.computeIfAbsent(classGraph, k -> new LinkedHashSet<String>())
+						.add(m.predicate);
+					if (m.converter == null && m.primitive == null) {
+						references
+							.computeIfAbsent(classGraph, k -> new LinkedHashSet<String>())
+							.add(m.predicate);
+						next.add(m.valueClazz());
+					}
+				}
+			}
+
+			if (! predicates.isEmpty())
+				templates.append(String.format("\n\t?n%d ?p%d ?o%d .", x, x, x));
+			for (Map.Entry<String, Set<String>> e : predicates.entrySet())
+				branches.add(
+					String.format(
+						"{\n\t\t%s\n\t\tVALUES ?p%d { %s }\n\t\t%s\n\t}",
+						nodes,
+						x,
+						String.join(" ", e.getValue()),
+						scoped(e.getKey(), String.format("?n%d ?p%d ?o%d .", x, x, x))
+					)
+				);
+
+			if (x == depth || references.isEmpty())
+				break;
+
+			List<String> links = new ArrayList<String>();
+			for (Map.Entry<String, Set<String>> e : references.entrySet())
+				links.add(
+					scoped(
+						e.getKey(),
+						String.format(
+							"?n%d %s ?n%d .",
+							x,
+							e.getValue().size() == 1 ?
+								e.getValue().iterator().next() :
+								"(" + String.join("|", e.getValue()) + ")",
+							x + 1
+						)
+					)
+				);
+
+			nodes = String.format(
+				"{\n\t\tSELECT DISTINCT ?n%d\n\t\tWHERE {\n\t\t%s\n\t\t%s\n\t\t}\n\t\t}",
+				x + 1,
+				nodes,
+				links.size() == 1 ?
+					links.get(0) :
+					"{ " + String.join(" }\n\t\tUNION\n\t\t{ ", links) + " }"
+			);
+			level = next;
+		}
+
+		StringBuilder currentPrefixes = new StringBuilder();
+		for (String line : prefixLines)
+			currentPrefixes.append(line).append('\n');
+
+		return String.format(
+			"%sCONSTRUCT {%s\n}\nWHERE {\n\t%s\n}",
+			currentPrefixes,
+			templates,
+			String.join("\n\tUNION\n\t", branches)
+		);
+	}
+
+	/**
+	 * A private inner class representing the internal state and 
+	 * results of a retrieval operation.
+	 *
+	 * Every resource is loaded at most once per batch, so cycles in the
+	 * graph are closed by sharing objects rather than followed. The 
+	 * values are read from the shards of the resources, unless the batch
+	 * is given a source of its own. The
+	 * retrieval limits of the PersistenceManager bound the depth, the
+	 * number of objects and the estimated size of what is loaded.
+	 */
+	private class RetrievalBatch {
+		private List<String> uriQueue;
+		private List<Class> clazzQueue;
+		private List<FetchPlan> planQueue;
+		private List<Integer> depthQueue;
+		private Set<String> queued;
+		private Map<String, Map<Class, Object>> objMapping;
+		private Map<String, Map<PropertyMapping, List<RDFNode>>> loaded;
+		private StorageBackend source;
+		private int depthLimit;
+		private AtomicInteger materialized;
+		private AtomicLong estimatedBytes;
+
+		public RetrievalBatch () {
+			uriQueue = new ArrayList<String>();
+			clazzQueue = new ArrayList<Class>();
+			planQueue = new ArrayList<FetchPlan>();
+			depthQueue = new ArrayList<Integer>();
+			queued = new HashSet<String>();
+			objMapping = new HashMap<String,Map<Class,Object>>();
+			loaded = new HashMap<String, Map<PropertyMapping, List<RDFNode>>>();
+			source = null;
+			depthLimit = maxRetrievalDepth;
+			materialized = new AtomicInteger();
+			estimatedBytes = new AtomicLong();
+		}
+
+		/**
+		 * Adds the given resource to the queue, to be loaded with the
+		 * given FetchPlan, or completely if the plan is null. A resource
+		 * that is reached more than once is loaded with the plan (and at
+		 * the depth) it was first reached with.
+		 */
+		public void enqueue(String uri, Class clazz, FetchPlan plan, int depth) {
+			if (queued.add(clazz.getName() + ' ' + uri)) {
+				uriQueue.add(uri);
+				clazzQueue.add(clazz);
+				planQueue.add(plan);
+				depthQueue.add(depth);
+			}
+		}
+
+		public Object getData(String uri, Class clazz) {
+			if (objMapping.containsKey(uri)) {
+				Map<Class, Object> clazzMapping = objMapping.get(uri);
+				if (clazzMapping.containsKey(clazz)) {
+					return clazzMapping.get(clazz);
+				}
+			}
+			return null;
+		}
+
+		public Set<Object> getAllData(Class clazz) {
+			return new HashSet<Object>();
+		}
+
+		public void run()
+		throws JRDFAnnotationException {
+			String currentURI;
+			Class currentClazz;
+			FetchPlan currentPlan;
+			int currentDepth;
+			int queuePos = 0;
+
+			// if there is a single item  in the queue, we will attempt to 
+			// retrieve the complete object graph. if any part of it cannot
+			// be retrieved (because a non-nullable field cannot be populated),
+			// the retrieval will end and objMapping will not be modified.
+			if (uriQueue.size() <= 1 && clazzQueue.size() <= 1) {
+				// collections retrieved now hold the values persisted as of
+				// this generation, and can track their changes from there.
+				long generation = removalGeneration.get();
+
+				// the objects created by this batch are kept apart from
+				// objMapping, so that a failed batch does not affect it.
+				Map<String,Map<Class,Object>> results = new HashMap<String,Map<Class,Object>>();
+
+				// the objects whose fields are loaded by this batch, and the
+				// fields of each that are not.
+				Map<Object, String> loadedObjects = new IdentityHashMap<Object, String>();
+				Map<Object, Set<PropertyMapping>> unloaded = new IdentityHashMap<Object, Set<PropertyMapping>>();
+
+				while (queuePos < uriQueue.size() && queuePos < clazzQueue.size()) {
+					// Move on to the next object.
+					currentURI = uriQueue.get(queuePos);
+					currentClazz = clazzQueue.get(queuePos);
+					currentPlan = planQueue.get(queuePos);
+					currentDepth = depthQueue.get(queuePos);
+					queuePos++;
+
+					Object current = getOrCreate(currentURI, currentClazz, results);
+
+					// the values of this object are read along with those
+					// of every other object in the queue that has not been
+					// read yet, which is the rest of its level.
+					String key = currentClazz.getName() + ' ' + currentURI;
+					if (! loaded.containsKey(key))
+						load(queuePos - 1);
+					Map<PropertyMapping, List<RDFNode>> values = loaded.get(key);
+
+					// the identifier of a @IdentifiedByField class can be decoded
+					// from its URI, rather than read from the graph. It is still
+					// read if no other field shows that the resource exists.
+					Field decodedField = null;
+					if (setDecodedIdentifier(current, currentURI, currentClazz)
+						&& getIdentifierBinding(currentClazz).requiresOtherField)
+						decodedField = getIdentifierBinding(currentClazz).idField;
+
+					// past the size limit, the remaining objects keep only
+					// their identifiers.
+					if (currentDepth > 0 && estimatedBytes.get() >= maxRetrievedBytes)
+						continue;
+					estimatedBytes.addAndGet(OBJECT_BYTES 
+						+ FIELD_BYTES * getPropertyMappings(currentClazz).size());
+					loadedObjects.put(current, currentURI);
+
+					// for each @PropertyField on the object, fill it out
+					for (PropertyMapping m : getPropertyMappings(currentClazz)) {
+						// fields outside the plan are not loaded at all.
+						if (currentPlan != null && ! currentPlan.includes(m)) {
+							unloaded.computeIfAbsent(current, k -> new HashSet<PropertyMapping>()).add(m);
+							continue;
+						}
+
+						FetchPlan valuePlan = currentPlan == null ? 
+							null : 
+							currentPlan.planFor(m);
+
+						if (! m.field.equals(decodedField)) {
+							PropertyField pf = m.annotation;
+
+							Class valueClazz = pf.valueClazz();
+
+							if (m.isPaged()) {
+								// a @Paged field is given a view of its values,
+								// which reads them only when they are needed.
+								if (! m.field.getType().isAssignableFrom(TrackedSet.class))
+									throw JRDFAnnotationException.badlyAnnotatedProperty(
+										currentClazz,
+										m.field,
+										"Marked as @Paged, but its type is not Set or Collection."
+									);
+
+								PagedSet paged = new PagedSet(currentClazz, m, valuePlan, currentURI, generation);
+
+								// If we fail to populate the non-nullable field, abort the retrieval.
+								if ((!pf.policy().nullable) && paged.isEmpty())
+									return;
+
+								setField(current, m.field, paged);
+								continue;
+							}
+
+							List<RDFNode> nodes = values.get(m);
+							Iterator<RDFNode> valNodes = nodes != null ?
+								nodes.iterator() :
+								Collections.<RDFNode>emptyIterator();
+
+							Object val;
+
+							if (m.primitive != null) {
+								// primitives and arrays of primitives are parsed
+								// from the lexical forms, without boxing them.
+								List<String> lexicals = new ArrayList<String>();
+								while (valNodes.hasNext()) {
+									RDFNode valNode = valNodes.next();
+									estimatedBytes.addAndGet(estimateBytes(valNode));
+									if (valNode.isLiteral())
+										lexicals.add(valNode.asLiteral().getLexicalForm());
+								}
+
+								// If we fail to populate the non-nullable field, abort the retrieval.
+								if ((!pf.policy().nullable) && lexicals.isEmpty())
+									return;
+
+								try {
+									if (m.isPrimitiveArray())
+										setField(current, m.field, m.primitive.toArray(lexicals));
+									else if (! lexicals.isEmpty())
+										m.primitive.setScalar(current, m.field, lexicals.get(0));
+								} catch (NumberFormatException e) {
+									throw IllegalValueException.unconvertibleLiteral(
+										currentClazz,
+										m.field,
+										e.getMessage()
+									);
+								} catch (IllegalAccessException e) {
+									throw new RuntimeException(
+										String.format(
+											"Encountered an IllegalAccessException when trying to set the field %s on the class %s.",
+											m.name(),
+											currentClazz.getCanonicalName()
+										)
+									);
+								}
+								continue;
+							} else if (pf.policy().isCollection) {
+								Collection<Object> allVals;
+
+								if (valueClazz.isEnum()) 	// use an EnumSet
+									allVals = EnumSet.noneOf(valueClazz);
+								else 											// use a HashSet
+									allVals = new HashSet<Object>();
+
+								boolean unresolved = false;
+								while (valNodes.hasNext()) {
+									RDFNode valNode = valNodes.next();
+									estimatedBytes.addAndGet(estimateBytes(valNode));
+									if (valNode.isLiteral()) {
+										allVals.add(fromLiteral(m, valNode.asLiteral()));
+									} else {
+										String valURI =
+											String.format(
+												"<%s>", 
+												valNode.asResource().getURI()
+											);
+
+										Object ref = resolve(valURI, valueClazz, valuePlan, currentDepth, results);
+										if (ref == null)
+											unresolved = true;
+										else
+											allVals.add(ref);
+									}
+								}
+
+								// a field past the object limit is left unloaded,
+								// rather than given only some of its values.
+								if (unresolved) {
+									unloaded.computeIfAbsent(current, k -> new HashSet<PropertyMapping>()).add(m);
+									continue;
+								}
+
+								// If we fail to populate the non-nullable field, abort the retrieval.
+								if ((!pf.policy().nullable) && allVals.size() == 0)
+									return;
+
+								// a Set field gets a TrackedSet, so that recording
+								// the object again only writes the changes to it.
+								if (m.field.getType().isAssignableFrom(TrackedSet.class))
+									val = new TrackedSet<Object>(
+										(Set<Object>) allVals,
+										PersistenceManager.this,
+										currentURI,
+										generation
+									);
+								else
+									val = allVals;
+							} else {
+								if (valNodes.hasNext()) {
+									RDFNode valNode = valNodes.next();
+									estimatedBytes.addAndGet(estimateBytes(valNode));
+
+									if (valNode.isLiteral()) {
+										val = fromLiteral(m, valNode.asLiteral());
+									} else {
+										String valURI = 
+											String.format(
+												"<%s>", 
+												valNode.asResource().getURI()
+											);
+
+										val = resolve(valURI, valueClazz, valuePlan, currentDepth, results);
+
+										// a field past the object limit is left unloaded.
+										if (val == null) {
+											unloaded.computeIfAbsent(current, k -> new HashSet<PropertyMapping>()).add(m);
+											continue;
+										}
+									}
+								} else {
+									// If we fail to populate the non-nullable field, abort the retrieval.
+									if (!pf.policy().nullable)
+										return;
+
+									val = null;
+								}
+							}
+
+							// a missing value leaves a primitive field unchanged
+							if (val != null || ! m.field.getType().isPrimitive())
+								setField(current, m.field, val);
+						}
+					}
+				}
+				// if a return has not been triggered at by this point,
+				// retrieval was successful.
+				for (Map.Entry<String,Map<Class,Object>> e : results.entrySet())
+					objMapping
+						.computeIfAbsent(e.getKey(), k -> new HashMap<Class, Object>())
+						.putAll(e.getValue());
+
+				// the objects loaded without some of their fields are 
+				// remembered, so that recording them leaves those fields
+				// as they are in the graph. The objects past the limits of
+				// the retrieval, which were created but not loaded, are 
+				// stubs, none of whose fields are written.
+				for (Map.Entry<Object, String> e : loadedObjects.entrySet())
+					loadedFrom(e.getKey(), e.getValue(), unloaded.get(e.getKey()));
+				for (Map.Entry<String,Map<Class,Object>> e : results.entrySet())
+					for (Map.Entry<Class, Object> c : e.getValue().entrySet())
+						if (! loadedObjects.containsKey(c.getValue()))
+							loadedFrom(
+								c.getValue(), 
+								e.getKey(), 
+								new HashSet<PropertyMapping>(getPropertyMappings(c.getKey()))
+							);
+			} else if (uriQueue.size() == clazzQueue.size()) {
+				// the values of all the items are read together, before
+				// the items are loaded.
+				load(0);
+
+				// run each item in the queue as a separate batch, so that 
+				// a failure to retrieve one does not affect the others 
+				// unless they are part of the same graph.
+				List<RetrievalBatch> subBatches = new ArrayList<RetrievalBatch>();
+				for (int x = 0; x < uriQueue.size(); x++) {
+					RetrievalBatch subBatch = new RetrievalBatch();
+					
+					subBatch.enqueue(
+						uriQueue.get(x),
+						clazzQueue.get(x),
+						planQueue.get(x),
+						depthQueue.get(x)
+					);
+
+					// the limits apply to the batch as a whole.
+					subBatch.materialized = materialized;
+					subBatch.estimatedBytes = estimatedBytes;
+					subBatch.source = source;
+					subBatch.depthLimit = depthLimit;
+					subBatches.add(subBatch);
+				}
+
+				if (retrievalExecutor == null) {
+					// the objects and values loaded for one item are kept
+					// for the others.
+					for (RetrievalBatch subBatch : subBatches) {
+						subBatch.objMapping = objMapping;
+						subBatch.loaded = loaded;
+						subBatch.run();
+					}
+				} else {
+					runConcurrently(subBatches);
+				}
+			}
+		}
+
+		/**
+		 * Runs the given sub-batches concurrently on the retrieval 
+		 * executor, each in read transactions of its own, and adds the
+		 * objects they load to those of this batch. Each sub-batch starts
+		 * from the objects loaded before it, so a resource reached from 
+		 * several items may be loaded by each of them. Only one of these
+		 * objects is kept, the one with the fewest unloaded fields (or
+		 * the one loaded for the earliest item), and the references to
+		 * the others are replaced by references to it, so that a resource
+		 * is still represented by a single object.
+		 */
+		private void runConcurrently(List<RetrievalBatch> subBatches)
+		throws JRDFAnnotationException {
+			List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+			for (RetrievalBatch subBatch : subBatches) {
+				subBatch.objMapping.putAll(objMapping);
+				subBatch.loaded = new HashMap<String, Map<PropertyMapping, List<RDFNode>>>(loaded);
+				futures.add(
+					CompletableFuture.runAsync(
+						() -> executeRead(sources(), 0, () -> {
+							try {
+								subBatch.run();
+							} catch (JRDFAnnotationException e) {
+								throw new CompletionException(e);
+							}
+						}),
+						retrievalExecutor
+					)
+				);
+			}
+
+			// the objects that are not kept, mapped to those that replace
+			// them.
+			Map<Object, Object> replaced = new IdentityHashMap<Object, Object>();
+
+			for (int x = 0; x < futures.size(); x++) {
+				await(futures.get(x));
+
+				for (Map.Entry<String, Map<Class, Object>> e : subBatches.get(x).objMapping.entrySet()) {
+					Map<Class, Object> clazzMapping = objMapping
+						.computeIfAbsent(e.getKey(), k -> new HashMap<Class, Object>());
+					for (Map.Entry<Class, Object> c : e.getValue().entrySet()) {
+						Object kept = clazzMapping.get(c.getKey());
+						Object other = c.getValue();
+						if (kept == null) {
+							clazzMapping.put(c.getKey(), other);
+						} else if (kept != other) {
+							if (unloadedFields(other).size() < unloadedFields(kept).size()) {
+								clazzMapping.put(c.getKey(), other);
+								replaced.put(kept, other);
+							} else {
+								replaced.put(other, kept);
+							}
+						}
+					}
+				}
+			}
+
+			if (replaced.isEmpty())
+				return;
+
+			Set<Object> survivors = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+			for (Map<Class, Object> clazzMapping : objMapping.values())
+				survivors.addAll(clazzMapping.values());
+			for (Object o : survivors)
+				replaceReferences(o, replaced);
+		}
+
+		/**
+		 * Replaces the references of the resource fields of the given
+		 * object to the objects that were not kept, by references to the
+		 * objects that replace them. The paged fields, which do not hold
+		 * their values, are left as they are.
+		 */
+		private void replaceReferences(Object o, Map<Object, Object> replaced) {
+			for (PropertyMapping m : getPropertyMappings(o.getClass())) {
+				if (m.converter != null || m.isPaged())
+					continue;
+
+				Object val;
+				try {
+					val = m.field.get(o);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(
+						String.format(
+							"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
+							m.name(),
+							o.getClass().getCanonicalName()
+						)
+					);
+				}
+
+				if (val instanceof Collection) {
+					Collection<Object> vals = (Collection<Object>) val;
+					for (Object ref : new ArrayList<Object>(vals)) {
+						Object replacement = replacementOf(ref, replaced);
+						if (replacement == ref)
+							continue;
+						if (vals instanceof TrackedSet) {
+							((TrackedSet<Object>) vals).replace(ref, replacement);
+						} else {
+							vals.remove(ref);
+							vals.add(replacement);
+						}
+					}
+				} else if (val != null) {
+					Object replacement = replacementOf(val, replaced);
+					if (replacement != val)
+						setField(o, m.field, replacement);
+				}
+			}
+		}
+
+		/**
+		 * The object kept in place of the given object, which may itself
+		 * have been replaced by an object loaded later.
+		 */
+		private Object replacementOf(Object o, Map<Object, Object> replaced) {
+			while (replaced.containsKey(o))
+				o = replaced.get(o);
+			return o;
+		}
+
+		/**
+		 * Reads the values of the fields to be loaded for every object in
+		 * the queue from the given position on that has not been read 
+		 * yet. Rather than querying each field of each object, the values
+		 * of all the objects of a class are selected by one query for
+		 * every chunk of recordingChunkSize objects, which binds their
+		 * URIs and the predicates of their fields with VALUES blocks, so
+		 * that a retrieval takes one query per level of the object graph
+		 * (and per shard) rather than one per field.
+		 */
+		private void load(int from) {
+			Map<Class, Set<String>> urisByClazz = new LinkedHashMap<Class, Set<String>>();
+			Map<Class, Set<PropertyMapping>> mappingsByClazz = new HashMap<Class, Set<PropertyMapping>>();
+
+			for (int x = from; x < uriQueue.size(); x++) {
+				String uri = uriQueue.get(x);
+				Class clazz = clazzQueue.get(x);
+				FetchPlan plan = planQueue.get(x);
+				String key = clazz.getName() + ' ' + uri;
+				if (loaded.containsKey(key))
+					continue;
+				loaded.put(key, new HashMap<PropertyMapping, List<RDFNode>>());
+
+				urisByClazz.computeIfAbsent(clazz, c -> new LinkedHashSet<String>()).add(uri);
+				Set<PropertyMapping> mappings = mappingsByClazz
+					.computeIfAbsent(clazz, c -> new LinkedHashSet<PropertyMapping>());
+				for (PropertyMapping m : getPropertyMappings(clazz))
+					if (! m.isPaged() && (plan == null || plan.includes(m)))
+						mappings.add(m);
+			}
+
+			for (Map.Entry<Class, Set<String>> e : urisByClazz.entrySet()) {
+				Class clazz = e.getKey();
+				List<PropertyMapping> mappings = 
+					new ArrayList<PropertyMapping>(mappingsByClazz.get(clazz));
+				if (mappings.isEmpty())
+					continue;
+
+				String currentPrefixes = "";
+				if (prefixes.containsKey(clazz))
+					currentPrefixes = prefixes.get(clazz);
+
+				StringBuilder predicates = new StringBuilder();
+				for (int x = 0; x < mappings.size(); x++)
+					predicates.append(
+						String.format("\n\t\t(%s %d)", mappings.get(x).predicate, x));
+
+				Map<StorageBackend, List<String>> urisByShard = new LinkedHashMap<StorageBackend, List<String>>();
+				for (String uri : e.getValue())
+					urisByShard
+						.computeIfAbsent(source != null ? source : shardOf(uri), k -> new ArrayList<String>())
+						.add(uri);
+
+				// the subjects are numbered as well, so that the results
+				// can be matched with them however their URIs are written.
+				for (Map.Entry<StorageBackend, List<String>> shard : urisByShard.entrySet()) {
+					List<String> uris = shard.getValue();
+					for (int start = 0; start < uris.size(); start += recordingChunkSize) {
+						List<String> chunk = uris.subList(
+							start, 
+							Math.min(uris.size(), start + recordingChunkSize)
+						);
+						StringBuilder subjects = new StringBuilder();
+						for (int x = 0; x < chunk.size(); x++)
+							subjects.append(String.format("\n\t\t(%s %d)", chunk.get(x), x));
+
+						String queryString = String.format(
+							"%sSELECT ?j ?i ?val\nWHERE {\n\tVALUES (?s ?j) {%s\n\t}\n\tVALUES (?p ?i) {%s\n\t}\n\t%s\n}",
+							currentPrefixes,
+							subjects,
+							predicates,
+							sourcePattern(clazz, "?s ?p ?val .")
+						);
+
+						shard.getKey().select(queryString, soln -> {
+							String key = clazz.getName() + ' ' + chunk.get(soln.getLiteral("j").getInt());
+							PropertyMapping m = mappings.get(soln.getLiteral("i").getInt());
+							loaded.get(key)
+								.computeIfAbsent(m, k -> new ArrayList<RDFNode>())
+								.add(soln.get("val"));
+						});
+					}
+				}
+			}
+		}
+
+		/**
+		 * Scopes a pattern to the graph of the given class, unless the
+		 * values are read from a source of the batch's own, such as the
+		 * result of a fetch, which holds them all in its default graph.
+		 */
+		private String sourcePattern(Class clazz, String pattern) {
+			return source == null ? scoped(clazz, pattern) : pattern;
+		}
+
+		/**
+		 * The backends from which this batch reads.
+		 */
+		private List<StorageBackend> sources() {
+			return source != null ? Collections.singletonList(source) : shards;
+		}
+
+		/**
+		 * Finds or creates the object for a resource referred to by an
+		 * object at the given depth, and enqueues it to be loaded if it
+		 * is within the maximum depth. Returns null if the object has not
+		 * been created yet and no more objects may be created.
+		 */
+		private Object resolve(
+			String uri, 
+			Class clazz, 
+			FetchPlan plan,
+			int depth,
+			Map<String, Map<Class, Object>> mapping) 
+		throws JRDFAnnotationException {
+			boolean exists = (mapping.containsKey(uri) 
+				&& mapping.get(uri).containsKey(clazz))
+				|| getData(uri, clazz) != null;
+			if (! exists && materialized.get() >= maxRetrievedObjects)
+				return null;
+
+			Object o = getOrCreate(uri, clazz, mapping);
+			if (depth < depthLimit)
+				enqueue(uri, clazz, plan, depth + 1);
+			else if (! exists)
+				setDecodedIdentifier(o, uri, clazz);
+			return o;
+		}
+
+		/**
+		 * Sets the identifier of an object of a @IdentifiedByField class
+		 * to the one decoded from its URI. Returns whether it was set.
+		 */
+		private boolean setDecodedIdentifier(Object o, String uri, Class clazz) 
+		throws JRDFAnnotationException {
+			if (! clazz.isAnnotationPresent(IdentifiedByField.class))
+				return false;
+			Object id = getIdentifier(uri, clazz);
+			if (id == null)
+				return false;
+			setField(o, getIdentifierBinding(clazz).idField, id);
+			return true;
+		}
+
+		/**
+		 * Sets the value of a field on an object being retrieved.
+		 */
+		private void setField(Object current, Field f, Object val) {
+			// We're not playing around here.
+			f.setAccessible(true);
+			
+			try {
+				f.set(current, val);
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException(
+					String.format(
+						"Encountered an IllegalArgumentException when trying to set the field %s on the class %s.",
+						f.getName(),
+						current.getClass().getCanonicalName()
+					)
+				);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(
+					String.format(
+						"Encountered an IllegalAccessException when trying to set the field %s on the class %s.",
+						f.getName(),
+						current.getClass().getCanonicalName()
+					)
+				);
+			}
+		}
+
+		/**
+		 * Finds the object for a resource in the given mapping, or among
+		 * the objects loaded by this batch already, or creates it in the 
+		 * given mapping.
+		 */
+		private Object getOrCreate(
+			String uri, 
+			Class clazz, 
+			Map<String, Map<Class, Object>> mapping) {
+			if (! (mapping.containsKey(uri) && mapping.get(uri).containsKey(clazz))) {
+				Object loaded = getData(uri, clazz);
+				if (loaded != null)
+					return loaded;
+			}
+			if (mapping.containsKey(uri)) {
+				Map<Class, Object> clazzMapping = mapping.get(uri);
+				if (clazzMapping.containsKey(clazz))
+					return clazzMapping.get(clazz);
+				else {
+					try {
+						Object o = clazz.getDeclaredConstructor().newInstance();
+						materialized.incrementAndGet();
+						clazzMapping.put(clazz, o);
+						mapping.put(uri, clazzMapping);
+						return o;
+					} catch (Exception e) {
+						throw new RuntimeException(
+							String.format(
+								"Class %s has no public no-argument constructor!",
+								clazz.getCanonicalName()
+							)
+						);
+					}
+				}
+			} else {
+				Map<Class, Object> clazzMapping = new HashMap<Class, Object>();
+				try {
+					Object o = clazz.getDeclaredConstructor().newInstance();
+					materialized.incrementAndGet();
+					clazzMapping.put(clazz, o);
+					mapping.put(uri, clazzMapping);
+					return o;
+				} catch (Exception e) {
+					throw new RuntimeException(
+						String.format(
+							"Class %s has no public no-argument constructor!",
+							clazz.getCanonicalName()
+						)
+					);
+				}
+			}
+		}
+	}
 
-			String queryString = String.format(
-				"%sSELECT ?origin\nWHERE {\n\t%s .\n}\nLIMIT 1",
-				currentPrefixes,
-				getIdentifyingPattern("?origin", o)
+	/**
+	 * A private inner class providing the view of the values of a
+	 * @Paged field. The values persisted for the resource are read in
+	 * pages, ordered by their lexical forms, using the lexical form of
+	 * the last value of each page as the cursor for the next. The values
+	 * added and removed since the view was persisted are kept aside by
+	 * the TrackedSet, and applied to what is read.
+	 *
+	 * @see Paged
+	 */
+	private class PagedSet extends TrackedSet<Object> {
+		private final PropertyMapping m;
+		private final FetchPlan plan;
+		private final String queryPrefixes;
+		private final String graph;
+		private final StorageBackend shard;
+		private final Map<String, Object> removedByNode;
+
+		public PagedSet(
+			Class clazz, 
+			PropertyMapping m, 
+			FetchPlan plan,
+			String uri, 
+			long generation) {
+			super(Collections.emptySet(), PersistenceManager.this, uri, generation);
+			this.m = m;
+			this.plan = plan;
+			this.queryPrefixes = prefixes.containsKey(clazz) ? prefixes.get(clazz) : "";
+			this.graph = getGraph(clazz);
+			this.shard = shardOf(uri);
+			this.removedByNode = new HashMap<String, Object>();
+		}
+
+		void persisted(PersistenceManager manager, String uri, long generation) {
+			super.persisted(manager, uri, generation);
+			removedByNode.clear();
+		}
+
+		/**
+		 * A view reads the values persisted in the graph, whatever has
+		 * been removed since it was created, so it is always written as
+		 * its changes when it is recorded for the same resource.
+		 */
+		boolean isTracking(PersistenceManager manager, String uri) {
+			return manager == PersistenceManager.this && uri().equals(uri);
+		}
+
+		public int size() {
+			List<RDFNode> counts = selectNodes(
+				shard,
+				String.format(
+					"%sSELECT (COUNT(?val) AS ?count)\nWHERE {\n\t%s\n}",
+					queryPrefixes,
+					scoped(graph, String.format("%s %s ?val .", uri(), m.predicate))
+				),
+				"count"
+			);
+			return counts.get(0).asLiteral().getInt() + added().size() - removed().size();
+		}
+
+		public boolean isEmpty() {
+			if (! added().isEmpty())
+				return false;
+			if (! removed().isEmpty())
+				return size() == 0;
+			return ! isPersisted("?val");
+		}
+
+		public boolean contains(Object o) {
+			if (added().contains(o))
+				return true;
+			String node = nodeOf(o);
+			if (node == null || removedByNode.containsKey(node))
+				return false;
+			return isPersisted(node);
+		}
+
+		public boolean add(Object o) {
+			if (added().contains(o))
+				return false;
+			String node = nodeOf(o);
+			if (node != null) {
+				if (removedByNode.containsKey(node)) {
+					removed().remove(removedByNode.remove(node));
+					return true;
+				}
+				if (isPersisted(node))
+					return false;
+			}
+			added().add(o);
+			return true;
+		}
+
+		public boolean remove(Object o) {
+			if (added().remove(o))
+				return true;
+			String node = nodeOf(o);
+			if (node == null || removedByNode.containsKey(node) || ! isPersisted(node))
+				return false;
+			removedByNode.put(node, o);
+			removed().add(o);
+			return true;
+		}
+
+		public Iterator<Object> iterator() {
+			return new Iterator<Object>() {
+				private List<QuerySolution> page;
+				private List<Object> pageVals;
+				private int pagePos;
+				private Iterator<Object> addedVals;
+				private Object next;
+				private boolean ready;
+				private Object last;
+
+				public boolean hasNext() {
+					while (! ready) {
+						if (addedVals != null) {
+							if (! addedVals.hasNext())
+								return false;
+							next = addedVals.next();
+							ready = true;
+						} else if (page != null && pagePos < pageVals.size()) {
+							next = pageVals.get(pagePos++);
+							ready = next != null;
+						} else if (page != null && page.size() < m.pageSize) {
+							// the last page has been read.
+							addedVals = new ArrayList<Object>(added()).iterator();
+						} else {
+							page = readPage(page == null ? null : page.get(page.size() - 1));
+							pageVals = valuesOf(page);
+							pagePos = 0;
+						}
+					}
+					return true;
+				}
+
+				public Object next() {
+					if (! hasNext())
+						throw new NoSuchElementException();
+					ready = false;
+					last = next;
+					return last;
+				}
+
+				public void remove() {
+					PagedSet.this.remove(last);
+				}
+			};
+		}
+
+		public Spliterator<Object> spliterator() {
+			// the size is not known without a query, and may change
+			// while the values are read.
+			return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.DISTINCT);
+		}
+
+		/**
+		 * Reads the page of persisted values that follows the given
+		 * result of the previous page, or the first page if it is null.
+		 * The values are ordered by their lexical forms, then by their
+		 * datatypes and language tags, so that values with the same 
+		 * lexical form are neither skipped nor read twice.
+		 */
+		private List<QuerySolution> readPage(QuerySolution after) {
+			String filter = "";
+			if (after != null) {
+				String lex = sparqlString(after.get("lex"));
+				String dt = sparqlString(after.get("dt"));
+				String lang = sparqlString(after.get("lang"));
+				filter = String.format(
+					"\n\tFILTER (?lex > %s || (?lex = %s && (?dt > %s || (?dt = %s && ?lang > %s))))",
+					lex, lex, dt, dt, lang);
+			}
+
+			List<QuerySolution> results = new ArrayList<QuerySolution>();
+			shard.select(
+				String.format(
+					"%sSELECT ?val ?lex ?dt ?lang\nWHERE {\n\t%s\n\tBIND (STR(?val) AS ?lex)\n\tBIND (COALESCE(STR(DATATYPE(?val)), \"\") AS ?dt)\n\tBIND (COALESCE(LANG(?val), \"\") AS ?lang)%s\n}\nORDER BY ?lex ?dt ?lang\nLIMIT %d",
+					queryPrefixes,
+					scoped(graph, String.format("%s %s ?val .", uri(), m.predicate)),
+					filter,
+					m.pageSize
+				),
+				results::add
+			);
+			return results;
+		}
+
+		/**
+		 * Writes the String value of the given literal as a literal in a
+		 * SPARQL query.
+		 */
+		private String sparqlString(RDFNode node) {
+			return literalToSparql(ResourceFactory.createStringLiteral(node.asLiteral().getLexicalForm()));
+		}
+
+		/**
+		 * Whether the given value (as it appears in a SPARQL query) is
+		 * persisted for the resource.
+		 */
+		private boolean isPersisted(String node) {
+			return shard.ask(
+				String.format(
+					"%sASK {\n\t%s\n}",
+					queryPrefixes,
+					scoped(graph, String.format("%s %s %s .", uri(), m.predicate, node))
+				)
 			);
+		}
+
+		/**
+		 * Gets the String representing the given value in a SPARQL
+		 * query, or null if it is a resource that cannot be found in
+		 * the graph.
+		 */
+		private String nodeOf(Object o) {
+			try {
+				if (m.converter != null)
+					return literalToSparql(toLiteral(m, o));
+				return lookupURI(o);
+			} catch (JRDFAnnotationException e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+		}
 
-			Iterator<QuerySolution> results = 
-				QueryExecutionFactory.create(
-					QueryFactory.create(queryString)
-				).execSelect();
+		/**
+		 * Converts the persisted values of a page into values of the
+		 * field, leaving out those that have been removed. The resources
+		 * of a page are retrieved together with retrieveAll(), with the
+		 * FetchPlan of the field if there is one; null is given for those
+		 * that cannot be retrieved.
+		 */
+		private List<Object> valuesOf(List<QuerySolution> page) {
+			List<Object> values = new ArrayList<Object>();
+			List<String> uris = new ArrayList<String>();
+			for (QuerySolution soln : page) {
+				RDFNode node = soln.get("val");
+				if (removedByNode.containsKey(nodeToSparql(node)))
+					continue;
+				if (node.isLiteral()) {
+					values.add(fromLiteral(m, node.asLiteral()));
+				} else {
+					values.add(null);
+					uris.add(String.format("<%s>", node.asResource().getURI()));
+				}
+			}
+			if (uris.isEmpty())
+				return values;
 
-			if (results.hasNext()) {
-				QuerySolution soln = results.next();
-				uri = soln.getResource("origin").getURI();
-			} else return null;
+			List<Object> retrieved;
+			try {
+				retrieved = retrieveAll(uris, m.valueClazz(), plan);
+			} catch (JRDFAnnotationException e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+			// the resources take the places left for them, in order.
+			int r = 0;
+			for (int x = 0; x < values.size(); x++)
+				if (values.get(x) == null)
+					values.set(x, retrieved.get(r++));
+			return values;
 		}
+	}
+
+	/* ########## QUERY OPERATIONS ########## */
 
-		return retrieve(uri, clazz);
+	/**
+	 * Returns whether the graph holds an instance of the given class at
+	 * the given URI, that is, whether every non-nullable @PropertyField
+	 * of the class has a value there. This is answered by a single ASK
+	 * query, without creating any objects. Note that, unlike retrieve(),
+	 * it does not check the objects that the instance refers to.
+	 */
+	public boolean exists(String uri, Class clazz)
+	throws JRDFAnnotationException {
+		if (uri == null || clazz == null) return false;
+
+		// the URI of a @IdentifiedByField class shows its class, unless
+		// it may be the URI of a subclass.
+		if (clazz.isAnnotationPresent(IdentifiedByField.class)
+			&& ! clazz.isAnnotationPresent(RDFType.class)
+			&& getIdentifier(uri, clazz) == null)
+			return false;
+
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
+
+		return shardOf(uri).ask(
+			String.format(
+				"%sASK {\n\t%s\n}",
+				currentPrefixes,
+				scoped(clazz, getMembershipPattern(uri, clazz))
+			)
+		);
 	}
 
 	/**
-	 * A private inner class representing the internal state and 
-	 * results of a retrieval operation.
+	 * Returns whether the graph holds the instance identified by the
+	 * given object. 
+	 *
+	 * @see exists(String, Class)
 	 */
-	private class RetrievalBatch {
-		private List<String> uriQueue;
-		private List<Class> clazzQueue;
-		private Map<String, Map<Class, Object>> objMapping;
+	public boolean exists(Object o)
+	throws JRDFAnnotationException {
+		if (o == null) return false;
 
-		public RetrievalBatch () {
-			uriQueue = new LinkedList<String>();
-			clazzQueue = new LinkedList<Class>();
-			objMapping = new HashMap<String,Map<Class,Object>>();
+		String uri = lookupURI(o);
+		if (uri == null) return false;
+
+		return exists(uri, o.getClass());
+	}
+
+	/**
+	 * Returns the number of instances of the given class in the graph,
+	 * with a single COUNT query.
+	 *
+	 * @see exists(String, Class)
+	 */
+	public long count(Class clazz)
+	throws JRDFAnnotationException {
+		return count(Criteria.of(clazz));
+	}
+
+	/**
+	 * Returns the number of instances of the class of the Criteria in
+	 * the graph that satisfy them, with a single COUNT query per shard.
+	 * The shards are counted concurrently. If the indexes of the class
+	 * answer every condition, the graph is not queried at all.
+	 *
+	 * @see Indexed
+	 */
+	public long count(Criteria criteria)
+	throws JRDFAnnotationException {
+		Class clazz = criteria.getCriteriaClass();
+		String selectionPattern = getSelectionPattern(ORIGIN_VARNAME, criteria);
+		if (selectionPattern == null)
+			return 0; // a value cannot be in the graph
+
+		Set<String> candidates = getIndexedCandidates(criteria);
+		if (candidates != null)
+			return isIndexed(criteria) ? 
+				candidates.size() : 
+				selectMatching(criteria, candidates).size();
+
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
+
+		String queryString = String.format(
+			"%sSELECT (COUNT(DISTINCT %s) AS ?count)\nWHERE {\n\t%s\n}",
+			currentPrefixes,
+			ORIGIN_VARNAME,
+			selectionPattern
+		);
+
+		// an instance is kept in a single shard, so the counts of the
+		// shards add up.
+		long count = 0;
+		for (List<RDFNode> counts : scatter(shard -> selectNodes(shard, queryString, "count")))
+			count += counts.get(0).asLiteral().getLong();
+		return count;
+	}
+
+	/**
+	 * Retrieves every instance of the class of the Criteria in the graph
+	 * that satisfies them. Their nodes are selected by a single query per
+	 * shard, run concurrently, and they are then retrieved together as 
+	 * retrieveAll() retrieves them. The instances that cannot be 
+	 * retrieved are left out, and the order of the others is not 
+	 * specified. If the indexes of the class answer every condition, the
+	 * nodes are taken from them instead.
+	 *
+	 * @see Indexed
+	 */
+	public List<Object> find(Criteria criteria)
+	throws JRDFAnnotationException {
+		Class clazz = criteria.getCriteriaClass();
+		String selectionPattern = getSelectionPattern(ORIGIN_VARNAME, criteria);
+		if (selectionPattern == null)
+			return new ArrayList<Object>(); // a value cannot be in the graph
+
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
+
+		String queryString = String.format(
+			"%sSELECT DISTINCT %s\nWHERE {\n\t%s\n}",
+			currentPrefixes,
+			ORIGIN_VARNAME,
+			selectionPattern
+		);
+
+		List<String> uris = new ArrayList<String>();
+		Set<String> candidates = getIndexedCandidates(criteria);
+		if (candidates != null) {
+			uris.addAll(isIndexed(criteria) ? 
+				candidates : 
+				selectMatching(criteria, candidates));
+		} else {
+			for (List<RDFNode> nodes : scatter(shard -> selectNodes(shard, queryString, "origin")))
+				for (RDFNode node : nodes)
+					uris.add(nodeToSparql(node));
 		}
 
-		public void enqueue(String uri, Class clazz) {
-			if ( (!uriQueue.contains(uri))
-				|| clazzQueue.get(uriQueue.indexOf(uri)) != clazz ) {
-				uriQueue.add(uri);
-				clazzQueue.add(clazz);
-			}
+		List<Object> found = new ArrayList<Object>(uris.size());
+		for (Object o : retrieveAll(uris, clazz))
+			if (o != null)
+				found.add(o);
+		return found;
+	}
+
+	/**
+	 * Computes the aggregates of the given Aggregation over the 
+	 * instances of its class in the graph, in each group of instances,
+	 * without creating any of them. The aggregates of every group are
+	 * computed by a single GROUP BY query per shard, run concurrently,
+	 * and those of the shards are then combined; an average is computed
+	 * from the sum and the count of its values, so that it can be 
+	 * combined as well. The minimum and maximum of a nullable field are
+	 * computed by a query of their own. The rows are returned in no 
+	 * particular order. If the instances are not grouped, there is a 
+	 * single row, even if there are no instances.
+	 *
+	 * @see Aggregation
+	 */
+	public List<Aggregation.Row> aggregate(Aggregation aggregation)
+	throws JRDFAnnotationException {
+		Class clazz = aggregation.getAggregatedClass();
+		List<String> groupedBy = aggregation.getGroupedBy();
+		List<Aggregation.Aggregate> aggregates = aggregation.getAggregates();
+
+		StringBuilder groupPattern = new StringBuilder();
+		StringBuilder groupVars = new StringBuilder();
+		List<PropertyMapping> groupMappings = new ArrayList<PropertyMapping>();
+		for (int x = 0; x < groupedBy.size(); x++) {
+			PropertyMapping m = getPropertyMapping(clazz, groupedBy.get(x));
+			if (m.converter == null)
+				throw new IllegalArgumentException(
+					String.format("The field %s on the class %s refers to resources, by which instances cannot be grouped.",
+						m.name(),
+						clazz.getCanonicalName()));
+			groupMappings.add(m);
+			groupVars.append(String.format(" ?g%d", x));
+			groupPattern.append(valuePattern(m, "?g" + x));
 		}
 
-		public Object getData(String uri, Class clazz) {
-			if (objMapping.containsKey(uri)) {
-				Map<Class, Object> clazzMapping = objMapping.get(uri);
-				if (clazzMapping.containsKey(clazz)) {
-					return clazzMapping.get(clazz);
+		// a SPARQL aggregate of a variable that is unbound in any of the
+		// solutions of a group is unbound, so the minimum and maximum of
+		// a nullable field are computed where it is bound. Sums count an
+		// unbound value as 0.
+		List<Integer> together = new ArrayList<Integer>();
+		Map<String, List<Integer>> apart = new LinkedHashMap<String, List<Integer>>();
+		for (int x = 0; x < aggregates.size(); x++) {
+			Aggregation.Aggregate a = aggregates.get(x);
+			if ((a.function == Aggregation.Function.MIN || a.function == Aggregation.Function.MAX)
+				&& getPropertyMapping(clazz, a.fieldName).policy().nullable)
+				apart.computeIfAbsent(a.fieldName, k -> new ArrayList<Integer>()).add(x);
+			else
+				together.add(x);
+		}
+
+		List<List<Integer>> queried = new ArrayList<List<Integer>>();
+		if (! groupedBy.isEmpty() || ! together.isEmpty())
+			queried.add(together);
+		queried.addAll(apart.values());
+
+		Map<List<Object>, Object[]> results = new LinkedHashMap<List<Object>, Object[]>();
+		for (List<Integer> computed : queried) {
+			String queryString = getAggregateQuery(
+				aggregation, 
+				computed, 
+				groupVars.toString(), 
+				groupPattern.toString(), 
+				computed != together
+			);
+			// the Criteria match no node
+			if (queryString == null)
+				break;
+
+			for (Map<List<Object>, Object[]> partials : scatter(shard -> {
+				Map<List<Object>, Object[]> found = new LinkedHashMap<List<Object>, Object[]>();
+				shard.select(queryString, soln -> {
+					List<Object> group = new ArrayList<Object>(groupMappings.size());
+					for (int x = 0; x < groupMappings.size(); x++) {
+						RDFNode g = soln.get("g" + x);
+						group.add(g != null && g.isLiteral() ? 
+							fromLiteral(groupMappings.get(x), g.asLiteral()) : 
+							null);
+					}
+
+					Object[] values = new Object[2 * aggregates.size()];
+					for (int x : computed) {
+						Aggregation.Aggregate a = aggregates.get(x);
+						RDFNode val = soln.get("a" + x);
+						if (val == null || ! val.isLiteral())
+							continue;
+						if (a.function == Aggregation.Function.COUNT) {
+							values[x] = val.asLiteral().getLong();
+						} else if (a.function == Aggregation.Function.SUM 
+							|| a.function == Aggregation.Function.AVERAGE) {
+							values[x] = sumOf(val.asLiteral().getLexicalForm());
+							if (a.function == Aggregation.Function.AVERAGE)
+								values[aggregates.size() + x] = soln.getLiteral("n" + x).getLong();
+						} else {
+							values[x] = fromLiteral(getPropertyMapping(clazz, a.fieldName), val.asLiteral());
+						}
+					}
+					combineAggregates(aggregates, found, group, values);
+				});
+				return found;
+			}))
+				for (Map.Entry<List<Object>, Object[]> e : partials.entrySet())
+					combineAggregates(aggregates, results, e.getKey(), e.getValue());
+		}
+
+		if (groupedBy.isEmpty() && results.isEmpty())
+			results.put(Collections.emptyList(), new Object[2 * aggregates.size()]);
+
+		List<Aggregation.Row> rows = new ArrayList<Aggregation.Row>(results.size());
+		for (Map.Entry<List<Object>, Object[]> e : results.entrySet()) {
+			Map<String, Object> groups = new LinkedHashMap<String, Object>();
+			for (int x = 0; x < groupedBy.size(); x++)
+				groups.put(groupedBy.get(x), e.getKey().get(x));
+
+			Object[] values = e.getValue();
+			List<Object> aggregated = new ArrayList<Object>(aggregates.size());
+			for (int x = 0; x < aggregates.size(); x++) {
+				Aggregation.Aggregate a = aggregates.get(x);
+				if (a.function == Aggregation.Function.COUNT) {
+					aggregated.add(values[x] == null ? 0L : values[x]);
+				} else if (a.function == Aggregation.Function.SUM) {
+					aggregated.add(typedSum(
+						getPropertyMapping(clazz, a.fieldName).valueClazz(), 
+						values[x] == null ? BigDecimal.ZERO : (Number) values[x]
+					));
+				} else if (a.function == Aggregation.Function.AVERAGE) {
+					Long count = (Long) values[aggregates.size() + x];
+					aggregated.add(count == null || count == 0 ? 
+						null : 
+						((Number) values[x]).doubleValue() / count);
+				} else {
+					aggregated.add(values[x]);
 				}
 			}
-			return null;
+			rows.add(new Aggregation.Row(groups, aggregated));
 		}
+		return rows;
+	}
 
-		public Set<Object> getAllData(Class clazz) {
-			return new HashSet<Object>();
+	/**
+	 * Method to get a SPARQL query computing the aggregates of the given
+	 * Aggregation at the given positions, in each group of instances, or
+	 * null if the Criteria of the Aggregation match no node. If the 
+	 * aggregated fields are required, only the nodes with values for 
+	 * them are matched.
+	 */
+	private String getAggregateQuery(
+		Aggregation aggregation, 
+		List<Integer> computed, 
+		String groupVars, 
+		String groupPattern, 
+		boolean required)
+	throws JRDFAnnotationException {
+		Class clazz = aggregation.getAggregatedClass();
+		List<Aggregation.Aggregate> aggregates = aggregation.getAggregates();
+		StringBuilder pattern = new StringBuilder(groupPattern);
+		StringBuilder projections = new StringBuilder();
+
+		// each aggregated field is bound once, however many aggregates
+		// it has.
+		Map<String, String> valueVars = new HashMap<String, String>();
+		for (int x : computed) {
+			Aggregation.Aggregate a = aggregates.get(x);
+			if (a.fieldName == null) {
+				projections.append(String.format(" (COUNT(DISTINCT %s) AS ?a%d)", ORIGIN_VARNAME, x));
+				continue;
+			}
+
+			String var = valueVars.get(a.fieldName);
+			if (var == null) {
+				PropertyMapping m = getPropertyMapping(clazz, a.fieldName);
+				var = "?v" + valueVars.size();
+				valueVars.put(a.fieldName, var);
+				pattern.append(required ? 
+					String.format("%s %s %s .\n\t", ORIGIN_VARNAME, m.predicate, var) : 
+					valuePattern(m, var));
+			}
+
+			if (a.function == Aggregation.Function.AVERAGE)
+				projections.append(String.format(" (SUM(COALESCE(%s, 0)) AS ?a%d) (COUNT(%s) AS ?n%d)", var, x, var, x));
+			else if (a.function == Aggregation.Function.SUM)
+				projections.append(String.format(" (SUM(COALESCE(%s, 0)) AS ?a%d)", var, x));
+			else
+				projections.append(String.format(" (%s(%s) AS ?a%d)", a.function.aggregate, var, x));
 		}
 
-		public void run()
-		throws JRDFAnnotationException {
-			String currentURI;
-			Class currentClazz;
-			int queuePos = 0;
+		String selectionPattern = getSelectionPattern(ORIGIN_VARNAME, aggregation.getCriteria(), pattern.toString());
+		if (selectionPattern == null)
+			return null;
 
-			// if there is a single item  in the queue, we will attempt to 
-			// retrieve the complete object graph. if any part of it cannot
-			// be retrieved (because a non-nullable field cannot be populated),
-			// the retrieval will end and objMapping will not be modified.
-			if (uriQueue.size() <= 1 && clazzQueue.size() <= 1) {
-				// create a deep clone of objMapping, so that a failed batch does not
-				// affect objMapping.
-				Map<String,Map<Class,Object>> results = new HashMap<String,Map<Class,Object>>(objMapping);
-				for (Map.Entry<String,Map<Class,Object>> e : objMapping.entrySet())
-					results.put(e.getKey(), new HashMap<Class, Object>(e.getValue()));
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
 
-				while (queuePos < uriQueue.size() && queuePos < clazzQueue.size()) {
-					// Move on to the next object.
-					currentURI = uriQueue.get(queuePos);
-					currentClazz = clazzQueue.get(queuePos);
-					queuePos++;
+		return String.format(
+			"%sSELECT%s%s\nWHERE {\n\t%s\n}%s",
+			currentPrefixes,
+			groupVars,
+			projections,
+			selectionPattern,
+			groupVars.isEmpty() ? "" : "\nGROUP BY" + groupVars
+		);
+	}
 
-					Object current = getOrCreate(currentURI, currentClazz, results);
+	/**
+	 * Method to get a pattern to use in a SPARQL query binding the 
+	 * given variable to the values of the given field of the node of
+	 * ?origin, which is left unbound if the field is nullable and has
+	 * no value.
+	 */
+	private static String valuePattern(PropertyMapping m, String var) {
+		String triple = String.format("%s %s %s .", ORIGIN_VARNAME, m.predicate, var);
+		if (m.policy().nullable)
+			return String.format("OPTIONAL { %s }\n\t", triple);
+		return triple + "\n\t";
+	}
 
-					String currentPrefixes = "";
-					if (prefixes.containsKey(currentClazz))
-						currentPrefixes = prefixes.get(currentClazz);
+	/**
+	 * Combines the given partial values of the aggregates of a group of
+	 * instances with those already found for the group, if there are 
+	 * any. The counts of the averages follow the aggregates.
+	 */
+	private static void combineAggregates(
+		List<Aggregation.Aggregate> aggregates,
+		Map<List<Object>, Object[]> found,
+		List<Object> group,
+		Object[] values) {
+		Object[] current = found.get(group);
+		if (current == null) {
+			found.put(group, values);
+			return;
+		}
 
-					// for each @PropertyField on the object, fill it out
-					for (Field f : currentClazz.getDeclaredFields()) {
-						if (f.isAnnotationPresent(PropertyField.class)) {
-							PropertyField pf = f.getAnnotation(PropertyField.class);
+		for (int x = 0; x < aggregates.size(); x++) {
+			Aggregation.Function f = aggregates.get(x).function;
+			if (values[x] == null)
+				continue;
+			if (current[x] == null) {
+				current[x] = values[x];
+				current[aggregates.size() + x] = values[aggregates.size() + x];
+			} else if (f == Aggregation.Function.COUNT) {
+				current[x] = (Long) current[x] + (Long) values[x];
+			} else if (f == Aggregation.Function.SUM || f == Aggregation.Function.AVERAGE) {
+				current[x] = addSums((Number) current[x], (Number) values[x]);
+				if (f == Aggregation.Function.AVERAGE)
+					current[aggregates.size() + x] = 
+						(Long) current[aggregates.size() + x] + (Long) values[aggregates.size() + x];
+			} else if ((((Comparable) values[x]).compareTo(current[x]) < 0) == (f == Aggregation.Function.MIN)) {
+				current[x] = values[x];
+			}
+		}
+	}
 
-							Class valueClazz = pf.valueClazz();
+	/**
+	 * Reads the lexical form of a sum computed by a query, which is a
+	 * BigDecimal unless the sum of floating point values is infinite or
+	 * not a number, in which case it is a Double.
+	 */
+	private static Number sumOf(String lexical) {
+		if (lexical.equals("INF") || lexical.equals("+INF"))
+			return Double.POSITIVE_INFINITY;
+		if (lexical.equals("-INF"))
+			return Double.NEGATIVE_INFINITY;
+		if (lexical.equals("NaN"))
+			return Double.NaN;
+		return new BigDecimal(lexical);
+	}
 
-							String queryString = String.format(
-									pf.policy().isCollection ? 
-										"%sSELECT ?val\nWHERE {\n\t%s %s ?val .\n}" :
-										"%sSELECT ?val\nWHERE {\n\t%s %s ?val .\n}\nLIMIT 1",
-									currentPrefixes,
-									currentURI,
-									String.format(
-										pf.abbreviated() ? "%s%s" : "<%s%s>",
-										pf.propertyPrefix(),
-										pf.rdfProperty()
-									)
-								);
-
-							Iterator<QuerySolution> querySolns = 
-								QueryExecutionFactory.create(
-									QueryFactory.create(queryString)
-								).execSelect();
+	/**
+	 * Adds two sums read by sumOf(), exactly if both are finite.
+	 */
+	private static Number addSums(Number a, Number b) {
+		if (a instanceof BigDecimal && b instanceof BigDecimal)
+			return ((BigDecimal) a).add((BigDecimal) b);
+		return a.doubleValue() + b.doubleValue();
+	}
 
-							Object val;
+	/**
+	 * Converts a sum of the values of a field of the given valueClazz
+	 * to a Long if they are integers, a Double if they are floating
+	 * point numbers, or a BigInteger or BigDecimal if they are. A sum
+	 * that is not finite remains a Double.
+	 */
+	private static Number typedSum(Class valueClazz, Number sum) {
+		if (! (sum instanceof BigDecimal))
+			return sum.doubleValue();
+		BigDecimal exact = (BigDecimal) sum;
+		if (valueClazz == Double.class || valueClazz == Float.class)
+			return exact.doubleValue();
+		if (valueClazz == BigDecimal.class)
+			return exact;
+		if (valueClazz == BigInteger.class)
+			return exact.toBigInteger();
+		return exact.longValue();
+	}
 
-							if (pf.policy().isCollection) {
-								Collection<Object> allVals;
+	/**
+	 * Retrieves up to the given number of instances of the given class
+	 * whose @Searchable fields match the given Lucene query, such as 
+	 * "smith" or "jo*", in the order of their scores. The matching nodes
+	 * are looked up in the text index of the Dataset, which must have
+	 * been created with one, by a single query per shard, run 
+	 * concurrently, and they are then retrieved together as retrieveAll()
+	 * retrieves them. The instances that cannot be retrieved are left
+	 * out. Note that the scores of different shards are computed by 
+	 * different indexes, so they are only roughly comparable. A query
+	 * that Lucene cannot parse fails with the exception of the index.
+	 *
+	 * @see Searchable
+	 * @see DatasetBackend#withTextIndex(Dataset, java.nio.file.Path, Class...)
+	 */
+	public List<Object> search(Class clazz, String query, int limit)
+	throws JRDFAnnotationException {
+		// the query is applied to every field at once.
+		List<String> fieldQueries = new ArrayList<String>();
+		for (PropertyMapping m : getPropertyMappings(clazz)) {
+			if (! m.isSearchable)
+				continue;
+			if (m.valueClazz() != String.class)
+				throw JRDFAnnotationException.badlyAnnotatedProperty(
+					clazz,
+					m.field,
+					"Marked as @Searchable, but its valueClazz is not String."
+				);
+			fieldQueries.add(
+				String.format(
+					"%s:(%s)",
+					DatasetBackend.textField(getPropertyURI(clazz, m.field)),
+					query
+				)
+			);
+		}
+		if (fieldQueries.isEmpty())
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				"This class has no @Searchable fields!"
+			);
 
-								if (valueClazz.isEnum()) 	// use an EnumSet
-									allVals = EnumSet.noneOf(valueClazz);
-								else 											// use a HashSet
-									allVals = new HashSet<Object>();
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
+
+		// the text index is searched first, so that only the nodes it
+		// finds are matched against the class. The index holds a 
+		// document for each value, so a node is scored by the sum of
+		// the scores of its values.
+		String queryString = String.format(
+			"PREFIX text: <http://jena.apache.org/text#>%n%sSELECT %s (SUM(?s) AS ?score)\nWHERE {\n\t%s\n}\nGROUP BY %s\nORDER BY DESC(?score)\nLIMIT %d",
+			currentPrefixes,
+			ORIGIN_VARNAME,
+			scoped(
+				clazz,
+				String.format(
+					"(%s ?s) text:query (%s %d) .\n\t",
+					ORIGIN_VARNAME,
+					literalToSparql(ResourceFactory.createPlainLiteral(String.join(" OR ", fieldQueries))),
+					limit * fieldQueries.size()
+				)
+					+ getMembershipPattern(ORIGIN_VARNAME, clazz)
+					+ (clazz.isAnnotationPresent(RDFType.class) ? "" : getStemFilter(ORIGIN_VARNAME, clazz))
+			),
+			ORIGIN_VARNAME,
+			limit
+		);
+
+		Map<String, Double> scores = new HashMap<String, Double>();
+		for (Map<String, Double> shardScores : scatter(shard -> {
+			Map<String, Double> found = new HashMap<String, Double>();
+			shard.select(queryString, soln -> found.put(
+				nodeToSparql(soln.get("origin")),
+				soln.getLiteral("score").getDouble()
+			));
+			return found;
+		}))
+			scores.putAll(shardScores);
+
+		List<String> uris = new ArrayList<String>(scores.keySet());
+		uris.sort((u, v) -> Double.compare(scores.get(v), scores.get(u)));
+		if (uris.size() > limit)
+			uris = uris.subList(0, limit);
+
+		List<Object> found = new ArrayList<Object>(uris.size());
+		for (Object o : retrieveAll(uris, clazz))
+			if (o != null)
+				found.add(o);
+		return found;
+	}
+
+	/**
+	 * Method to get a pattern to use in a SPARQL query matching the 
+	 * nodes of the instances of the class of the given Criteria that
+	 * satisfy them, scoped to the graph of the class, or null if no node
+	 * can satisfy them.
+	 */
+	private String getSelectionPattern(String varName, Criteria criteria)
+	throws JRDFAnnotationException {
+		return getSelectionPattern(varName, criteria, "");
+	}
+
+	/**
+	 * Method to get a pattern to use in a SPARQL query matching the 
+	 * nodes selected by the given Criteria, as getSelectionPattern() 
+	 * does, along with the given pattern, which is scoped with them.
+	 */
+	private String getSelectionPattern(String varName, Criteria criteria, String pattern)
+	throws JRDFAnnotationException {
+		Class clazz = criteria.getCriteriaClass();
+		String criteriaPattern = getCriteriaPattern(varName, criteria);
+		if (criteriaPattern == null)
+			return null;
+
+		// the type of an @RDFType class is enough, and its subclasses
+		// may be identified otherwise.
+		return scoped(
+			clazz,
+			getMembershipPattern(varName, clazz) 
+				+ criteriaPattern 
+				+ pattern
+				+ (clazz.isAnnotationPresent(RDFType.class) ? "" : getStemFilter(varName, clazz))
+		);
+	}
 
-								while (querySolns.hasNext()) {
-									QuerySolution soln = querySolns.next();
-									RDFNode valNode = soln.get("val");
-									if (valNode.isLiteral()) {
-										Literal lit = soln.getLiteral("val");
-										allVals.add(lit2Object(lit, valueClazz));
-									} else {
-										String valURI =
-											String.format(
-												"<%s>", 
-												valNode.asResource().getURI()
-											);
+	/**
+	 * Returns the URIs of the nodes that satisfy every condition of the
+	 * given Criteria that the indexes of their class can answer, or null
+	 * if the indexes can answer none of them.
+	 */
+	private Set<String> getIndexedCandidates(Criteria criteria)
+	throws JRDFAnnotationException {
+		Set<String> candidates = null;
+		for (Criteria.Condition c : criteria.getConditions()) {
+			ValueIndex index = getIndex(criteria.getCriteriaClass(), c);
+			if (index == null)
+				continue;
 
-										enqueue(valURI, valueClazz);
-										allVals.add(getOrCreate(valURI, valueClazz, results));
-									}
-								}
+			Set<String> matching = index.lookup(
+				c.comparison, 
+				indexKey(getPropertyMapping(criteria.getCriteriaClass(), c.fieldName), c.value)
+			);
+			if (candidates == null)
+				candidates = matching;
+			else
+				candidates.retainAll(matching);
+		}
+		return candidates;
+	}
 
-								// If we fail to populate the non-nullable field, abort the retrieval.
-								if ((!pf.policy().nullable) && allVals.size() == 0)
-									return;
+	/**
+	 * Returns whether the indexes of the class of the given Criteria can
+	 * answer every one of its conditions, of which it has any.
+	 */
+	private boolean isIndexed(Criteria criteria) {
+		for (Criteria.Condition c : criteria.getConditions())
+			if (getIndex(criteria.getCriteriaClass(), c) == null)
+				return false;
+		return ! criteria.getConditions().isEmpty();
+	}
 
-								val = allVals;
-							} else {
-								if (querySolns.hasNext()) {
-									QuerySolution soln = querySolns.next();
-									RDFNode valNode = soln.get("val");
+	/**
+	 * Returns the index that answers the given condition on the given
+	 * class, or null if none has been built that can.
+	 */
+	private ValueIndex getIndex(Class clazz, Criteria.Condition c) {
+		Map<PropertyMapping, ValueIndex> classIndexes = indexes.get(clazz);
+		if (classIndexes == null)
+			return null;
+		ValueIndex index = classIndexes.get(getPropertyMapping(clazz, c.fieldName));
+		return index != null && index.supports(c.comparison) ? index : null;
+	}
 
-									if (valNode.isLiteral()) {
-										val = lit2Object(valNode.asLiteral(), valueClazz);
-									} else {
-										String valURI = 
-											String.format(
-												"<%s>", 
-												valNode.asResource().getURI()
-											);
+	/**
+	 * Returns the URIs, among the given ones, of the nodes selected by
+	 * the given Criteria, with a query for every recordingChunkSize 
+	 * nodes in each shard.
+	 */
+	private List<String> selectMatching(Criteria criteria, Collection<String> uris)
+	throws JRDFAnnotationException {
+		Class clazz = criteria.getCriteriaClass();
+		String currentPrefixes = "";
+		if (prefixes.containsKey(clazz))
+			currentPrefixes = prefixes.get(clazz);
 
-									enqueue(valURI, valueClazz);
-									val = getOrCreate(valURI, valueClazz, results);
-									}
-								} else {
-									// If we fail to populate the non-nullable field, abort the retrieval.
-									if (!pf.policy().nullable)
-										return;
+		List<String> matching = new ArrayList<String>();
+		for (Map.Entry<StorageBackend, List<String>> shard : groupByShard(uris).entrySet())
+			for (String values : valuesBlocks(shard.getValue()))
+				for (RDFNode node : selectNodes(
+					shard.getKey(),
+					String.format(
+						"%sSELECT DISTINCT %s\nWHERE {\n\tVALUES %s {%s }\n\t%s\n}",
+						currentPrefixes,
+						ORIGIN_VARNAME,
+						ORIGIN_VARNAME,
+						values,
+						getSelectionPattern(ORIGIN_VARNAME, criteria)
+					),
+					"origin"
+				))
+					matching.add(nodeToSparql(node));
+		return matching;
+	}
 
-									val = null;
-								}
-							}
+	/**
+	 * Method to get a pattern to use in a SPARQL query matching the
+	 * nodes of instances of the given class. The instances of an 
+	 * @RDFType class, and of its subclasses, are the nodes of its type.
+	 *
+	 * @see getFieldMembershipPattern()
+	 */
+	private String getMembershipPattern(String varName, Class clazz) 
+	throws JRDFAnnotationException {
+		if (clazz.isAnnotationPresent(RDFType.class))
+			return String.format("%s a %s .\n\t", varName, getTypes(clazz).get(0));
+		return getFieldMembershipPattern(varName, clazz);
+	}
 
-							// We're not playing around here.
-							f.setAccessible(true);
-							
-							try {
-								f.set(current, val);
-							} catch (IllegalArgumentException e) {
-								throw new RuntimeException(
-									String.format(
-										"Encountered an IllegalArgumentException when trying to set the field %s on the class %s.",
-										f.getName(),
-										currentClazz.getCanonicalName()
-									)
-								);
-							} catch (IllegalAccessException e) {
-								throw new RuntimeException(
-									String.format(
-										"Encountered an IllegalAccessException when trying to set the field %s on the class %s.",
-										f.getName(),
-										currentClazz.getCanonicalName()
-									)
-								);
-							}
-						}
-					}
-				}
-				// if a return has not been triggered at by this point,
-				// retrieval was successful.
-				objMapping.putAll(results);
-			} else if (uriQueue.size() == clazzQueue.size()) {
-				// run each item in the queue as a separate batch, so that 
-				// a failure to retrieve one does not affect the others 
-				// unless they are part of the same graph.
-				for (int x = 0; x < uriQueue.size(); x++) {
-					RetrievalBatch subBatch = new RetrievalBatch();
-					
-					subBatch.enqueue(
-						uriQueue.get(x),
-						clazzQueue.get(x)
-					);
+	/**
+	 * Method to get a pattern to use in a SPARQL query matching the
+	 * nodes that have a value for every non-nullable @PropertyField of
+	 * the given class. If every field is nullable, it matches the nodes
+	 * with a value for any of them.
+	 */
+	private String getFieldMembershipPattern(String varName, Class clazz) 
+	throws JRDFAnnotationException {
+		List<PropertyMapping> mappings = getPropertyMappings(clazz);
+		if (mappings.isEmpty())
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				"This class has no @PropertyFields!"
+			);
 
-					subBatch.objMapping.putAll(objMapping);
-					subBatch.run();
-					objMapping.putAll(subBatch.objMapping);
-				}
-			}
+		StringBuilder sb = new StringBuilder();
+		int required = 0;
+		for (PropertyMapping m : mappings) {
+			if (m.policy().nullable)
+				continue;
+			sb.append(
+				String.format(
+					"%s %s ?r%d .\n\t",
+					varName,
+					m.predicate,
+					required++
+				)
+			);
 		}
 
-		private Object getOrCreate(
-			String uri, 
-			Class clazz, 
-			Map<String, Map<Class, Object>> mapping) {
-			if (mapping.containsKey(uri)) {
-				Map<Class, Object> clazzMapping = mapping.get(uri);
-				if (clazzMapping.containsKey(clazz))
-					return clazzMapping.get(clazz);
-				else {
-					try {
-						Object o = clazz.getDeclaredConstructor().newInstance();
-						clazzMapping.put(clazz, o);
-						mapping.put(uri, clazzMapping);
-						return o;
-					} catch (Exception e) {
-						throw new RuntimeException(
-							String.format(
-								"Class %s has no public no-argument constructor!",
-								clazz.getCanonicalName()
-							)
-						);
-					}
-				}
-			} else {
-				Map<Class, Object> clazzMapping = new HashMap<Class, Object>();
-				try {
-					Object o = clazz.getDeclaredConstructor().newInstance();
-					clazzMapping.put(clazz, o);
-					mapping.put(uri, clazzMapping);
-					return o;
-				} catch (Exception e) {
-					throw new RuntimeException(
-						String.format(
-							"Class %s has no public no-argument constructor!",
-							clazz.getCanonicalName()
-						)
-					);
-				}
-			}
+		if (required == 0) {
+			sb.append("VALUES ?anyProperty {");
+			for (PropertyMapping m : mappings)
+				sb.append(' ').append(m.predicate);
+			sb.append(String.format(" }\n\t%s ?anyProperty ?anyValue .\n\t", varName));
 		}
+
+		return sb.toString();
 	}
 
 	/**
-	 * Utility method for converting Literal nodes into Java objects.
+	 * Method to get a FILTER restricting the nodes matched by the given
+	 * variable to the URIs of the given class, if it is a 
+	 * @IdentifiedByField or an @IdentifiedByContent class, or an empty
+	 * String.
 	 */
-	private static Object lit2Object(Literal lit, Class<?> clazz) {
+	private String getStemFilter(String varName, Class clazz) 
+	throws JRDFAnnotationException {
+		String stem;
+		if (clazz.isAnnotationPresent(IdentifiedByField.class))
+			stem = getIdentifierBinding(clazz).uriHead.substring(1);
+		else if (clazz.isAnnotationPresent(IdentifiedByContent.class))
+			stem = getContentStem(clazz);
+		else
+			return "";
+		return String.format(
+			"FILTER (STRSTARTS(STR(%s), \"%s\"))",
+			varName,
+			stem
+		);
+	}
 
-		// Restore enumerated type
-		if (clazz.isEnum()) {
+	/**
+	 * Method to get a pattern to use in a SPARQL query restricting the
+	 * nodes matched by the given variable to those satisfying the given
+	 * Criteria, or null if no node can satisfy them because they refer
+	 * to a resource that is not in the graph.
+	 */
+	private String getCriteriaPattern(String varName, Criteria criteria)
+	throws JRDFAnnotationException {
+		Class clazz = criteria.getCriteriaClass();
+		StringBuilder sb = new StringBuilder();
+		int x = 0;
+
+		for (Criteria.Condition c : criteria.getConditions()) {
+			PropertyMapping m = getPropertyMapping(clazz, c.fieldName);
+
+			String value;
+			if (m.converter != null)
+				value = literalToSparql(toLiteral(m, c.value));
+			else if (c.comparison != Criteria.Comparison.EQUAL)
+				throw new IllegalArgumentException(
+					String.format("The field %s on the class %s refers to resources, which cannot be ordered.",
+						c.fieldName,
+						clazz.getCanonicalName()));
+			else
+				value = lookupURI(c.value);
 
-			/*
-			 * WARNING: THE FOLLOWING CODE IS BLACK MAGIC. WE USE REFLECTION TO
-			 * COERCE Enum.valueOf() INTO IGNORING THE CLASS GENERICS THAT ARE
-			 * INFERRED AT RUNTIME. DO NOT CHANGE THIS CODE
-			 */
+			if (value == null)
+				return null;
 
-			try {
-				return Enum.class.getDeclaredMethod("valueOf",
-						new Class[] { Class.class, String.class }).invoke(null,
-						clazz.asSubclass(Enum.class), lit.getValue());
-			} catch (Exception e) {
-				throw new RuntimeException(
-						"Something genuinely horrifying happened; we can't invoke Enum.valueOf().");
-			}
-		} else {
-			return lit.getValue();
+			if (c.comparison == Criteria.Comparison.EQUAL)
+				sb.append(
+					String.format(
+						"%s %s %s .\n\t",
+						varName,
+						m.predicate,
+						value
+					)
+				);
+			else
+				sb.append(
+					String.format(
+						"%s %s ?c%d .\n\tFILTER (?c%d %s %s)\n\t",
+						varName,
+						m.predicate,
+						x,
+						x,
+						c.comparison.operator,
+						value
+					)
+				);
+			x++;
 		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the PropertyMapping of the @PropertyField of the given
+	 * class with the given name.
+	 */
+	private PropertyMapping getPropertyMapping(Class clazz, String fieldName) {
+		for (PropertyMapping m : getPropertyMappings(clazz))
+			if (m.name().equals(fieldName))
+				return m;
+		throw new IllegalArgumentException(
+			String.format("The class %s has no @PropertyField named '%s'.",
+				clazz.getCanonicalName(),
+				fieldName));
 	}
 
 	/* ########## REMOVAL OPERATIONS ########## */
@@ -720,17 +3726,7 @@ public class PersistenceManager {
 	 */
 	public void removeData(String uri, Class clazz) 
 	throws JRDFAnnotationException {
-		String currentPrefixes = null;
-		if (prefixes.containsKey(clazz))
-			currentPrefixes = prefixes.get(clazz);
-
-		String queryString = String.format(
-			"%sDELETE WHERE {\n\t%s\n}",
-			currentPrefixes,
-			getDeletionPattern(uri, clazz)
-		);
-
-		UpdateAction.parseExecute(queryString, ds);
+		removeAll(Collections.singletonList(uri), clazz);
 	}
 
 	/**
@@ -744,35 +3740,100 @@ public class PersistenceManager {
 	throws JRDFAnnotationException {
 		if (o == null) return;
 
-		Class clazz = o.getClass();
-		String uri;
+		String uri = lookupURI(o);
+		if (uri == null)
+			return; // nothing to delete!
 
-		if (clazz.isAnnotationPresent(IdentifiedByField.class))
-			uri = getURI(o);
-		else {
+		removeData(uri, o.getClass());
+	}
+
+	/**
+	 * Removes all the data FOR THE GIVEN CLASS that is associated with
+	 * each of the given URIs, as removeData(uri, clazz) does, with a
+	 * single update executed in one write transaction.
+	 */
+	public void removeAll(Collection<String> uris, Class clazz) 
+	throws JRDFAnnotationException {
+		Map<Class, Collection<String>> urisByClass = new HashMap<Class, Collection<String>>();
+		urisByClass.put(clazz, uris);
+		removeAll(urisByClass);
+	}
+
+	/**
+	 * Finds the nodes in the graph associated with the given objects and
+	 * removes the data associated with the class of each object, as 
+	 * removeData(o) does. The nodes of objects that must be looked up
+	 * are found with one query per class for every recordingChunkSize
+	 * objects, and all the data is removed with a single update executed
+	 * in one write transaction.
+	 */
+	public void removeAll(Collection<?> os) 
+	throws JRDFAnnotationException {
+		Map<Class, Collection<String>> urisByClass = new HashMap<Class, Collection<String>>();
+		for (Map.Entry<Object, String> e : lookupURIs(os).entrySet())
+			urisByClass
+				.computeIfAbsent(e.getKey().getClass(), k -> new ArrayList<String>())
+				.add(e.getValue());
+		removeAll(urisByClass);
+	}
+
+	/**
+	 * Removes the data associated with each class from each of the URIs
+	 * it is mapped to. Each property of a class is deleted from up to
+	 * recordingChunkSize nodes by a single operation, and the operations
+	 * of each shard are executed as a single update.
+	 */
+	private void removeAll(Map<Class, Collection<String>> urisByClass) 
+	throws JRDFAnnotationException {
+		Map<StorageBackend, List<String>> operationsByShard = new LinkedHashMap<StorageBackend, List<String>>();
+		for (Map.Entry<Class, Collection<String>> e : urisByClass.entrySet()) {
+			Class clazz = e.getKey();
 			String currentPrefixes = "";
 			if (prefixes.containsKey(clazz))
 				currentPrefixes = prefixes.get(clazz);
 
-			String queryString = String.format(
-				"%sSELECT ?origin\nWHERE {\n\t%s .\n}\nLIMIT 1",
-				currentPrefixes,
-				getIdentifyingPattern("?origin", o)
-			);
-
-			Iterator<QuerySolution> results = 
-				QueryExecutionFactory.create(
-					QueryFactory.create(queryString)
-				).execSelect();
-
-			if (results.hasNext()) {
-				QuerySolution soln = results.next();
-				uri = soln.getResource("origin").getURI();
-			} else 
-				return; // nothing to delete!
+			for (Map.Entry<StorageBackend, List<String>> shard : groupByShard(e.getValue()).entrySet()) {
+				List<String> operations = operationsByShard
+					.computeIfAbsent(shard.getKey(), k -> new ArrayList<String>());
+				for (String values : valuesBlocks(shard.getValue())) {
+					for (PropertyMapping m : getPropertyMappings(clazz))
+						operations.add(
+						String.format(
+								"%sDELETE {\n\t%s\n}\nWHERE {\n\tVALUES ?origin {%s }\n\t%s\n}",
+								currentPrefixes,
+								scoped(clazz, String.format("?origin %s ?val .", m.predicate)),
+								values,
+								scoped(clazz, String.format("?origin %s ?val .", m.predicate))
+							)
+						);
+					if (! getTypes(clazz).isEmpty())
+						operations.add(
+							String.format(
+								"DELETE {\n\t%s\n}\nWHERE {\n\tVALUES ?origin {%s }\n\tVALUES ?type { %s }\n\t%s\n}",
+								scoped(clazz, "?origin a ?type ."),
+								values,
+								String.join(" ", getTypes(clazz)),
+								scoped(clazz, "?origin a ?type .")
+							)
+						);
+				}
+			}
 		}
 
-		removeData(uri, clazz);
+		if (operationsByShard.isEmpty())
+			return;
+		for (Map.Entry<StorageBackend, List<String>> e : operationsByShard.entrySet())
+			if (! e.getValue().isEmpty())
+				e.getKey().update(String.join(" ;\n", e.getValue()));
+
+		List<String> removed = new ArrayList<String>();
+		for (Map.Entry<Class, Collection<String>> e : urisByClass.entrySet())
+			for (String uri : e.getValue()) {
+				identifierCache.invalidate(e.getKey(), uri);
+				unindex(e.getKey(), uri);
+				removed.add(uri);
+			}
+		removed(removed);
 	}
 
 	/**
@@ -782,19 +3843,226 @@ public class PersistenceManager {
 	 */
 	public void removeResource(String uri)
 	throws JRDFAnnotationException {
-		String queryString = String.format(
-				"DELETE WHERE {\n\t%s ?property1 ?val .\n} ;\nDELETE WHERE {\n ?node ?property2 %s .\n}",
-				uri,
-				uri
-			);
+		removeResources(Collections.singletonList(uri));
+	}
+
+	/**
+	 * Removes all the statements that involve a given Resource, as
+	 * removeResource(uri) does, and those that involve the resources
+	 * of the objects owned by the instance of the given class at that
+	 * URI, and the objects owned by them, and so on.
+	 *
+	 * @see PropertyField#owned()
+	 */
+	public void removeResource(String uri, Class clazz)
+	throws JRDFAnnotationException {
+		removeResources(Collections.singletonList(uri), clazz);
+	}
+
+	/**
+	 * Removes all the statements that involve any of the given 
+	 * resources, as removeResource(uri) does, in one write transaction
+	 * per shard. The statements are removed directly from the default 
+	 * graph and every named graph, by subject and by object, so that the
+	 * store can use its indexes on both positions rather than matching a
+	 * query pattern. The statements about a resource are only in its 
+	 * shard, but those referring to it may be in any of them.
+	 */
+	public void removeResources(Collection<String> uris)
+	throws JRDFAnnotationException {
+		if (uris.isEmpty())
+			return;
+
+		List<Node> nodes = new ArrayList<Node>(uris.size());
+		for (String uri : uris)
+			nodes.add(uriNode(uri));
+
+		for (StorageBackend shard : shards)
+			shard.executeWrite(() -> {
+				for (Node node : nodes) {
+					if (shards.size() == 1 || shardOf(node.getURI()) == shard)
+						shard.remove(Node.ANY, node, Node.ANY, Node.ANY);
+					shard.remove(Node.ANY, Node.ANY, Node.ANY, node);
+				}
+			});
+
+		for (String uri : uris) {
+			identifierCache.invalidate(uri);
+			for (Map<PropertyMapping, ValueIndex> classIndexes : indexes.values())
+				for (ValueIndex index : classIndexes.values())
+					index.remove(uri);
+		}
+		removed(uris);
+	}
+
+	/**
+	 * Removes all the statements that involve any of the given 
+	 * resources, which are instances of the given class, and the 
+	 * resources of the objects they own, as removeResource(uri, clazz)
+	 * does, in one write transaction. The owned resources are found
+	 * with one query per owned field for every recordingChunkSize
+	 * resources, before anything is removed.
+	 *
+	 * @see PropertyField#owned()
+	 */
+	public void removeResources(Collection<String> uris, Class clazz)
+	throws JRDFAnnotationException {
+		Set<String> removed = new LinkedHashSet<String>(uris);
+		Map<Class, List<String>> frontier = new HashMap<Class, List<String>>();
+		frontier.put(clazz, new ArrayList<String>(removed));
+
+		while (! frontier.isEmpty()) {
+			Map<Class, List<String>> next = new HashMap<Class, List<String>>();
+			for (Map.Entry<Class, List<String>> e : frontier.entrySet()) {
+				String currentPrefixes = "";
+				if (prefixes.containsKey(e.getKey()))
+					currentPrefixes = prefixes.get(e.getKey());
+
+				Map<StorageBackend, List<String>> urisByShard = groupByShard(e.getValue());
+				for (PropertyMapping m : getPropertyMappings(e.getKey())) {
+					if (m.converter != null || ! m.annotation.owned())
+						continue;
+
+					for (Map.Entry<StorageBackend, List<String>> shard : urisByShard.entrySet())
+						for (String values : valuesBlocks(shard.getValue())) {
+							List<RDFNode> owned = selectNodes(
+								shard.getKey(),
+								String.format(
+									"%sSELECT DISTINCT ?val\nWHERE {\n\tVALUES ?origin {%s }\n\t%s\n\tFILTER (isIRI(?val))\n}",
+									currentPrefixes,
+									values,
+									scoped(e.getKey(), String.format("?origin %s ?val .", m.predicate))
+								),
+								"val"
+							);
+							for (RDFNode node : owned) {
+								String ownedURI = nodeToSparql(node);
+								if (removed.add(ownedURI)) // owned objects may be shared
+									next.computeIfAbsent(m.valueClazz(), k -> new ArrayList<String>())
+										.add(ownedURI);
+							}
+						}
+				}
+			}
+			frontier = next;
+		}
+
+		removeResources(removed);
+	}
+
+	/**
+	 * Removes the named graph with the given URI, and every statement
+	 * in it, with a single operation. This removes all the data of the
+	 * @NamedGraph classes kept in that graph, or all the data of the
+	 * tenant whose graph it is, without matching any pattern. The
+	 * indexes of @Indexed fields are dropped, and must be built again.
+	 *
+	 * @see setGraph()
+	 */
+	public void removeGraph(String graphURI) {
+		for (StorageBackend shard : shards)
+			shard.update(String.format("DROP SILENT GRAPH %s", enclosed(graphURI)));
+
+		identifierCache.clear();
+		indexes.clear();
+		forgetRemovals();
+	}
+
+	/**
+	 * Remembers that data about the given resources was removed, at a
+	 * new removal generation, so that the TrackedSets of those resources
+	 * and the sets referring to them are rewritten in full when they are
+	 * next recorded. At most MAX_REMEMBERED_REMOVALS resources are
+	 * remembered; beyond that, every set is treated as out of date.
+	 */
+	private void removed(Collection<String> uris) {
+		synchronized (removals) {
+			long generation = removalGeneration.incrementAndGet();
+			if (removals.size() + uris.size() > MAX_REMEMBERED_REMOVALS) {
+				removals.clear();
+				removalHorizon = generation;
+			} else {
+				for (String uri : uris)
+					removals.put(enclosed(uri), generation);
+			}
+		}
+	}
+
+	/**
+	 * Treats every TrackedSet retrieved or recorded so far as out of
+	 * date, after a change that concerns the whole graph rather than
+	 * some resources.
+	 */
+	private void forgetRemovals() {
+		synchronized (removals) {
+			removals.clear();
+			removalHorizon = removalGeneration.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Whether data about the resource with the given URI may have been
+	 * removed after the given removal generation.
+	 */
+	boolean removedSince(String uri, long generation) {
+		if (generation < removalHorizon)
+			return true;
+		Long removal = removals.get(uri);
+		return removal != null && removal > generation;
+	}
+
+	/**
+	 * Creates the Node of a URI, with or without enclosing angle braces.
+	 */
+	private static Node uriNode(String uri) {
+		if (uri.startsWith("<") && uri.endsWith(">"))
+			uri = uri.substring(1, uri.length() - 1);
+		return NodeFactory.createURI(uri);
+	}
+
+	/**
+	 * Groups the given URIs by the shards in which their resources are
+	 * kept.
+	 */
+	private Map<StorageBackend, List<String>> groupByShard(Collection<String> uris) {
+		Map<StorageBackend, List<String>> urisByShard = new LinkedHashMap<StorageBackend, List<String>>();
+		for (String uri : uris)
+			urisByShard.computeIfAbsent(shardOf(uri), k -> new ArrayList<String>()).add(uri);
+		return urisByShard;
+	}
 
-		UpdateAction.parseExecute(queryString, ds);
+	/**
+	 * Splits the given URIs into the contents of VALUES blocks of at
+	 * most recordingChunkSize URIs each.
+	 */
+	private List<String> valuesBlocks(Collection<String> uris) {
+		List<String> blocks = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		int count = 0;
+		for (String uri : uris) {
+			sb.append(' ').append(uri);
+			if (++count >= recordingChunkSize) {
+				blocks.add(sb.toString());
+				sb.setLength(0);
+				count = 0;
+			}
+		}
+		if (count > 0)
+			blocks.add(sb.toString());
+		return blocks;
 	}
 
 	/* ########## RECORDING OPERATIONS ########## */
 
 	/**
 	 * Persists a representation of the given object in the graph.
+	 *
+	 * If a collection field of the object still holds the Set it was
+	 * given when the object was retrieved, only the values added to it
+	 * and removed from it since are written. The objects that remain in
+	 * it are still recorded, so that changes to them are persisted,
+	 * except for those of a @Paged field, which must be recorded 
+	 * directly.
 	 */
 	public void record(Object o) 
 	throws JRDFAnnotationException {
@@ -825,123 +4093,671 @@ public class PersistenceManager {
 		batch.run();
 	}
 
+	/**
+	 * Asserts the rdf:types of the given @RDFType class, and of its
+	 * superclasses, for every node in the graph that has a value for
+	 * each non-nullable @PropertyField of the class, as record() would
+	 * have asserted them. This is meant for the instances recorded
+	 * before the class was annotated, and is done with a single update
+	 * per shard.
+	 *
+	 * Only the nodes whose URIs were generated for the class itself are
+	 * typed, so that the nodes of other classes with the same fields are
+	 * left alone. The class must therefore be @IdentifiedByField or
+	 * @IdentifiedByContent; the nodes of other classes can only be typed
+	 * by addTypes(uris, clazz).
+	 *
+	 * @see RDFType
+	 */
+	public void addTypes(Class clazz)
+	throws JRDFAnnotationException {
+		checkTyped(clazz);
+		String stemFilter = getStemFilter(ORIGIN_VARNAME, clazz);
+		if (stemFilter.isEmpty())
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				"Is neither @IdentifiedByField nor @IdentifiedByContent, so its nodes cannot be told from those of other classes; use addTypes(uris, clazz)."
+			);
+
+		String operations = String.format(
+			"%sINSERT {\n\t%s\n}\nWHERE {\n\t%s\n}",
+			prefixes.containsKey(clazz) ? prefixes.get(clazz) : "",
+			scoped(clazz, String.format("%s a %s .", ORIGIN_VARNAME, String.join(", ", getTypes(clazz)))),
+			scoped(
+				clazz,
+				getFieldMembershipPattern(ORIGIN_VARNAME, clazz) + stemFilter
+			)
+		);
+		for (StorageBackend shard : shards)
+			shard.update(operations);
+	}
+
+	/**
+	 * Asserts the rdf:types of the given @RDFType class, and of its
+	 * superclasses, for each of the nodes with the given URIs that has a
+	 * value for every non-nullable @PropertyField of the class, with one
+	 * update for every recordingChunkSize nodes in each shard. The URIs
+	 * have enclosing angle braces, as those returned by getURI() do.
+	 *
+	 * @see addTypes(Class)
+	 */
+	public void addTypes(Collection<String> uris, Class clazz)
+	throws JRDFAnnotationException {
+		checkTyped(clazz);
+
+		for (Map.Entry<StorageBackend, List<String>> shard : groupByShard(uris).entrySet())
+			for (String values : valuesBlocks(shard.getValue()))
+				shard.getKey().update(
+					String.format(
+						"%sINSERT {\n\t%s\n}\nWHERE {\n\tVALUES %s {%s }\n\t%s\n}",
+						prefixes.containsKey(clazz) ? prefixes.get(clazz) : "",
+						scoped(clazz, String.format("%s a %s .", ORIGIN_VARNAME, String.join(", ", getTypes(clazz)))),
+						ORIGIN_VARNAME,
+						values,
+						scoped(clazz, getFieldMembershipPattern(ORIGIN_VARNAME, clazz))
+					)
+				);
+	}
+
+	private static void checkTyped(Class clazz)
+	throws JRDFAnnotationException {
+		if (! clazz.isAnnotationPresent(RDFType.class))
+			throw JRDFAnnotationException.badlyAnnotatedClass(
+				clazz,
+				"Is not annotated with @RDFType."
+			);
+	}
+
 	private class RecordingBatch {
 		private List<Object> objQueue;
+		private Set<Object> enqueued;
 		private Map<Object, String> nodeMapping;
+		private Set<Object> mintedNodes;
+		private long generation;
+		/** Marks the versions incremented by this batch. */
+		private final String token = UUID.randomUUID().toString();
 
 		public RecordingBatch() {
-			objQueue = new LinkedList<Object>();
+			objQueue = new ArrayList<Object>();
+			enqueued = new HashSet<Object>();
 			nodeMapping = new HashMap<Object, String>();
+			mintedNodes = new HashSet<Object>();
 		}
 
 		public void enqueue(Object o) {
-			if (!objQueue.contains(o))
+			if (enqueued.add(o))
 				objQueue.add(o);
 		}
 
+		/**
+		 * Converts every object in the queue (including the objects
+		 * discovered while converting them) into SPARQL Update operations
+		 * and executes them. Rather than executing one request per object,
+		 * the operations of up to recordingChunkSize objects are combined 
+		 * into a single UpdateRequest, which is parsed once, and every 
+		 * chunk is executed in the same write transaction.
+		 *
+		 * The objects are first discovered and given their nodes, in this
+		 * thread. Once every node is known, converting an object no longer
+		 * changes the state of the batch, so the chunks are converted and
+		 * parsed, in pieces, concurrently on the recording executor, while
+		 * this thread executes them in order as they become ready. The 
+		 * objects and caches are only updated once the transaction has
+		 * been committed.
+		 *
+		 * A collection field holding a TrackedSet that still tracks the
+		 * values persisted for the node is not rewritten; only the values
+		 * added to it and removed from it are written.
+		 *
+		 * An object with a @Version field that is no longer its version
+		 * in the graph is not written, but the rest of the batch is. Once
+		 * every chunk has been executed, a VersionConflictException lists
+		 * the objects that were not written.
+		 */
 		public void run() throws JRDFAnnotationException {
+			generation = removalGeneration.get();
+			List<Pending> pending = discover();
+			List<VersionCheck> stale = new ArrayList<VersionCheck>();
+
+			// the chunks are converted in pieces, which are small enough
+			// that a batch of a single chunk is still converted by several
+			// workers, unless there is no executor.
+			boolean concurrent = recordingExecutor != null && pending.size() > 1;
+			Executor executor = concurrent ? recordingExecutor : Runnable::run;
+			int window = concurrent ? Math.max(2, Runtime.getRuntime().availableProcessors()) : 1;
+			int pieceSize = concurrent ?
+				Math.min(recordingChunkSize, (pending.size() + window - 1) / window) :
+				recordingChunkSize;
+
+			List<List<Pending>> pieces = new ArrayList<List<Pending>>();
+			List<Integer> chunkStarts = new ArrayList<Integer>();
+			for (int start = 0; start < pending.size(); start += recordingChunkSize) {
+				int end = Math.min(pending.size(), start + recordingChunkSize);
+				chunkStarts.add(pieces.size());
+				for (int from = start; from < end; from += pieceSize)
+					pieces.add(pending.subList(from, Math.min(end, from + pieceSize)));
+			}
+			chunkStarts.add(pieces.size());
+
+			// the pieces are converted at most a few ahead of the one
+			// being executed, so that they are not all held in memory.
+			List<CompletableFuture<Chunk>> converted = new ArrayList<CompletableFuture<Chunk>>();
+			while (converted.size() < pieces.size() && converted.size() < window)
+				converted.add(convertAsync(pieces.get(converted.size()), executor));
+
+			List<Chunk> executed = new ArrayList<Chunk>();
+			Set<Pending> rejected = new HashSet<Pending>();
+			try {
+				executeWrite(shards, 0, () -> {
+					for (int c = 0; c + 1 < chunkStarts.size(); c++) {
+						List<Chunk> parts = new ArrayList<Chunk>();
+						for (int x = chunkStarts.get(c); x < chunkStarts.get(c + 1); x++) {
+							while (converted.size() < pieces.size() && converted.size() < x + window)
+								converted.add(convertAsync(pieces.get(converted.size()), executor));
+							parts.add(converted.get(x).join());
+							converted.set(x, null);
+						}
+						execute(parts, rejected);
+						executed.addAll(parts);
+					}
+				});
+			} catch (CompletionException e) {
+				throw unwrap(e);
+			}
+
+			for (Chunk chunk : executed)
+				persisted(chunk, rejected, stale);
+			checkVersions(stale);
+		}
+
+		/**
+		 * Converts the given objects on the given executor.
+		 */
+		private CompletableFuture<Chunk> convertAsync(List<Pending> part, Executor executor) {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return convert(part);
+				} catch (JRDFAnnotationException e) {
+					throw new CompletionException(e);
+				}
+			}, executor);
+		}
+
+		/**
+		 * Throws a VersionConflictException listing the given objects,
+		 * which were not written because their versions were stale, if
+		 * there are any.
+		 */
+		private void checkVersions(List<VersionCheck> stale) {
+			if (stale.isEmpty())
+				return;
+			List<Object> objects = new ArrayList<Object>(stale.size());
+			List<String> uris = new ArrayList<String>(stale.size());
+			List<Long> versions = new ArrayList<Long>(stale.size());
+			for (VersionCheck c : stale) {
+				objects.add(c.o);
+				uris.add(c.uri);
+				versions.add(c.version);
+			}
+			throw VersionConflictException.staleVersions(objects, uris, versions);
+		}
+
+		/**
+		 * Discovers every object to be written, from the queue and the
+		 * resource fields of the objects in it, and finds or creates the
+		 * node of each of them. The nodes of the objects discovered at the
+		 * same step are looked up together.
+		 */
+		private List<Pending> discover() throws JRDFAnnotationException {
+			List<Pending> pending = new ArrayList<Pending>();
 			int currentObj = 0;
 			while (currentObj < objQueue.size()) {
-				Object current = objQueue.get(currentObj++);
-				String currentUri = uriOf(current);
+				List<Object> step = new ArrayList<Object>(
+					objQueue.subList(currentObj, objQueue.size()));
+				currentObj = objQueue.size();
+				assignNodes(step);
+
+				for (Object current : step) {
+					String currentUri = nodeMapping.get(current);
+					Set<PropertyMapping> unloaded = unloadedFields(current);
+					Map<TrackedSet, String> written = new IdentityHashMap<TrackedSet, String>();
+					Map<PropertyMapping, TrackedSet> tracked = getTrackedSets(currentUri, current, written);
+
+					// the objects referred to by the fields are written as
+					// well, including the members of a tracked set that were
+					// not added to it, since they may have been changed. Only
+					// the members added to a paged set are written, rather 
+					// than every member it can read.
+					for (PropertyMapping m : getPropertyMappings(current.getClass())) {
+						if (m.converter != null || m.primitive != null || unloaded.contains(m))
+							continue;
+						TrackedSet t = tracked.get(m);
+						Object val = t instanceof PagedSet ? t.added() : readField(current, m);
+						if (val instanceof Collection) {
+							if (m.policy().isCollection)
+								for (Object v : (Collection<Object>) val)
+									if (v != null) enqueue(v);
+						} else if (val != null) {
+							enqueue(val);
+						}
+					}
+
+					pending.add(new Pending(current, currentUri, tracked, written, unloaded));
+				}
+			}
+			return pending;
+		}
+
+		/**
+		 * Finds the nodes of the given objects in the graph, with one
+		 * query per class, and creates nodes for those that have none,
+		 * using the default stem and a new anonymous id. The URIs of
+		 * @IdentifiedByContent classes are always generated from their
+		 * identifying fields.
+		 *
+		 * On a sharded PersistenceManager, ids are skipped until the URI
+		 * of a new node is kept in the same shard as the identifying 
+		 * values of its object, in which the node is looked up.
+		 */
+		private void assignNodes(List<Object> os) throws JRDFAnnotationException {
+			List<Object> unknown = new ArrayList<Object>();
+			for (Object o : os)
+				if (! nodeMapping.containsKey(o))
+					unknown.add(o);
+			if (unknown.isEmpty())
+				return;
+
+			Map<Object, String> found = lookupURIs(unknown);
+			for (Object o : unknown) {
+				String uri = found.get(o);
+				if (uri == null) {
+					StorageBackend shard = shards.size() == 1 ? 
+						null : 
+						shardOf(IdentifierCache.keyOf(o.getClass(), getIdentifyingValues(o)));
+					do {
+						uri = String.format("<%s.%016x>",
+							anonStem,
+							nextAnonymousId()
+							);
+					} while (shard != null && shardOf(uri) != shard);
+					mintedNodes.add(o);
+				}
+				nodeMapping.put(o, uri);
+			}
+		}
+
+		/**
+		 * Converts the given objects into a single chunk of operations.
+		 * This only reads the state of the batch, so that chunks can be
+		 * converted concurrently.
+		 */
+		private Chunk convert(List<Pending> part) throws JRDFAnnotationException {
+			Chunk chunk = new Chunk();
+			Map<StorageBackend, StringBuilder> byShard = new LinkedHashMap<StorageBackend, StringBuilder>();
+			for (Pending p : part) {
+				Object current = p.o;
+				String currentUri = p.uri;
 				Class currentClazz = current.getClass();
 
 				String currentPrefixes = "";
 				if (prefixes.containsKey(currentClazz))
 					currentPrefixes = prefixes.get(currentClazz);
 
-				String deletion = getDeletionPattern(currentUri, currentClazz);
-				String insertion = getInsertionPattern(currentUri, current);
+				// the fields that were not loaded are left as they are.
+				Set<PropertyMapping> skipped = new HashSet<PropertyMapping>(p.tracked.keySet());
+				skipped.addAll(p.unloaded);
+
+				// every operation that writes an object with a version is
+				// guarded by it, so that nothing is written if the version
+				// in the graph has changed, and the version is incremented
+				// last.
+				List<String> operations = new ArrayList<String>();
+				VersionCheck check = getVersionCheck(currentUri, current);
+				if (check != null && p.unloaded.contains(check.m))
+					check = null;
+				if (check != null)
+					skipped.add(check.m);
+				String guard = check == null ? null : check.guard;
+
+				String deletion = getDeletionOperations(currentUri, currentClazz, skipped, guard);
+				if (deletion != null)
+					operations.add(deletion);
+				String retraction = getRetractionPattern(currentUri, p.tracked);
+				if (retraction != null)
+					operations.add(guard == null ?
+						String.format("DELETE DATA {\n\t%s\n}", scoped(currentClazz, retraction)) :
+						String.format("DELETE {\n\t%s\n}\nWHERE {\n\t%s\n}", scoped(currentClazz, retraction), guard));
+				String insertion = getInsertionPattern(currentUri, current, p.tracked, p.unloaded);
+				if (insertion != null)
+					operations.add(guard == null ?
+						String.format("INSERT DATA {\n\t%s\n}", scoped(currentClazz, insertion)) :
+						String.format("INSERT {\n\t%s\n}\nWHERE {\n\t%s\n}", scoped(currentClazz, insertion), guard));
+				if (check != null)
+					operations.add(check.update);
 
-				if (deletion == null) // nothing to be done here
+				if (operations.isEmpty()) // nothing to be done here
 					continue;
 
-				String queryString;
-				if (insertion != null)
-					queryString = String.format(
-							"%sDELETE {\n\t%s\n}\nINSERT {\n\t%s\n}\nWHERE {\n\t%s\n}",
-							currentPrefixes,
-							deletion,
-							insertion,
-							deletion
-						);
-				else
-					queryString = String.format(
-							"%sDELETE WHERE {\n\t%s\n}",
-							currentPrefixes,
-							deletion
+				StorageBackend shard = shardOf(currentUri);
+				StringBuilder shardOperations = byShard
+					.computeIfAbsent(shard, k -> new StringBuilder());
+				if (shardOperations.length() > 0)
+					shardOperations.append(" ;\n");
+				
+				// Each operation in the request carries the prefixes of the
+				// class it concerns, since different classes may define the
+				// same prefix differently.
+				shardOperations.append(currentPrefixes);
+				shardOperations.append(String.join(" ;\n", operations));
+
+				chunk.written.add(p);
+				if (check != null)
+					chunk.checks.put(p, check);
+			}
+
+			for (Map.Entry<StorageBackend, StringBuilder> e : byShard.entrySet())
+				chunk.requests.put(e.getKey(), UpdateFactory.create(e.getValue().toString()));
+			return chunk;
+		}
+
+		/**
+		 * Executes the UpdateRequests of the given pieces of a chunk, 
+		 * combined into one for each shard. The objects whose versions in
+		 * the graph are not their versions are not written, and are added
+		 * to the given set of rejected objects; the other objects are 
+		 * written regardless. Whether an object was written is found by 
+		 * reading back the mark left by the update of its version.
+		 */
+		private void execute(List<Chunk> parts, Set<Pending> rejected) {
+			Map<StorageBackend, UpdateRequest> requests = new LinkedHashMap<StorageBackend, UpdateRequest>();
+			for (Chunk part : parts) {
+				for (Map.Entry<StorageBackend, UpdateRequest> e : part.requests.entrySet()) {
+					UpdateRequest request = requests.putIfAbsent(e.getKey(), e.getValue());
+					if (request != null)
+						for (Update operation : e.getValue().getOperations())
+							request.add(operation);
+				}
+				// the requests are no longer needed once executed.
+				part.requests.clear();
+			}
+
+			for (Map.Entry<StorageBackend, UpdateRequest> e : requests.entrySet()) {
+				StorageBackend shard = e.getKey();
+				shard.update(e.getValue());
+
+				List<String> marks = new ArrayList<String>();
+				for (Chunk part : parts) {
+					for (Map.Entry<Pending, VersionCheck> c : part.checks.entrySet()) {
+						if (shardOf(c.getKey().uri) != shard)
+							continue;
+						if (shard.ask(c.getValue().committed))
+							marks.add(c.getValue().unmark);
+						else
+							rejected.add(c.getKey());
+					}
+				}
+				if (! marks.isEmpty())
+					shard.update(String.join(" ;\n", marks));
+			}
+		}
+
+		/**
+		 * Brings the given objects and the caches up to date with the 
+		 * chunk once it has been committed, except for the rejected
+		 * objects, which are added to the given list of stale objects.
+		 */
+		private void persisted(Chunk chunk, Set<Pending> rejected, List<VersionCheck> stale) 
+		throws JRDFAnnotationException {
+			for (Pending p : chunk.written) {
+				VersionCheck c = chunk.checks.get(p);
+				if (rejected.contains(p)) {
+					stale.add(c);
+					continue;
+				}
+
+				// the object is now at its next version.
+				if (c != null) {
+					try {
+						c.m.field.setLong(c.o, c.version + 1);
+					} catch (IllegalAccessException ex) {
+						throw new RuntimeException(
+							String.format(
+								"Encountered an IllegalAccessException when trying to set the field %s on the class %s.",
+								c.m.name(),
+								c.o.getClass().getCanonicalName()
+							)
 						);
+					}
+				}
+
+				// a node created for the object can now be found by its
+				// identifying values.
+				if (mintedNodes.contains(p.o)) {
+					Map<String, String> values = getIdentifyingValues(p.o);
+					identifierCache.put(
+						IdentifierCache.keyOf(p.o.getClass(), values),
+						p.uri,
+						mentionedURIs(values)
+					);
+				}
+
+				// the values of its @Indexed fields are now those of its
+				// node.
+				if (! indexes.isEmpty())
+					index(p.o, p.uri, p.unloaded);
 
-				UpdateAction.parseExecute(queryString, ds);
+				// the values of its sets are now the values persisted for 
+				// its node.
+				for (Map.Entry<TrackedSet, String> w : p.written.entrySet())
+					w.getKey().persisted(PersistenceManager.this, w.getValue(), generation);
 			}
 		}
 
 		/**
-		 * Utility method to find (if it already exists) the URI for the 
-		 * given Object, and to create one using the default stem and the
-		 * current time, if not.
+		 * Creates the VersionCheck of the given object if its class has
+		 * a @Version field, or returns null.
 		 */
-		private String uriOf(Object o) throws JRDFAnnotationException {
-			if (! nodeMapping.containsKey(o)){
-				Class clazz = o.getClass();
-				String uri;
-		
-				if (clazz.isAnnotationPresent(IdentifiedByField.class))
-					uri = getURI(o);
-				else {
-					String currentPrefixes = "";
-					if (prefixes.containsKey(clazz))
-						currentPrefixes = prefixes.get(clazz);
-		
-					String queryString = String.format(
-						"%sSELECT DISTINCT ?origin\nWHERE {\n\t%s .\n}\nLIMIT 1",
-						currentPrefixes,
-						getIdentifyingPattern("?origin", o)
+		private VersionCheck getVersionCheck(String uri, Object o) 
+		throws JRDFAnnotationException {
+			Class clazz = o.getClass();
+			for (PropertyMapping m : getPropertyMappings(clazz)) {
+				if (! m.isVersion)
+					continue;
+				if (m.field.getType() != long.class)
+					throw JRDFAnnotationException.badlyAnnotatedProperty(
+						clazz,
+						m.field,
+						"Marked as the @Version, but its type is not long."
+					);
+
+				long version;
+				try {
+					version = m.field.getLong(o);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(
+						String.format(
+							"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
+							m.name(),
+							clazz.getCanonicalName()
+						)
 					);
-		
-					Iterator<QuerySolution> results = 
-						QueryExecutionFactory.create(
-							QueryFactory.create(queryString)
-						).execSelect();
-		
-					if (results.hasNext()) {
-						QuerySolution soln = results.next();
-						uri = soln.getResource("origin").getURI();
-					} else {
-						uri = String.format("<%s.%016x>",
-							anonStem,
-							System.currentTimeMillis()
-							);
-					}
 				}
-				nodeMapping.put(o, uri);
+
+				return new VersionCheck(o, m, uri, version, getGraph(clazz), token);
+			}
+			return null;
+		}
+
+		/**
+		 * Finds the collection fields of the given object that hold a
+		 * TrackedSet which still tracks the values persisted for the node
+		 * with the given URI. Every TrackedSet found is added to those 
+		 * written, so that it tracks the node once it has been written.
+		 */
+		private Map<PropertyMapping, TrackedSet> getTrackedSets(
+			String uri, 
+			Object o, 
+			Map<TrackedSet, String> written)
+		throws JRDFAnnotationException {
+			Map<PropertyMapping, TrackedSet> tracked = new LinkedHashMap<PropertyMapping, TrackedSet>();
+
+			for (PropertyMapping m : getPropertyMappings(o.getClass())) {
+				if (m.primitive != null || ! m.policy().isCollection)
+					continue;
+
+				Object val;
+				try {
+					val = m.field.get(o);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(
+						String.format(
+							"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
+							m.name(),
+							o.getClass().getCanonicalName()
+						)
+					);
+				}
+
+				if (val instanceof TrackedSet) {
+					TrackedSet t = (TrackedSet) val;
+					if (t.isTracking(PersistenceManager.this, uri)
+						&& (m.converter != null || t instanceof PagedSet || ! membersRemoved(t)))
+						tracked.put(m, t);
+					else if (t instanceof PagedSet)
+						// a view is never read in full to be written.
+						throw IllegalValueException.foreignView(o.getClass(), m.field, t.uri());
+					written.put(t, uri);
+				}
+			}
+
+			return tracked;
+		}
+
+		/**
+		 * Whether any of the persisted resources in the given TrackedSet
+		 * may have been removed since it was last read or written, which
+		 * also removed the statements referring to them. The resources are
+		 * only looked up if there has been any removal since.
+		 */
+		private boolean membersRemoved(TrackedSet t)
+		throws JRDFAnnotationException {
+			if (removalGeneration.get() == t.generation())
+				return false;
+
+			List<Object> persisted = new ArrayList<Object>();
+			for (Object v : (Set<Object>) t)
+				if (! t.added().contains(v))
+					persisted.add(v);
+			Map<Object, String> uris = lookupURIs(persisted);
+			if (uris.size() < persisted.size())
+				return true;
+			for (String memberURI : uris.values())
+				if (removedSince(memberURI, t.generation()))
+					return true;
+			return false;
+		}
+
+		/**
+		 * Method to get the SPARQL DELETE DATA pattern to remove the
+		 * values that have been removed from the given TrackedSets, or
+		 * null if there are none.
+		 */
+		private String getRetractionPattern(String uri, Map<PropertyMapping, TrackedSet> tracked)
+		throws JRDFAnnotationException {
+			StringBuilder sb = new StringBuilder(uri);
+			boolean noFields = true;
+
+			for (Map.Entry<PropertyMapping, TrackedSet> e : tracked.entrySet()) {
+				PropertyMapping m = e.getKey();
+				StringBuilder vals = new StringBuilder();
+				for (Object val : e.getValue().removed()) {
+					String node = persistedNode(m, val);
+					if (node == null) continue; // it was never persisted
+
+					if (vals.length() > 0)
+						vals.append(" , "); // not the first object
+					vals.append(node);
+				}
+
+				if (vals.length() == 0)
+					continue;
+
+				if (noFields) 
+					noFields = false;
+				else 
+					sb.append(" ;\n\t\t");
+
+				sb.append(
+					String.format(
+						" %s %s",
+						m.predicate,
+						vals
+						)
+					);
 			}
 
-			return nodeMapping.get(o);
+			if (noFields) {
+				return null;
+			} else {
+				sb.append(".");
+				return sb.toString();
+			}
+		}
+
+		/**
+		 * Gets the String representing a value that was persisted for the
+		 * given field, or null if it is a resource that cannot be found
+		 * in the graph. Unlike valToSparql(), this never adds a resource
+		 * to the queue.
+		 */
+		private String persistedNode(PropertyMapping m, Object o) 
+		throws JRDFAnnotationException {
+			if (m.converter != null)
+				return literalToSparql(toLiteral(m, o));
+			if (nodeMapping.containsKey(o))
+				return nodeMapping.get(o);
+			return lookupURI(o);
 		}
 
 		/**
 		 * Method to get the SPARQL INSERT pattern to presist a given
-		 * object's various properties.
+		 * object's various properties. Of the fields holding the given
+		 * TrackedSets, only the values added since they were persisted
+		 * are included, and the given unloaded fields are left out.
 		 */
-		private String getInsertionPattern(String uri, Object o) 
+		private String getInsertionPattern(
+			String uri, 
+			Object o, 
+			Map<PropertyMapping, TrackedSet> tracked,
+			Set<PropertyMapping> unloaded) 
 		throws JRDFAnnotationException {
 			Class clazz = o.getClass();		
 			StringBuilder sb = new StringBuilder(uri);			
 			boolean noFields = true;
 
-			for (Field f : clazz.getDeclaredFields()) {
-				if (! f.isAnnotationPresent(PropertyField.class))
+			for (PropertyMapping m : getPropertyMappings(clazz)) {
+				if (m.isVersion)
+					continue; // written by the VersionCheck
+				if (unloaded.contains(m))
 					continue;
-				PropertyField pf = f.getAnnotation(PropertyField.class);
 
-				String predicate = getPredicate(o, f, pf);
+				TrackedSet t = tracked.get(m);
+				if (t != null && t.isEmpty() && !m.policy().nullable)
+					throw IllegalValueException.nullField(
+							clazz, 
+							m.field,
+							m.annotation
+						);
+
+				String predicate = t != null ? 
+					valsToSparql(m, t.added()) : 
+					getPredicate(o, m);
 				if (predicate == null) {
-					if (!pf.policy().nullable )
+					if (t == null && !m.policy().nullable )
 						throw IllegalValueException.nullField(
 								clazz, 
-								f,
-								pf
+								m.field,
+								m.annotation
 							);
 					continue;
 				}
@@ -953,14 +4769,24 @@ public class PersistenceManager {
 
 				sb.append(
 					String.format(
-						pf.abbreviated() ? " %s%s %s" : " <%s%s> %s",
-						pf.propertyPrefix(),
-						pf.rdfProperty(),
+						" %s %s",
+						m.predicate,
 						predicate
 						)
 					);
 			}
 
+			// the types are asserted whenever the object is recorded,
+			// which leaves those already in the graph as they are.
+			List<String> classTypes = getTypes(clazz);
+			if (! classTypes.isEmpty()) {
+				if (noFields)
+					noFields = false;
+				else
+					sb.append(" ;\n\t\t");
+				sb.append(" a ").append(String.join(", ", classTypes));
+			}
+
 			if (noFields) { // no @PropertyFields to persist
 				return null;
 			} else {
@@ -972,30 +4798,41 @@ public class PersistenceManager {
 		/**
 		 * Creates the SQARQL query matching a field f on object o.
 		 */
-		private String getPredicate(Object o, Field f, PropertyField pf) 
+		private String getPredicate(Object o, PropertyMapping m) 
 			throws JRDFAnnotationException {
 			Class clazz = o.getClass();
-			f.setAccessible(true);
-			if (pf.policy().isCollection) {
+			Field f = m.field;
+			if (m.primitive != null) {
+				// primitives and arrays of primitives are written without
+				// boxing their values.
 				StringBuilder sb = new StringBuilder();
+				try {
+					if (m.isPrimitiveArray()) {
+						Object array = f.get(o);
+						if (array == null) return null;
+						if (m.primitive.length(array) == 0) return null;
+						if (m.primitive.hasDuplicates(array))
+							throw IllegalValueException.duplicateValues(clazz, f);
+						m.primitive.appendArray(array, sb);
+					} else
+						m.primitive.appendScalar(o, f, sb);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(
+						String.format(
+							"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
+							f.getName(),
+							clazz.getCanonicalName()
+						)
+					);
+				}
+				return sb.toString();
+			} else if (m.policy().isCollection) {
 				Collection<Object> coll;
 
 				try {
 					coll = (Collection<Object>) f.get(o);
 					if (coll == null) return null;
-					if (coll.size() == 0) return null;
-
-					Iterator<Object> iter = coll.iterator();
-					while (iter.hasNext()) {
-						Object val = iter.next();
-						if (val == null) continue;
-
-						sb.append(valToSparql(val));
-						if (iter.hasNext()) 
-							sb.append(" , "); // more objects to go
-					}
-
-					return sb.toString();
+					return valsToSparql(m, coll);
 				} catch (ClassCastException e) {
 					throw JRDFAnnotationException.badlyAnnotatedProperty(
 						clazz,
@@ -1029,7 +4866,7 @@ public class PersistenceManager {
 							clazz,
 							f,
 							"Cardinality did not indicate collection, but value was a collection.");
-					return valToSparql(val);
+					return valToSparql(m, val);
 				} catch (IllegalArgumentException e) {
 					throw new RuntimeException(
 						String.format(
@@ -1051,43 +4888,98 @@ public class PersistenceManager {
 		}
 
 		/**
-		 * Gets the String that will be used for the predicate representing a link
-		 * to the given Object. If the object won't be Literal and isn't in the queue, 
-		 * it will be added to it.
+		 * Gets the comma-separated list of the Strings representing the
+		 * given (non-null) values of a collection field, or null if there
+		 * are none.
 		 */
-		private String valToSparql(Object o) throws JRDFAnnotationException {
-			if (o instanceof java.lang.Enum)
-				o = o.toString();
-
-			Literal lit = null;
-
-			if (o instanceof java.lang.String)
-				lit = ResourceFactory.createPlainLiteral((String) o);
-			else {
-				for (Class literalType : literalTypes){
-					if (o.getClass() == literalType) {
-						lit = ResourceFactory.createTypedLiteral(o);
-						break;
-					}
-				}
+		private String valsToSparql(PropertyMapping m, Collection<Object> vals) 
+		throws JRDFAnnotationException {
+			StringBuilder sb = new StringBuilder();
+			for (Object val : vals) {
+				if (val == null) continue;
+
+				if (sb.length() > 0)
+					sb.append(" , "); // not the first object
+				sb.append(valToSparql(m, val));
 			}
 
-			if (lit != null) {
-					String escaped = StringEscapeUtils
-						.escapeJava(lit.getLexicalForm());
-					if (!plainLiteralPattern.matcher(escaped).matches())
-						throw IllegalValueException.literalMismatch(escaped);
-			
-					if (lit.getDatatype() != null)
-						return String.format("\"%s\"^^<%s>",
-							escaped, lit.getDatatypeURI());
-					return String.format("\"%s\"",
-							escaped);
+			if (sb.length() == 0) return null;
+			return sb.toString();
+		}
+
+		/**
+		 * Gets the String that will be used for the predicate representing a link
+		 * to the given Object. Every object that is not written as a Literal has 
+		 * been discovered, and given its node, before the objects are converted.
+		 */
+		private String valToSparql(PropertyMapping m, Object o) throws JRDFAnnotationException {
+			if (m.converter != null) {
+				return literalToSparql(toLiteral(m, o));
 			} else {
-				enqueue(o);
-				return uriOf(o);
+				String uri = nodeMapping.get(o);
+				if (uri == null)
+					throw new IllegalStateException(
+						String.format(
+							"The %s referred to by the field %s was not discovered before it was written.",
+							o.getClass().getCanonicalName(),
+							m.name()
+						)
+					);
+				return uri;
+			}
+		}
+
+		/**
+		 * Reads the value of a field of an object being recorded.
+		 */
+		private Object readField(Object o, PropertyMapping m) {
+			try {
+				return m.field.get(o);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(
+					String.format(
+						"Encountered an IllegalAccessException when trying to access the field %s on the class %s.",
+						m.name(),
+						o.getClass().getCanonicalName()
+					)
+				);
 			}
+		}
+	}
 
+	/**
+	 * An object to be written by a RecordingBatch, with its node and 
+	 * the TrackedSets in its fields.
+	 */
+	private static class Pending {
+		final Object o;
+		final String uri;
+		final Map<PropertyMapping, TrackedSet> tracked;
+		final Map<TrackedSet, String> written;
+		final Set<PropertyMapping> unloaded;
+
+		Pending(
+			Object o, 
+			String uri, 
+			Map<PropertyMapping, TrackedSet> tracked,
+			Map<TrackedSet, String> written,
+			Set<PropertyMapping> unloaded) {
+			this.o = o;
+			this.uri = uri;
+			this.tracked = tracked;
+			this.written = written;
+			this.unloaded = unloaded;
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * The parsed operations that write some of the objects of a 
+	 * RecordingBatch, grouped by the shard they are written to, and what
+	 * is to be done once they are executed.
+	 */
+	private static class Chunk {
+		final Map<StorageBackend, UpdateRequest> requests = new LinkedHashMap<StorageBackend, UpdateRequest>();
+		final List<Pending> written = new ArrayList<Pending>();
+		final Map<Pending, VersionCheck> checks = new HashMap<Pending, VersionCheck>();
+	}
+}
@@ -11,8 +11,11 @@ package com.stinja.jrdf;
  * retrieved cannot be populated, the retrieval will fail.
  *
  * If isCollection is true, then the type of the field must be 
- * a java.util.Collection. If isCollection is false, the type must
- * not be a Collection.
+ * a java.util.Collection, or an array of int, long or double. If
+ * isCollection is false, the type must not be a Collection. The
+ * values of an array are persisted as a set, like those of any
+ * Collection: they cannot hold duplicates, and come back in
+ * ascending order.
  *
  * The IDENTIFIER policy is semantically identical to the 
  * EXACTLY_ONE policy, but indicates that the property should
@@ -0,0 +1,246 @@
+package com.stinja.jrdf;
+
+import java.lang.reflect.Field;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+
+/**
+ * The primitive types whose fields, and arrays, are persisted and
+ * retrieved without boxing their values. A field of one of these
+ * types is read and written with the primitive accessors of Field,
+ * and its values are written directly as typed literals and parsed
+ * directly from their lexical forms.
+ *
+ * An array of one of these types may be used in place of a Collection
+ * for a @PropertyField with the MANY or SOME policy. Its values are
+ * persisted as a set of literals, like those of a Collection, so an
+ * array holding the same value twice cannot be recorded, and arrays
+ * are retrieved with their values in ascending order rather than in
+ * the order they were recorded in.
+ */
+
+enum PrimitiveKind {
+	INT (int.class, int[].class, XSDDatatype.XSDint.getURI()) {
+		void appendScalar(Object o, Field f, StringBuilder sb)
+		throws IllegalAccessException {
+			sb.append('"').append(f.getInt(o)).append(datatypeSuffix);
+		}
+
+		void appendArray(Object array, StringBuilder sb) {
+			int[] values = (int[]) array;
+			for (int x = 0; x < values.length; x++) {
+				if (x > 0) sb.append(" , ");
+				sb.append('"').append(values[x]).append(datatypeSuffix);
+			}
+		}
+
+		void setScalar(Object o, Field f, String lexical)
+		throws IllegalAccessException {
+			f.setInt(o, parseInt(lexical));
+		}
+
+		Object toArray(List<String> lexicals) {
+			int[] values = new int[lexicals.size()];
+			for (int x = 0; x < values.length; x++)
+				values[x] = parseInt(lexicals.get(x));
+			Arrays.sort(values);
+			return values;
+		}
+
+		int length(Object array) {
+			return ((int[]) array).length;
+		}
+
+		boolean hasDuplicates(Object array) {
+			int[] sorted = ((int[]) array).clone();
+			Arrays.sort(sorted);
+			for (int x = 1; x < sorted.length; x++)
+				if (sorted[x] == sorted[x - 1])
+					return true;
+			return false;
+		}
+	},
+
+	LONG (long.class, long[].class, XSDDatatype.XSDlong.getURI()) {
+		void appendScalar(Object o, Field f, StringBuilder sb)
+		throws IllegalAccessException {
+			sb.append('"').append(f.getLong(o)).append(datatypeSuffix);
+		}
+
+		void appendArray(Object array, StringBuilder sb) {
+			long[] values = (long[]) array;
+			for (int x = 0; x < values.length; x++) {
+				if (x > 0) sb.append(" , ");
+				sb.append('"').append(values[x]).append(datatypeSuffix);
+			}
+		}
+
+		void setScalar(Object o, Field f, String lexical)
+		throws IllegalAccessException {
+			f.setLong(o, parseLong(lexical));
+		}
+
+		Object toArray(List<String> lexicals) {
+			long[] values = new long[lexicals.size()];
+			for (int x = 0; x < values.length; x++)
+				values[x] = parseLong(lexicals.get(x));
+			Arrays.sort(values);
+			return values;
+		}
+
+		int length(Object array) {
+			return ((long[]) array).length;
+		}
+
+		boolean hasDuplicates(Object array) {
+			long[] sorted = ((long[]) array).clone();
+			Arrays.sort(sorted);
+			for (int x = 1; x < sorted.length; x++)
+				if (sorted[x] == sorted[x - 1])
+					return true;
+			return false;
+		}
+	},
+
+	DOUBLE (double.class, double[].class, XSDDatatype.XSDdouble.getURI()) {
+		void appendScalar(Object o, Field f, StringBuilder sb)
+		throws IllegalAccessException {
+			appendDouble(sb, f.getDouble(o));
+		}
+
+		void appendArray(Object array, StringBuilder sb) {
+			double[] values = (double[]) array;
+			for (int x = 0; x < values.length; x++) {
+				if (x > 0) sb.append(" , ");
+				appendDouble(sb, values[x]);
+			}
+		}
+
+		void setScalar(Object o, Field f, String lexical)
+		throws IllegalAccessException {
+			f.setDouble(o, parseDouble(lexical));
+		}
+
+		Object toArray(List<String> lexicals) {
+			double[] values = new double[lexicals.size()];
+			for (int x = 0; x < values.length; x++)
+				values[x] = parseDouble(lexicals.get(x));
+			Arrays.sort(values);
+			return values;
+		}
+
+		int length(Object array) {
+			return ((double[]) array).length;
+		}
+
+		boolean hasDuplicates(Object array) {
+			double[] sorted = ((double[]) array).clone();
+			Arrays.sort(sorted);
+			for (int x = 1; x < sorted.length; x++)
+				if (Double.compare(sorted[x], sorted[x - 1]) == 0)
+					return true;
+			return false;
+		}
+	};
+
+	final Class scalarType;
+	final Class arrayType;
+	final String datatypeSuffix;
+
+	PrimitiveKind(Class scalarType, Class arrayType, String datatypeURI) {
+		this.scalarType = scalarType;
+		this.arrayType = arrayType;
+		this.datatypeSuffix = "\"^^<" + datatypeURI + ">";
+	}
+
+	/**
+	 * Returns the kind of the given field type, if it is one of the
+	 * supported primitive types or an array of one, or null.
+	 */
+	static PrimitiveKind of(Class fieldType) {
+		for (PrimitiveKind kind : values())
+			if (kind.scalarType == fieldType || kind.arrayType == fieldType)
+				return kind;
+		return null;
+	}
+
+	/**
+	 * Appends the value of the field on the given object to the
+	 * StringBuilder, as a literal in a SPARQL query.
+	 */
+	abstract void appendScalar(Object o, Field f, StringBuilder sb)
+	throws IllegalAccessException;
+
+	/**
+	 * Appends the values in the given array to the StringBuilder, as
+	 * a comma-separated list of literals in a SPARQL query.
+	 */
+	abstract void appendArray(Object array, StringBuilder sb);
+
+	/**
+	 * Sets the field on the given object to the value with the given
+	 * lexical form. Throws a NumberFormatException, whose message is
+	 * the lexical form, if the lexical form is not valid.
+	 */
+	abstract void setScalar(Object o, Field f, String lexical)
+	throws IllegalAccessException;
+
+	/**
+	 * Creates an array of the values with the given lexical forms, in
+	 * ascending order. Throws a NumberFormatException, whose message is
+	 * the lexical form, if a lexical form is not valid.
+	 */
+	abstract Object toArray(List<String> lexicals);
+
+	/**
+	 * Returns the length of an array of this kind.
+	 */
+	abstract int length(Object array);
+
+	/**
+	 * Whether an array of this kind holds the same value more than once,
+	 * which would be written as a single literal.
+	 */
+	abstract boolean hasDuplicates(Object array);
+
+	private static void appendDouble(StringBuilder sb, double d) {
+		sb.append('"');
+		if (Double.isInfinite(d))
+			sb.append(d > 0 ? "INF" : "-INF");
+		else
+			sb.append(d);
+		sb.append(DOUBLE.datatypeSuffix);
+	}
+
+	private static int parseInt(String lexical) {
+		try {
+			return Integer.parseInt(lexical.trim());
+		} catch (NumberFormatException e) {
+			throw new NumberFormatException(lexical);
+		}
+	}
+
+	private static long parseLong(String lexical) {
+		try {
+			return Long.parseLong(lexical.trim());
+		} catch (NumberFormatException e) {
+			throw new NumberFormatException(lexical);
+		}
+	}
+
+	private static double parseDouble(String lexical) {
+		String trimmed = lexical.trim();
+		if (trimmed.equals("INF") || trimmed.equals("+INF"))
+			return Double.POSITIVE_INFINITY;
+		if (trimmed.equals("-INF"))
+			return Double.NEGATIVE_INFINITY;
+		try {
+			return Double.parseDouble(trimmed);
+		} catch (NumberFormatException e) {
+			throw new NumberFormatException(lexical);
+		}
+	}
+}
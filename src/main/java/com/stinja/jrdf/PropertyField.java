@@ -62,4 +62,12 @@ public @interface PropertyField {
 	 * that a Collection field must have the MANY or SOME policy.
 	 */
 	Policy policy() default Policy.ONE;
+
+	/**
+	 * Whether the objects this field refers to are owned by the object
+	 * that holds it, so that removing the resource of that object with
+	 * PersistenceManager.removeResource(uri, clazz) removes theirs as
+	 * well. Ignored if the values of the field are literals.
+	 */
+	boolean owned() default false;
 }
\ No newline at end of file
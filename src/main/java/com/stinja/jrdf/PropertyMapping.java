@@ -0,0 +1,76 @@
+package com.stinja.jrdf;
+
+import java.lang.reflect.Field;
+
+/**
+ * The information about a @PropertyField that is needed to persist
+ * and retrieve it, computed once when its class is managed.
+ */
+
+class PropertyMapping {
+	/** The field itself, which has been made accessible. */
+	final Field field;
+	/** The annotation on the field. */
+	final PropertyField annotation;
+	/** The RDF property, as it appears in a SPARQL query. */
+	final String predicate;
+	/** The converter of the values, or null if they are resources. */
+	final ValueConverter converter;
+	/** The primitive kind of the field or of its array, or null. */
+	final PrimitiveKind primitive;
+	/** The number of values in each page of a @Paged field, or 0. */
+	final int pageSize;
+	/** Whether the field is the @Version of its class. */
+	final boolean isVersion;
+	/** Whether the field is @Indexed. */
+	final boolean isIndexed;
+	/** Whether the field is @Searchable. */
+	final boolean isSearchable;
+
+	PropertyMapping(Field field, ValueConverter converter) {
+		this.field = field;
+		this.annotation = field.getAnnotation(PropertyField.class);
+		this.predicate = String.format(
+			annotation.abbreviated() ? "%s%s" : "<%s%s>",
+			annotation.propertyPrefix(),
+			annotation.rdfProperty()
+		);
+		this.converter = converter;
+		this.primitive = PrimitiveKind.of(field.getType());
+		this.pageSize = field.isAnnotationPresent(Paged.class) ?
+			Math.max(1, field.getAnnotation(Paged.class).pageSize()) :
+			0;
+		this.isVersion = field.isAnnotationPresent(Version.class);
+		this.isIndexed = field.isAnnotationPresent(Indexed.class);
+		this.isSearchable = field.isAnnotationPresent(Searchable.class);
+		field.setAccessible(true);
+	}
+
+	Policy policy() {
+		return annotation.policy();
+	}
+
+	Class valueClazz() {
+		return annotation.valueClazz();
+	}
+
+	/**
+	 * Whether the field is an array of primitives rather than a
+	 * Collection.
+	 */
+	boolean isPrimitiveArray() {
+		return primitive != null && field.getType() == primitive.arrayType;
+	}
+
+	/**
+	 * Whether the field is given a paged view of its values rather
+	 * than the values themselves.
+	 */
+	boolean isPaged() {
+		return pageSize > 0;
+	}
+
+	String name() {
+		return field.getName();
+	}
+}
@@ -0,0 +1,40 @@
+package com.stinja.jrdf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation may be born by a managed class to have its instances
+ * recorded with an rdf:type statement of the given class, along with
+ * one for the rdf:type of every superclass that bears this annotation.
+ * The @PropertyFields of the superclasses are persisted with those of
+ * the class itself.
+ *
+ * The instances of such a class are then found by their type, rather
+ * than by joining the predicates of its fields, which other classes may
+ * share: exists(), count() and find() match the nodes of the given type,
+ * and so match the instances of its subclasses too. Retrieving an
+ * instance of the class as such, or finding it, creates an object of
+ * the most specific managed subclass whose type the node has, so the
+ * subclasses should be managed before they are retrieved this way. The
+ * objects that its fields refer to are still created as the valueClazz
+ * of each field.
+ *
+ * Note that only the instances recorded with their types are found, so
+ * the types of instances recorded before this annotation was added must
+ * be added to the graph first.
+ *
+ * @see PersistenceManager#addTypes(Class)
+ * @see PersistenceManager#addTypes(Collection, Class)
+ */
+
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RDFType {
+	/**
+	 * The URI of the rdf:type, without enclosing angle braces.
+	 */
+	String uri();
+}
@@ -0,0 +1,25 @@
+package com.stinja.jrdf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation may be born by a @PropertyField whose valueClazz is
+ * String, to have its values indexed by a Lucene text index, so that
+ * the instances of its class can be found by the words in those values
+ * rather than by scanning them with a regex FILTER.
+ *
+ * The text index is kept by the Dataset, which must be created with one
+ * for the predicates of the @Searchable fields of the classes to be 
+ * searched, and which indexes the values written to it from then on.
+ *
+ * @see DatasetBackend#withTextIndex(org.apache.jena.query.Dataset, java.nio.file.Path, Class...)
+ * @see PersistenceManager#search(Class, String, int)
+ */
+
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Searchable {
+}
@@ -0,0 +1,85 @@
+package com.stinja.jrdf;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.jena.graph.Node;
+
+import org.apache.jena.query.QuerySolution;
+
+import org.apache.jena.rdf.model.Model;
+
+import org.apache.jena.update.UpdateRequest;
+
+/**
+ * The store in which a PersistenceManager persists its objects. Every
+ * query, update and graph operation of the PersistenceManager goes
+ * through this interface, so that each kind of store can use its own
+ * fastest path, and so that the mapping can be tested against other
+ * stores.
+ *
+ * The operations are transactional on their own; a group of them can
+ * be made a single transaction by running them within executeRead(),
+ * calculateRead() or executeWrite(). Implementations must allow these
+ * to be nested, and operations to be run within them.
+ *
+ * @see DatasetBackend
+ * @see ConnectionBackend
+ */
+
+public interface StorageBackend {
+	/**
+	 * Runs the given SELECT query and passes each of its solutions to
+	 * the given action, in a read transaction.
+	 */
+	void select(String query, Consumer<QuerySolution> action);
+
+	/**
+	 * Runs the given ASK query, in a read transaction.
+	 */
+	boolean ask(String query);
+
+	/**
+	 * Runs the given CONSTRUCT query, in a read transaction, and
+	 * returns the statements it constructs.
+	 */
+	Model construct(String query);
+
+	/**
+	 * Parses the given operations as a single UpdateRequest and 
+	 * executes it, in a write transaction.
+	 */
+	void update(String operations);
+
+	/**
+	 * Executes the given UpdateRequest, which has already been parsed,
+	 * in a write transaction.
+	 */
+	void update(UpdateRequest request);
+
+	/**
+	 * Removes every quad of the store that matches the given pattern,
+	 * in which Node.ANY matches any node, in a write transaction. The
+	 * graph is the URI of a named graph, Quad.defaultGraphIRI for the
+	 * default graph, or Node.ANY for the default graph and every named
+	 * graph.
+	 */
+	void remove(Node graph, Node subject, Node predicate, Node object);
+
+	/**
+	 * Runs the given action in a read transaction.
+	 */
+	void executeRead(Runnable action);
+
+	/**
+	 * Runs the given action in a read transaction, and returns its
+	 * result.
+	 */
+	<T> T calculateRead(Supplier<T> action);
+
+	/**
+	 * Runs the given action in a write transaction, which is aborted
+	 * if the action throws an exception.
+	 */
+	void executeWrite(Runnable action);
+}
@@ -0,0 +1,164 @@
+package com.stinja.jrdf;
+
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * The Set installed in the collection fields of retrieved objects,
+ * which remembers the values added to it and removed from it since
+ * it was last read from or written to the graph. When the object is
+ * recorded again under the same URI, only the statements for those
+ * values are written, rather than the whole collection.
+ *
+ * The values in the graph are assumed to be those that were last read
+ * or written through the PersistenceManager that installed the set.
+ * Removing the data of its resource, or one of the resources among its
+ * values, through that PersistenceManager invalidates this assumption,
+ * and the next recording of the set rewrites it in full. Removals of
+ * other resources leave it tracking.
+ *
+ * Subclasses that do not hold their values in memory must override
+ * every method that reads or changes the values, and keep the added
+ * and removed values up to date.
+ */
+
+class TrackedSet<E> extends AbstractSet<E> {
+	private final Set<E> values;
+	private final Set<E> added;
+	private final Set<E> removed;
+
+	private PersistenceManager manager;
+	private String uri;
+	private long generation;
+
+	/**
+	 * Creates a set of the given values, which are those persisted
+	 * for the resource with the given URI as of the given removal
+	 * generation of the PersistenceManager.
+	 */
+	TrackedSet(
+		Set<E> values,
+		PersistenceManager manager,
+		String uri,
+		long generation) {
+		this.values = values;
+		this.added = new HashSet<E>();
+		this.removed = new HashSet<E>();
+		this.manager = manager;
+		this.uri = uri;
+		this.generation = generation;
+	}
+
+	/**
+	 * Whether the values persisted for the given resource are known
+	 * to be the values of this set, less those added and plus those
+	 * removed since, unless one of the resources among its values has
+	 * been removed since.
+	 */
+	boolean isTracking(PersistenceManager manager, String uri) {
+		return this.manager == manager
+			&& this.uri.equals(uri)
+			&& ! manager.removedSince(uri, generation);
+	}
+
+	/**
+	 * Marks the current values of the set as those persisted for the
+	 * resource with the given URI.
+	 */
+	void persisted(PersistenceManager manager, String uri, long generation) {
+		this.manager = manager;
+		this.uri = uri;
+		this.generation = generation;
+		added.clear();
+		removed.clear();
+	}
+
+	/**
+	 * The removal generation of the PersistenceManager as of which
+	 * the values of this set were last read or written.
+	 */
+	long generation() {
+		return generation;
+	}
+
+	/**
+	 * The URI of the resource whose values this set holds.
+	 */
+	String uri() {
+		return uri;
+	}
+
+	/**
+	 * The values added to the set since it was last persisted.
+	 */
+	Set<E> added() {
+		return added;
+	}
+
+	/**
+	 * The values removed from the set since it was last persisted.
+	 */
+	Set<E> removed() {
+		return removed;
+	}
+
+	/**
+	 * Replaces a value of the set by another that stands for the same
+	 * resource, without counting it as a change to the set.
+	 */
+	void replace(E value, E replacement) {
+		if (! values.remove(value))
+			return;
+		values.add(replacement);
+		if (added.remove(value))
+			added.add(replacement);
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	public boolean contains(Object o) {
+		return values.contains(o);
+	}
+
+	public boolean add(E e) {
+		if (! values.add(e))
+			return false;
+		if (! removed.remove(e))
+			added.add(e);
+		return true;
+	}
+
+	public boolean remove(Object o) {
+		if (! values.remove(o))
+			return false;
+		if (! added.remove(o))
+			removed.add((E) o);
+		return true;
+	}
+
+	public Iterator<E> iterator() {
+		final Iterator<E> it = values.iterator();
+		return new Iterator<E>() {
+			private E last;
+
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			public E next() {
+				last = it.next();
+				return last;
+			}
+
+			public void remove() {
+				it.remove();
+				if (! added.remove(last))
+					removed.add(last);
+			}
+		};
+	}
+}
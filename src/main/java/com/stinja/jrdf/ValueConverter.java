@@ -0,0 +1,270 @@
+package com.stinja.jrdf;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import java.util.function.Function;
+
+import org.apache.jena.datatypes.RDFDatatype;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.ResourceFactory;
+
+/**
+ * An object that converts the values of a @PropertyField to and from
+ * the Jena Literals that persist them. Every @PropertyField whose
+ * valueClazz has a converter is persisted as a Literal; the values of
+ * any other @PropertyField are persisted as resources.
+ *
+ * Converters are bound to the fields of a class when the class is
+ * managed, so that no type dispatch is needed when a value is
+ * persisted or retrieved. Converters for further types can be added
+ * with PersistenceManager.registerConverter().
+ *
+ * @see PersistenceManager#registerConverter
+ */
+
+public interface ValueConverter {
+	/**
+	 * Converts a (non-null) value of a field into a Literal.
+	 */
+	Literal toLiteral(Object value);
+
+	/**
+	 * Converts a Literal retrieved from the graph into a value of
+	 * the field. Throws an IllegalArgumentException if the Literal
+	 * cannot be converted.
+	 */
+	Object fromLiteral(Literal lit);
+
+	/**
+	 * Returns the converters used by default, keyed by the class of
+	 * the values they convert. Enumerated types are handled by an
+	 * EnumConverter created for each type.
+	 */
+	static Map<Class, ValueConverter> defaults() {
+		Map<Class, ValueConverter> converters = new HashMap<Class, ValueConverter>();
+		converters.put(String.class, new StringConverter());
+		converters.put(Integer.class, new TypedConverter(XSDDatatype.XSDint, Integer::valueOf));
+		converters.put(Long.class, new TypedConverter(XSDDatatype.XSDlong, Long::valueOf));
+		converters.put(Short.class, new TypedConverter(XSDDatatype.XSDshort, Short::valueOf));
+		converters.put(Byte.class, new TypedConverter(XSDDatatype.XSDbyte, Byte::valueOf));
+		converters.put(Double.class, new DoubleConverter());
+		converters.put(Float.class, new FloatConverter());
+		converters.put(Boolean.class, new TypedConverter(XSDDatatype.XSDboolean, 
+			s -> s.equals("true") || s.equals("1")));
+		converters.put(BigInteger.class, new TypedConverter(XSDDatatype.XSDinteger, BigInteger::new));
+		converters.put(BigDecimal.class, new TypedConverter(XSDDatatype.XSDdecimal, BigDecimal::new));
+		converters.put(Instant.class, new InstantConverter());
+		converters.put(LocalDate.class, new LocalDateConverter());
+		converters.put(UUID.class, new UUIDConverter());
+		converters.put(byte[].class, new BinaryConverter());
+		return converters;
+	}
+
+	/**
+	 * Persists a String as a plain Literal.
+	 */
+	public static class StringConverter implements ValueConverter {
+		public Literal toLiteral(Object value) {
+			return ResourceFactory.createPlainLiteral((String) value);
+		}
+
+		public Object fromLiteral(Literal lit) {
+			return lit.getLexicalForm();
+		}
+	}
+
+	/**
+	 * Persists a value as a typed Literal whose lexical form is given
+	 * by the toString() method of the value, and which is parsed by
+	 * the given function.
+	 */
+	public static class TypedConverter implements ValueConverter {
+		private final RDFDatatype datatype;
+		private final Function<String, Object> parser;
+
+		public TypedConverter(
+			RDFDatatype datatype,
+			Function<String, Object> parser) {
+			this.datatype = datatype;
+			this.parser = parser;
+		}
+
+		public Literal toLiteral(Object value) {
+			return ResourceFactory.createTypedLiteral(value.toString(), datatype);
+		}
+
+		public Object fromLiteral(Literal lit) {
+			try {
+				return parser.apply(lit.getLexicalForm().trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(
+					String.format("'%s' is not a valid %s.",
+						lit.getLexicalForm(),
+						datatype.getURI()));
+			}
+		}
+	}
+
+	/**
+	 * Persists a Double as an xsd:double, writing the infinities as
+	 * XML Schema does.
+	 */
+	public static class DoubleConverter implements ValueConverter {
+		public Literal toLiteral(Object value) {
+			double d = (Double) value;
+			return ResourceFactory.createTypedLiteral(
+				Double.isInfinite(d) ? (d > 0 ? "INF" : "-INF") : Double.toString(d),
+				XSDDatatype.XSDdouble);
+		}
+
+		public Object fromLiteral(Literal lit) {
+			return parseDouble(lit.getLexicalForm());
+		}
+	}
+
+	/**
+	 * Persists a Float as an xsd:float, writing the infinities as
+	 * XML Schema does.
+	 */
+	public static class FloatConverter implements ValueConverter {
+		public Literal toLiteral(Object value) {
+			float f = (Float) value;
+			return ResourceFactory.createTypedLiteral(
+				Float.isInfinite(f) ? (f > 0 ? "INF" : "-INF") : Float.toString(f),
+				XSDDatatype.XSDfloat);
+		}
+
+		public Object fromLiteral(Literal lit) {
+			return (float) parseDouble(lit.getLexicalForm());
+		}
+	}
+
+	/**
+	 * Parses the lexical form of an xsd:double or an xsd:float.
+	 */
+	private static double parseDouble(String lexical) {
+		String trimmed = lexical.trim();
+		if (trimmed.equals("INF") || trimmed.equals("+INF"))
+			return Double.POSITIVE_INFINITY;
+		if (trimmed.equals("-INF"))
+			return Double.NEGATIVE_INFINITY;
+		try {
+			return Double.parseDouble(trimmed);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(
+				String.format("'%s' is not a valid floating-point number.", lexical));
+		}
+	}
+
+	/**
+	 * Persists a constant of an enumerated type as a plain Literal of
+	 * its name. The constants are looked up in a table built when the
+	 * converter is created.
+	 */
+	public static class EnumConverter implements ValueConverter {
+		private final Class enumClazz;
+		private final Map<String, Object> constants;
+
+		public EnumConverter(Class enumClazz) {
+			this.enumClazz = enumClazz;
+			this.constants = new HashMap<String, Object>();
+			for (Object constant : enumClazz.getEnumConstants())
+				constants.put(((Enum) constant).name(), constant);
+		}
+
+		public Literal toLiteral(Object value) {
+			return ResourceFactory.createPlainLiteral(((Enum) value).name());
+		}
+
+		public Object fromLiteral(Literal lit) {
+			Object constant = constants.get(lit.getLexicalForm());
+			if (constant == null)
+				throw new IllegalArgumentException(
+					String.format("%s has no constant named '%s'.",
+						enumClazz.getCanonicalName(),
+						lit.getLexicalForm()));
+			return constant;
+		}
+	}
+
+	/**
+	 * Persists an Instant as an xsd:dateTime in UTC.
+	 */
+	public static class InstantConverter implements ValueConverter {
+		public Literal toLiteral(Object value) {
+			return ResourceFactory.createTypedLiteral(
+				value.toString(),
+				XSDDatatype.XSDdateTime);
+		}
+
+		public Object fromLiteral(Literal lit) {
+			try {
+				return DateTimeFormatter.ISO_OFFSET_DATE_TIME.parse(
+					lit.getLexicalForm(),
+					Instant::from);
+			} catch (DateTimeParseException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Persists a LocalDate as an xsd:date.
+	 */
+	public static class LocalDateConverter implements ValueConverter {
+		public Literal toLiteral(Object value) {
+			return ResourceFactory.createTypedLiteral(
+				value.toString(),
+				XSDDatatype.XSDdate);
+		}
+
+		public Object fromLiteral(Literal lit) {
+			try {
+				return LocalDate.parse(lit.getLexicalForm());
+			} catch (DateTimeParseException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Persists a UUID as a plain Literal in its canonical form.
+	 */
+	public static class UUIDConverter implements ValueConverter {
+		public Literal toLiteral(Object value) {
+			return ResourceFactory.createPlainLiteral(value.toString());
+		}
+
+		public Object fromLiteral(Literal lit) {
+			return UUID.fromString(lit.getLexicalForm());
+		}
+	}
+
+	/**
+	 * Persists a byte array as an xsd:base64Binary.
+	 */
+	public static class BinaryConverter implements ValueConverter {
+		public Literal toLiteral(Object value) {
+			return ResourceFactory.createTypedLiteral(
+				Base64.getEncoder().encodeToString((byte[]) value),
+				XSDDatatype.XSDbase64Binary);
+		}
+
+		public Object fromLiteral(Literal lit) {
+			return Base64.getDecoder().decode(lit.getLexicalForm());
+		}
+	}
+}
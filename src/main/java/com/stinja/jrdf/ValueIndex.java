@@ -0,0 +1,126 @@
+package com.stinja.jrdf;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An in-memory index from the values of an @Indexed field to the URIs
+ * of the nodes that hold them. The values are kept in a TreeMap if 
+ * their natural order is the order in which SPARQL compares their
+ * literals, so that ranges of values can be looked up as well, and in
+ * a HashMap otherwise.
+ *
+ * Every node also remembers the values it holds, so that they can be
+ * replaced when it is recorded again, or removed along with it.
+ */
+
+class ValueIndex {
+	private final Map<Object, Set<String>> urisByValue;
+	private final Map<String, Set<Object>> valuesByURI;
+
+	ValueIndex(Class valueClazz) {
+		this.urisByValue = isOrdered(valueClazz) ?
+			new TreeMap<Object, Set<String>>() :
+			new HashMap<Object, Set<String>>();
+		this.valuesByURI = new HashMap<String, Set<Object>>();
+	}
+
+	/**
+	 * Whether the natural order of the given class is the order of the
+	 * literals its values are persisted as.
+	 */
+	static boolean isOrdered(Class valueClazz) {
+		return valueClazz == String.class
+			|| valueClazz == Integer.class
+			|| valueClazz == Long.class
+			|| valueClazz == Short.class
+			|| valueClazz == Byte.class
+			|| valueClazz == Double.class
+			|| valueClazz == Float.class
+			|| valueClazz == BigInteger.class
+			|| valueClazz == BigDecimal.class
+			|| valueClazz == Instant.class
+			|| valueClazz == LocalDate.class;
+	}
+
+	/**
+	 * Whether values can be looked up with the given Comparison.
+	 */
+	boolean supports(Criteria.Comparison comparison) {
+		return comparison == Criteria.Comparison.EQUAL 
+			|| urisByValue instanceof NavigableMap;
+	}
+
+	/**
+	 * Adds a value held by the node with the given URI.
+	 */
+	synchronized void add(String uri, Object value) {
+		valuesByURI.computeIfAbsent(uri, k -> new HashSet<Object>()).add(value);
+		urisByValue.computeIfAbsent(value, k -> new HashSet<String>()).add(uri);
+	}
+
+	/**
+	 * Replaces the values held by the node with the given URI.
+	 */
+	synchronized void put(String uri, Collection<Object> values) {
+		remove(uri);
+		for (Object value : values)
+			add(uri, value);
+	}
+
+	/**
+	 * Removes the node with the given URI and all of its values.
+	 */
+	synchronized void remove(String uri) {
+		Set<Object> values = valuesByURI.remove(uri);
+		if (values == null)
+			return;
+		for (Object value : values) {
+			Set<String> uris = urisByValue.get(value);
+			uris.remove(uri);
+			if (uris.isEmpty())
+				urisByValue.remove(value);
+		}
+	}
+
+	/**
+	 * Returns the URIs of the nodes holding a value that compares with 
+	 * the given value in the given way. 
+	 *
+	 * @see supports()
+	 */
+	synchronized Set<String> lookup(Criteria.Comparison comparison, Object value) {
+		Set<String> uris = new LinkedHashSet<String>();
+		if (comparison == Criteria.Comparison.EQUAL) {
+			uris.addAll(urisByValue.getOrDefault(value, Collections.<String>emptySet()));
+			return uris;
+		}
+
+		NavigableMap<Object, Set<String>> ordered = (NavigableMap<Object, Set<String>>) urisByValue;
+		Map<Object, Set<String>> range;
+		if (comparison == Criteria.Comparison.LESS_THAN)
+			range = ordered.headMap(value, false);
+		else if (comparison == Criteria.Comparison.AT_MOST)
+			range = ordered.headMap(value, true);
+		else if (comparison == Criteria.Comparison.GREATER_THAN)
+			range = ordered.tailMap(value, false);
+		else
+			range = ordered.tailMap(value, true);
+		for (Set<String> matching : range.values())
+			uris.addAll(matching);
+		return uris;
+	}
+}
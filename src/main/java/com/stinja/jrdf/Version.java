@@ -0,0 +1,33 @@
+package com.stinja.jrdf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation may be born by a @PropertyField of type long, whose
+ * valueClazz is Long, to make it the version of the object that holds
+ * it. A new object has version 0, and is persisted with version 1.
+ *
+ * When such an object is recorded, every operation that writes it is
+ * guarded by its version, in the same update, and the version in the
+ * graph is then incremented along with that of the object. If another
+ * writer has recorded the object since it was retrieved, the versions
+ * differ and nothing of the object is written. The other objects of
+ * the same recording are still written, and a VersionConflictException
+ * listing the objects that were not is thrown once they are.
+ *
+ * The update that increments the version also marks the node with a
+ * token of the recording, so whether an object was written is found by
+ * reading that mark back after the update, and the mark is then
+ * removed: in the same transaction on a local Dataset, and by separate
+ * requests on a remote endpoint.
+ *
+ * @see VersionConflictException
+ */
+
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Version {
+}
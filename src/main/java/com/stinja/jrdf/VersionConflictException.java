@@ -0,0 +1,70 @@
+package com.stinja.jrdf;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This is the type of Exception thrown to indicate that Objects with
+ * a @Version field could not be recorded, because the version in the
+ * graph is not the version of the Object: another writer has recorded
+ * it since it was retrieved. The other objects recorded along with 
+ * them have been written; only the stale Objects listed here have not.
+ * They should be retrieved again and the changes reapplied.
+ *
+ * @see Version
+ */
+
+public class VersionConflictException extends RuntimeException {
+	private final List<Object> staleObjects;
+
+	private VersionConflictException(String message, List<Object> staleObjects) {
+		super(message);
+		this.staleObjects = Collections.unmodifiableList(staleObjects);
+	}
+
+	/**
+	 * The Objects that were not recorded because their versions were
+	 * stale.
+	 */
+	public List<Object> getStaleObjects() {
+		return staleObjects;
+	}
+
+	public static VersionConflictException staleVersion(
+		Object o,
+		String uri,
+		long version
+		) {
+		return new VersionConflictException(
+			describe(o.getClass(), uri, version),
+			Collections.singletonList(o)
+		);
+	}
+
+	public static VersionConflictException staleVersions(
+		List<Object> objects,
+		List<String> uris,
+		List<Long> versions
+		) {
+		if (objects.size() == 1)
+			return staleVersion(objects.get(0), uris.get(0), versions.get(0));
+
+		StringBuilder sb = new StringBuilder(
+			String.format("%d objects were not recorded, because their versions are stale:", 
+				objects.size()));
+		for (int x = 0; x < objects.size(); x++)
+			sb.append("\n\t").append(describe(objects.get(x).getClass(), uris.get(x), versions.get(x)));
+		return new VersionConflictException(sb.toString(), objects);
+	}
+
+	private static String describe(Class clazz, String uri, long version) {
+		return String.format(
+			version == 0 ?
+				"The %s at %s is new, but has already been persisted by another writer." :
+				"The %s at %s is no longer at version %d in the graph.",
+			clazz.getCanonicalName(),
+			uri,
+			version
+		);
+	}
+}
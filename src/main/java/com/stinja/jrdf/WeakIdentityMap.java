@@ -0,0 +1,84 @@
+package com.stinja.jrdf;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A map whose keys are compared by identity rather than by equals(),
+ * and are only weakly referenced, so that an entry is dropped once its
+ * key is no longer used anywhere else. The PersistenceManager keeps
+ * what it knows about the objects it has retrieved in such a map,
+ * without keeping those objects alive or confusing equal objects.
+ *
+ * Its methods are synchronized, so that it may be shared by the
+ * threads of concurrent retrievals and recordings.
+ */
+
+class WeakIdentityMap<K, V> {
+	private final Map<Key<K>, V> entries;
+	private final ReferenceQueue<K> queue;
+
+	WeakIdentityMap() {
+		this.entries = new HashMap<Key<K>, V>();
+		this.queue = new ReferenceQueue<K>();
+	}
+
+	synchronized V get(K key) {
+		expunge();
+		return entries.get(new Key<K>(key, null));
+	}
+
+	synchronized void put(K key, V value) {
+		expunge();
+		entries.put(new Key<K>(key, queue), value);
+	}
+
+	synchronized void remove(K key) {
+		expunge();
+		entries.remove(new Key<K>(key, null));
+	}
+
+	synchronized int size() {
+		expunge();
+		return entries.size();
+	}
+
+	/**
+	 * Drops the entries whose keys have been garbage collected.
+	 */
+	private void expunge() {
+		Reference<? extends K> cleared;
+		while ((cleared = queue.poll()) != null)
+			entries.remove(cleared);
+	}
+
+	/**
+	 * A weak reference to a key, which is equal to the references to
+	 * the same object, and to itself once the object has been collected.
+	 */
+	private static class Key<K> extends WeakReference<K> {
+		private final int hash;
+
+		Key(K referent, ReferenceQueue<K> queue) {
+			super(referent, queue);
+			this.hash = System.identityHashCode(referent);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object other) {
+			if (other == this)
+				return true;
+			if (! (other instanceof Key))
+				return false;
+			Object referent = get();
+			return referent != null && referent == ((Key) other).get();
+		}
+	}
+}
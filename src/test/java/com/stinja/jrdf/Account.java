@@ -0,0 +1,62 @@
+package com.stinja.jrdf;
+
+import java.util.Set;
+
+@IdentifiedByField(idField = "accountId")
+@ResourcePrefix(abbreviated = "schema:", full = "http://www.stinja.com/jrdf/schema#")
+public class Account {
+
+	public static Account fromId(int accountId) {
+		Account result = new Account();
+		result.accountId = accountId;
+		return result;
+	}
+
+	public static void fillData(
+		Account a,
+		String owner,
+		Set<String> holders) {
+		a.owner = owner;
+		a.holders = holders;
+	}
+
+	public int getAccountId() {
+		return accountId;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public Set<String> getHolders() {
+		return holders;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	@PropertyField(
+		rdfProperty = "accountId", 
+		valueClazz = Integer.class, 
+		policy = Policy.IDENTIFIER)
+	private int accountId;
+
+	@PropertyField(
+		rdfProperty = "owner",
+		valueClazz = String.class,
+		policy = Policy.EXACTLY_ONE)
+	private String owner;
+
+	@PropertyField(
+		rdfProperty = "holder",
+		valueClazz = String.class,
+		policy = Policy.MANY)
+	private Set<String> holders;
+
+	@Version
+	@PropertyField(
+		rdfProperty = "version",
+		valueClazz = Long.class)
+	private long version;
+}
@@ -0,0 +1,79 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Aggregates the values of the fields of a class across two shards,
+ * including floating point values that are not finite.
+ */
+
+public class AggregationTest {
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() {
+		List<StorageBackend> shards = new ArrayList<StorageBackend>();
+		for (int i = 0; i < 2; i++)
+			shards.add(new DatasetBackend(DatasetFactory.createTxnMem()));
+		manager = new PersistenceManager(shards, RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] { VitalInfo.class });
+	}
+
+	private void record(double... heights) throws JRDFAnnotationException {
+		for (int i = 0; i < heights.length; i++) {
+			VitalInfo vi = VitalInfo.fromId(i);
+			VitalInfo.fillData(vi, i % 2 == 0 ? HairColor.BROWN : HairColor.RED, heights[i], 30 + i);
+			manager.record(vi);
+		}
+	}
+
+	private Aggregation.Row aggregate() throws JRDFAnnotationException {
+		List<Aggregation.Row> rows = manager.aggregate(
+			Aggregation.of(VitalInfo.class)
+				.count()
+				.sum("heightInches")
+				.average("heightInches")
+				.sum("age"));
+		assertEquals(1, rows.size());
+		return rows.get(0);
+	}
+
+	@Test
+	public void sumsAndAveragesFiniteValues() throws JRDFAnnotationException {
+		record(60.5, 70, 71.5, 68);
+
+		Aggregation.Row row = aggregate();
+		assertEquals(4L, row.getValue(0));
+		assertEquals(270.0, (Double) row.getValue(1), 0.0);
+		assertEquals(67.5, (Double) row.getValue(2), 0.0);
+		assertEquals(126L, row.getValue(3));
+	}
+
+	@Test
+	public void sumsInfiniteValues() throws JRDFAnnotationException {
+		record(60.5, Double.POSITIVE_INFINITY, 71.5, 68);
+
+		Aggregation.Row row = aggregate();
+		assertEquals(Double.POSITIVE_INFINITY, (Double) row.getValue(1), 0.0);
+		assertEquals(Double.POSITIVE_INFINITY, (Double) row.getValue(2), 0.0);
+		assertEquals(126L, row.getValue(3));
+	}
+
+	@Test
+	public void sumsValuesThatAreNotNumbers() throws JRDFAnnotationException {
+		record(60.5, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN);
+
+		Aggregation.Row row = aggregate();
+		assertTrue(((Double) row.getValue(1)).isNaN());
+		assertTrue(((Double) row.getValue(2)).isNaN());
+	}
+}
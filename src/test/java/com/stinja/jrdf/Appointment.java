@@ -18,6 +18,18 @@ public class Appointment {
 		appointment.officialTitle = officialTitle;
 	}
 
+	public ContactInfo getAppointee() {
+		return appointee;
+	}
+
+	public Organization getOrganization() {
+		return organization;
+	}
+
+	public String getOfficialTitle() {
+		return officialTitle;
+	}
+
 	@PropertyField(
 		rdfProperty = "appointee", 
 		valueClazz = ContactInfo.class, 
@@ -26,13 +38,13 @@ public class Appointment {
 
 	@PropertyField(
 		rdfProperty = "organization", 
-		valueClazz = String.class, 
+		valueClazz = Organization.class, 
 		policy = Policy.IDENTIFIER)
 	private Organization organization;
 
 	@PropertyField(
 		rdfProperty = "officialTitle",
-		valueClazz = ContactInfo.class,
+		valueClazz = String.class,
 		policy = Policy.EXACTLY_ONE)
 	private String officialTitle;
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package com.stinja.jrdf;
+
+import java.util.Set;
+
+@IdentifiedByField(idField = "archiveId")
+@ResourcePrefix(abbreviated = "schema:", full = "http://www.stinja.com/jrdf/schema#")
+public class Archive {
+
+	public static Archive fromId(int archiveId) {
+		Archive result = new Archive();
+		result.archiveId = archiveId;
+		return result;
+	}
+
+	public static void fillData(
+		Archive a,
+		Set<String> labels,
+		Set<Section> sections) {
+		a.labels = labels;
+		a.sections = sections;
+	}
+
+	public int getArchiveId() {
+		return archiveId;
+	}
+
+	public Set<String> getLabels() {
+		return labels;
+	}
+
+	public Set<Section> getSections() {
+		return sections;
+	}
+
+	@PropertyField(
+		rdfProperty = "archiveId", 
+		valueClazz = Integer.class, 
+		policy = Policy.IDENTIFIER)
+	private int archiveId;
+
+	@Paged(pageSize = 1)
+	@PropertyField(
+		rdfProperty = "label",
+		valueClazz = String.class,
+		policy = Policy.MANY)
+	private Set<String> labels;
+
+	@Paged(pageSize = 10)
+	@PropertyField(
+		rdfProperty = "archivedSection",
+		valueClazz = Section.class,
+		policy = Policy.MANY)
+	private Set<Section> sections;
+}
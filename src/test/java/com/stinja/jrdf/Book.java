@@ -0,0 +1,80 @@
+package com.stinja.jrdf;
+
+import java.util.Set;
+
+@IdentifiedByField(idField = "bookId")
+@ResourcePrefix(abbreviated = "schema:", full = "http://www.stinja.com/jrdf/schema#")
+public class Book {
+
+	public static Book fromId(int bookId) {
+		Book result = new Book();
+		result.bookId = bookId;
+		return result;
+	}
+
+	public static void fillData(
+		Book b,
+		String title,
+		String genre,
+		int year,
+		Set<String> keywords) {
+		b.title = title;
+		b.genre = genre;
+		b.year = year;
+		b.keywords = keywords;
+	}
+
+	public int getBookId() {
+		return bookId;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getGenre() {
+		return genre;
+	}
+
+	public int getYear() {
+		return year;
+	}
+
+	public Set<String> getKeywords() {
+		return keywords;
+	}
+
+	@PropertyField(
+		rdfProperty = "bookId", 
+		valueClazz = Integer.class, 
+		policy = Policy.IDENTIFIER)
+	private int bookId;
+
+	@Searchable
+	@PropertyField(
+		rdfProperty = "title",
+		valueClazz = String.class,
+		policy = Policy.EXACTLY_ONE)
+	private String title;
+
+	@Indexed
+	@PropertyField(
+		rdfProperty = "genre",
+		valueClazz = String.class,
+		policy = Policy.EXACTLY_ONE)
+	private String genre;
+
+	@Indexed
+	@PropertyField(
+		rdfProperty = "year",
+		valueClazz = Integer.class,
+		policy = Policy.EXACTLY_ONE)
+	private int year;
+
+	@Indexed
+	@PropertyField(
+		rdfProperty = "keyword",
+		valueClazz = String.class,
+		policy = Policy.MANY)
+	private Set<String> keywords;
+}
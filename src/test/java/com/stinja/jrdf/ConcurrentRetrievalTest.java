@@ -0,0 +1,80 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Retrieves several objects at once on an Executor, and checks that a
+ * resource reached from more than one of them is still represented by
+ * a single object.
+ */
+
+public class ConcurrentRetrievalTest {
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException {
+		manager = new PersistenceManager(DatasetFactory.createTxnMem(), RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] { Document.class, Section.class });
+		manager.setRetrievalExecutor(ForkJoinPool.commonPool());
+
+		// the second section is in both documents, neither of which
+		// can be reached from the other.
+		Section[] sections = new Section[3];
+		for (int i = 0; i < sections.length; i++) {
+			sections[i] = Section.fromId(i);
+			Section.fillData(sections[i], "Section " + i);
+		}
+		Document first = Document.fromId(1);
+		Document.fillData(first, "First",
+			new HashSet<Section>(Arrays.asList(sections[0], sections[1])));
+		Document second = Document.fromId(2);
+		Document.fillData(second, "Second",
+			new HashSet<Section>(Arrays.asList(sections[1], sections[2])));
+		manager.record(first);
+		manager.record(second);
+	}
+
+	private static Section section(Document d, int sectionId) {
+		for (Section s : d.getSections())
+			if (s.getSectionId() == sectionId)
+				return s;
+		return null;
+	}
+
+	@Test
+	public void sharesObjectsAcrossItems() throws JRDFAnnotationException {
+		List<Object> docs = manager.retrieveAll(Arrays.asList(
+			Document.fromId(1), Document.fromId(2)));
+		Document first = (Document) docs.get(0);
+		Document second = (Document) docs.get(1);
+
+		assertEquals(2, second.getSections().size());
+		assertSame(section(first, 1), section(second, 1));
+		assertEquals("Section 1", section(second, 1).getHeading());
+	}
+
+	@Test
+	public void recordsSharedObjectsWithoutChanges() throws JRDFAnnotationException {
+		List<Object> docs = manager.retrieveAll(Arrays.asList(
+			Document.fromId(1), Document.fromId(2)));
+		Document second = (Document) docs.get(1);
+		second.getSections().remove(section(second, 2));
+		for (Object o : docs)
+			manager.record(o);
+
+		assertEquals(1, ((Document) manager.retrieve(Document.fromId(2))).getSections().size());
+		assertEquals(2, ((Document) manager.retrieve(Document.fromId(1))).getSections().size());
+	}
+}
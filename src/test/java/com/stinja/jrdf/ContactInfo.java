@@ -30,6 +30,22 @@ public class ContactInfo {
 				appointments;
 	}
 
+	public int getPersonId() {
+		return personId;
+	}
+
+	public Collection<String> getGivenNames() {
+		return givenNames;
+	}
+
+	public String getFamilyName() {
+		return familyName;
+	}
+
+	public Collection<Appointment> getAppointments() {
+		return appointments;
+	}
+
 	@PropertyField(
 		rdfProperty = "personId", 
 		valueClazz = Integer.class, 
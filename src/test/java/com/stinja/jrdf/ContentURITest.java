@@ -0,0 +1,100 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QuerySolution;
+
+import org.apache.jena.rdf.model.Resource;
+
+import org.apache.jena.system.Txn;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records instances of an @IdentifiedByContent class, whose URIs are
+ * derived from their identifying values.
+ */
+
+public class ContentURITest {
+	private Dataset dataset;
+	private List<String> queries;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() {
+		dataset = DatasetFactory.createTxnMem();
+		queries = new ArrayList<String>();
+		manager = createManager();
+	}
+
+	/**
+	 * Creates a PersistenceManager on the Dataset, which remembers the
+	 * queries it sends to it.
+	 */
+	private PersistenceManager createManager() {
+		StorageBackend backend = new DatasetBackend(dataset) {
+			public void select(String query, Consumer<QuerySolution> action) {
+				queries.add(query);
+				super.select(query, action);
+			}
+		};
+		PersistenceManager result = new PersistenceManager(backend, RoundTripTest.ANON_STEM);
+		result.manageClasses(new Class[] { Tag.class });
+		return result;
+	}
+
+	private static Tag tag(String name, String language, String description) {
+		Tag t = Tag.fromIds(name, language);
+		Tag.fillData(t, description);
+		return t;
+	}
+
+	private Set<Resource> subjects() {
+		return Txn.calculateRead(dataset, () -> 
+			dataset.getDefaultModel().listSubjects().toSet());
+	}
+
+	@Test
+	public void recordsWithoutLookingUpNodes() throws JRDFAnnotationException {
+		manager.record(tag("jrdf", "en", "A library"));
+		manager.record(tag("rdf", "en", null));
+
+		assertTrue(queries.isEmpty());
+		assertEquals(2, subjects().size());
+		for (Resource r : subjects())
+			assertTrue(r.getURI(), r.getURI().startsWith(RoundTripTest.ANON_STEM + ".Tag."));
+	}
+
+	@Test
+	public void recordsEqualInstancesOnOneNode() throws JRDFAnnotationException {
+		manager.record(tag("jrdf", "en", "A library"));
+		manager.record(tag("jrdf", "en", "A Java library"));
+		manager.record(tag("jrdf", "fr", "Une librairie"));
+
+		assertEquals(2, manager.count(Tag.class));
+		Tag again = (Tag) manager.retrieve(Tag.fromIds("jrdf", "en"));
+		assertEquals("A Java library", again.getDescription());
+	}
+
+	@Test
+	public void derivesSameURIsInOtherManagers() throws JRDFAnnotationException {
+		manager.record(tag("jrdf", "en", "A library"));
+
+		PersistenceManager other = createManager();
+		assertTrue(other.exists(Tag.fromIds("jrdf", "en")));
+		assertFalse(other.exists(Tag.fromIds("jrdf", "de")));
+		other.record(tag("jrdf", "en", "A Java library"));
+		assertEquals(1, subjects().size());
+		assertEquals("A Java library", ((Tag) manager.retrieve(Tag.fromIds("jrdf", "en"))).getDescription());
+	}
+}
@@ -0,0 +1,49 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Counts and finds the instances of a class that satisfy Criteria on
+ * its literal fields.
+ */
+
+public class CriteriaTest {
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException {
+		manager = new PersistenceManager(DatasetFactory.createTxnMem(), RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] { VitalInfo.class });
+		for (int i = 0; i < 5; i++) {
+			VitalInfo vi = VitalInfo.fromId(i);
+			VitalInfo.fillData(vi, i % 2 == 0 ? HairColor.BROWN : HairColor.RED, 68 + i, 30 + i);
+			manager.record(vi);
+		}
+	}
+
+	@Test
+	public void comparesDoubleFieldWithInteger() throws JRDFAnnotationException {
+		Criteria c = Criteria.of(VitalInfo.class)
+			.equalTo("hairColor", HairColor.BROWN)
+			.atLeast("heightInches", 70);
+
+		assertEquals(2, manager.count(c));
+		assertEquals(2, manager.find(c).size());
+	}
+
+	@Test
+	public void comparesIntegerFieldWithOtherNumbers() throws JRDFAnnotationException {
+		assertEquals(1, manager.count(Criteria.of(VitalInfo.class).equalTo("age", 32L)));
+		assertEquals(3, manager.count(Criteria.of(VitalInfo.class).lessThan("age", 33.0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNumbersThatFieldCannotRepresent() {
+		Criteria.of(VitalInfo.class).lessThan("age", 32.5);
+	}
+}
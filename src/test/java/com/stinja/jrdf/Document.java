@@ -0,0 +1,52 @@
+package com.stinja.jrdf;
+
+import java.util.Collection;
+
+@IdentifiedByField(idField = "docId")
+@ResourcePrefix(abbreviated = "schema:", full = "http://www.stinja.com/jrdf/schema#")
+public class Document {
+
+	public static Document fromId(int docId) {
+		Document result = new Document();
+		result.docId = docId;
+		return result;
+	}
+
+	public static void fillData(
+		Document d,
+		String title,
+		Collection<Section> sections) {
+		d.title = title;
+		d.sections = sections;
+	}
+
+	public int getDocId() {
+		return docId;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public Collection<Section> getSections() {
+		return sections;
+	}
+
+	@PropertyField(
+		rdfProperty = "docId", 
+		valueClazz = Integer.class, 
+		policy = Policy.IDENTIFIER)
+	protected int docId;
+
+	@PropertyField(
+		rdfProperty = "title",
+		valueClazz = String.class)
+	private String title;
+
+	@PropertyField(
+		rdfProperty = "section",
+		valueClazz = Section.class,
+		policy = Policy.MANY,
+		owned = true)
+	private Collection<Section> sections;
+}
@@ -0,0 +1,102 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Retrieves objects with FetchPlans, and records them again without
+ * overwriting the fields that were not loaded.
+ */
+
+public class FetchPlanTest {
+	private PersistenceManager manager;
+	private String uri;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException {
+		manager = new PersistenceManager(DatasetFactory.createTxnMem(), RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] {
+			ContactInfo.class, Organization.class, Appointment.class
+		});
+		manager.record(RoundTripTest.organization(1, 10));
+		uri = manager.getURI(ContactInfo.fromId(10));
+	}
+
+	private ContactInfo retrieve() throws JRDFAnnotationException {
+		return (ContactInfo) manager.retrieve(uri, ContactInfo.class);
+	}
+
+	@Test
+	public void loadsOnlyPlannedFields() throws JRDFAnnotationException {
+		ContactInfo ci = (ContactInfo) manager.retrieve(uri, ContactInfo.class,
+			FetchPlan.of(ContactInfo.class).include("givenNames"));
+
+		assertEquals(10, ci.getPersonId());
+		assertEquals(2, ci.getGivenNames().size());
+		assertNull(ci.getFamilyName());
+		assertNull(ci.getAppointments());
+	}
+
+	@Test
+	public void recordsOnlyPlannedFields() throws JRDFAnnotationException {
+		ContactInfo ci = (ContactInfo) manager.retrieve(uri, ContactInfo.class,
+			FetchPlan.of(ContactInfo.class).include("givenNames"));
+		ci.getGivenNames().add("Countess");
+		manager.record(ci);
+
+		ContactInfo again = retrieve();
+		assertEquals(new HashSet<String>(Arrays.asList("Ada", "Augusta", "Countess")),
+			new HashSet<String>(again.getGivenNames()));
+		assertEquals("Lovelace", again.getFamilyName());
+		assertEquals(1, again.getAppointments().size());
+	}
+
+	@Test
+	public void leavesUnplannedFieldsAsTheyAre() throws JRDFAnnotationException {
+		ContactInfo ci = (ContactInfo) manager.retrieve(uri, ContactInfo.class,
+			FetchPlan.of(ContactInfo.class).include("givenNames"));
+		ContactInfo.fillData(ci, ci.getGivenNames(), "Byron", null);
+		manager.record(ci);
+
+		ContactInfo again = retrieve();
+		assertEquals("Lovelace", again.getFamilyName());
+		assertEquals(1, again.getAppointments().size());
+	}
+
+	@Test
+	public void recordsNestedPlans() throws JRDFAnnotationException {
+		Organization org = (Organization) manager.retrieve(
+			manager.getURI(Organization.fromId(1)), Organization.class,
+			FetchPlan.of(Organization.class)
+				.include("members", FetchPlan.of(ContactInfo.class).include("familyName")));
+		manager.record(org);
+		ContactInfo ada = RoundTripTest.member(org, 10);
+		ContactInfo.fillData(ada, null, "Byron", null);
+		manager.record(ada);
+
+		ContactInfo again = retrieve();
+		assertEquals("Byron", again.getFamilyName());
+		assertEquals(2, again.getGivenNames().size());
+		assertEquals(1, again.getAppointments().size());
+		assertEquals("Analytical Engines 1",
+			((Organization) manager.retrieve(Organization.fromId(1))).getOfficialName());
+	}
+
+	@Test
+	public void recordsCompleteRetrievalsInFull() throws JRDFAnnotationException {
+		manager.retrieve(uri, ContactInfo.class, FetchPlan.of(ContactInfo.class));
+		ContactInfo ci = retrieve();
+		ContactInfo.fillData(ci, ci.getGivenNames(), "Byron", ci.getAppointments());
+		manager.record(ci);
+
+		assertEquals("Byron", retrieve().getFamilyName());
+	}
+}
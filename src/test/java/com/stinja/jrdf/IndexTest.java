@@ -0,0 +1,125 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QuerySolution;
+
+import org.apache.jena.update.UpdateAction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Builds the indexes of @Indexed fields, and checks that Criteria are
+ * answered from them as they are kept up to date by recording and
+ * removal.
+ */
+
+public class IndexTest {
+	private Dataset dataset;
+	private List<String> queries;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException {
+		dataset = DatasetFactory.createTxnMem();
+		queries = new ArrayList<String>();
+		// remembers the queries sent to the Dataset.
+		StorageBackend backend = new DatasetBackend(dataset) {
+			public void select(String query, Consumer<QuerySolution> action) {
+				queries.add(query);
+				super.select(query, action);
+			}
+		};
+		manager = new PersistenceManager(backend, RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] { Book.class });
+		for (int i = 0; i < 6; i++)
+			manager.record(book(i, i % 2 == 0 ? "Poetry" : "History", 1900 + 10 * i, "k" + i));
+		manager.buildIndexes(Book.class);
+	}
+
+	private static Book book(int bookId, String genre, int year, String... keywords) {
+		Book b = Book.fromId(bookId);
+		Book.fillData(b, "Book " + bookId, genre, year, new HashSet<String>(Arrays.asList(keywords)));
+		return b;
+	}
+
+	/**
+	 * Counts the Books that satisfy the given Criteria, and checks that
+	 * they were counted from the indexes alone.
+	 */
+	private long count(Criteria criteria) throws JRDFAnnotationException {
+		queries.clear();
+		long result = manager.count(criteria);
+		assertTrue(queries.toString(), queries.isEmpty());
+		return result;
+	}
+
+	private static Criteria genre(String genre) {
+		return Criteria.of(Book.class).equalTo("genre", genre);
+	}
+
+	@Test
+	public void answersCriteriaFromIndexes() throws JRDFAnnotationException {
+		assertEquals(3, count(genre("Poetry")));
+		assertEquals(2, count(Criteria.of(Book.class).lessThan("year", 1920)));
+		assertEquals(1, count(genre("History").atLeast("year", 1950)));
+		assertEquals(1, count(Criteria.of(Book.class).equalTo("keywords", "k3")));
+		assertEquals(3, manager.find(genre("Poetry")).size());
+	}
+
+	@Test
+	public void updatesIndexesOnRecord() throws JRDFAnnotationException {
+		manager.record(book(6, "Poetry", 1960, "k0"));
+		assertEquals(4, count(genre("Poetry")));
+		assertEquals(2, count(Criteria.of(Book.class).equalTo("keywords", "k0")));
+
+		Book b = (Book) manager.retrieve(Book.fromId(0));
+		Book.fillData(b, b.getTitle(), "History", 1990, b.getKeywords());
+		b.getKeywords().remove("k0");
+		b.getKeywords().add("k9");
+		manager.record(b);
+		assertEquals(3, count(genre("Poetry")));
+		assertEquals(4, count(genre("History")));
+		assertEquals(1, count(Criteria.of(Book.class).lessThan("year", 1920)));
+		assertEquals(1, count(Criteria.of(Book.class).equalTo("keywords", "k0")));
+		assertEquals(1, count(Criteria.of(Book.class).equalTo("keywords", "k9")));
+	}
+
+	@Test
+	public void updatesIndexesOnRemoval() throws JRDFAnnotationException {
+		manager.removeData(Book.fromId(0));
+		assertEquals(2, count(genre("Poetry")));
+		assertEquals(0, count(Criteria.of(Book.class).equalTo("keywords", "k0")));
+
+		manager.removeResource(manager.getURI(Book.fromId(2)));
+		assertEquals(1, count(genre("Poetry")));
+
+		manager.removeAll(Arrays.asList(Book.fromId(1), Book.fromId(3)));
+		assertEquals(1, count(genre("History")));
+	}
+
+	@Test
+	public void ignoresOtherWritersUntilRebuilt() throws JRDFAnnotationException {
+		UpdateAction.parseExecute(
+			String.format(
+				"PREFIX schema: <http://www.stinja.com/jrdf/schema#>\n"
+				+ "DELETE WHERE { %1$s schema:genre ?g } ;\n"
+				+ "INSERT DATA { %1$s schema:genre \"History\" }",
+				manager.getURI(Book.fromId(0))),
+			dataset);
+		assertEquals(3, count(genre("Poetry")));
+
+		manager.buildIndexes(Book.class);
+		assertEquals(2, count(genre("Poetry")));
+	}
+}
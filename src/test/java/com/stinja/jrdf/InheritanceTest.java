@@ -0,0 +1,92 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+
+import org.apache.jena.system.Txn;
+
+import org.apache.jena.update.UpdateAction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records and retrieves a subclass of an @IdentifiedByField class,
+ * which inherits both its identifier and its @PropertyFields.
+ */
+
+public class InheritanceTest {
+	private static final String REMOVE_TYPES = 
+		"DELETE WHERE { ?s a <http://www.stinja.com/jrdf/schema#Report> }";
+
+	private Dataset dataset;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() {
+		dataset = DatasetFactory.createTxnMem();
+		manager = new PersistenceManager(dataset, RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] {
+			Document.class, Section.class, Report.class
+		});
+	}
+
+	private static Report report(int docId) {
+		Report r = Report.fromId(docId);
+		Report.fillData(r, "Report " + docId, "Ada");
+		return r;
+	}
+
+	private void update(String operations) {
+		Txn.executeWrite(dataset, () -> UpdateAction.parseExecute(operations, dataset));
+	}
+
+	@Test
+	public void inheritsIdentifier() throws JRDFAnnotationException {
+		manager.record(report(1));
+
+		String uri = manager.getURI(Report.fromId(1));
+		assertTrue(uri, uri.contains(Report.class.getName()));
+		assertEquals(1, manager.getIdentifier(uri, Report.class));
+
+		Report again = (Report) manager.retrieve(Report.fromId(1));
+		assertEquals(1, again.getDocId());
+		assertEquals("Report 1", again.getTitle());
+		assertEquals("Ada", again.getAuthor());
+	}
+
+	@Test
+	public void typesOnlyNodesOfClass() throws JRDFAnnotationException {
+		manager.record(report(1));
+		Document d = Document.fromId(2);
+		Document.fillData(d, "Document 2", Collections.<Section>emptySet());
+		manager.record(d);
+		// a Document with every field of a Report, but not its URI
+		update(String.format(
+			"INSERT DATA { %s <http://www.stinja.com/jrdf/schema#author> \"Bob\" }",
+			manager.getURI(d)));
+		update(REMOVE_TYPES);
+		assertEquals(0, manager.count(Report.class));
+
+		manager.addTypes(Report.class);
+		assertEquals(1, manager.count(Report.class));
+		assertEquals("Ada", ((Report) manager.find(Criteria.of(Report.class)).get(0)).getAuthor());
+	}
+
+	@Test
+	public void typesGivenNodes() throws JRDFAnnotationException {
+		manager.record(report(1));
+		manager.record(report(2));
+		update(REMOVE_TYPES);
+
+		manager.addTypes(Arrays.asList(manager.getURI(Report.fromId(2))), Report.class);
+		assertEquals(1, manager.count(Report.class));
+		assertEquals(2, ((Report) manager.find(Criteria.of(Report.class)).get(0)).getDocId());
+	}
+}
@@ -0,0 +1,50 @@
+package com.stinja.jrdf;
+
+@IdentifiedByField(idField = "measurementId")
+@ResourcePrefix(abbreviated = "schema:", full = "http://www.stinja.com/jrdf/schema#")
+public class Measurement {
+
+	public static Measurement fromId(long measurementId) {
+		Measurement result = new Measurement();
+		result.measurementId = measurementId;
+		return result;
+	}
+
+	public static void fillData(
+		Measurement m,
+		int[] counts,
+		double[] readings) {
+		m.counts = counts;
+		m.readings = readings;
+	}
+
+	public long getMeasurementId() {
+		return measurementId;
+	}
+
+	public int[] getCounts() {
+		return counts;
+	}
+
+	public double[] getReadings() {
+		return readings;
+	}
+
+	@PropertyField(
+		rdfProperty = "measurementId", 
+		valueClazz = Long.class, 
+		policy = Policy.IDENTIFIER)
+	private long measurementId;
+
+	@PropertyField(
+		rdfProperty = "count",
+		valueClazz = Integer.class,
+		policy = Policy.MANY)
+	private int[] counts;
+
+	@PropertyField(
+		rdfProperty = "reading",
+		valueClazz = Double.class,
+		policy = Policy.SOME)
+	private double[] readings;
+}
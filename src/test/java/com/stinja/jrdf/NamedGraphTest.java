@@ -0,0 +1,122 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+
+import org.apache.jena.system.Txn;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records objects in the named graphs of their classes and of their
+ * PersistenceManagers, and checks that every operation is scoped to
+ * those graphs.
+ */
+
+public class NamedGraphTest {
+	static final String NOTES = "http://www.stinja.com/jrdf/graphs/notes";
+	static final String TENANT_A = "http://www.stinja.com/jrdf/graphs/a";
+	static final String TENANT_B = "http://www.stinja.com/jrdf/graphs/b";
+
+	private Dataset dataset;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() {
+		dataset = DatasetFactory.createTxnMem();
+		manager = manager(null);
+	}
+
+	private PersistenceManager manager(String graph) {
+		PersistenceManager result = new PersistenceManager(dataset, RoundTripTest.ANON_STEM);
+		result.manageClasses(new Class[] { Note.class, Section.class });
+		result.setGraph(graph);
+		return result;
+	}
+
+	private long size(String graph) {
+		return Txn.calculateRead(dataset, () -> graph == null ?
+			dataset.getDefaultModel().size() :
+			dataset.getNamedModel(graph).size());
+	}
+
+	private static Note note(int noteId, String text, int sectionId, String heading) {
+		Section s = Section.fromId(sectionId);
+		Section.fillData(s, heading);
+		Note n = Note.fromId(noteId);
+		Note.fillData(n, text, s);
+		return n;
+	}
+
+	@Test
+	public void keepsNamedGraphClassInItsGraph() throws JRDFAnnotationException {
+		manager.record(note(1, "See also", 2, "Introduction"));
+
+		assertEquals(3, size(NOTES));
+		assertEquals(2, size(null));
+		Note n = (Note) manager.retrieve(Note.fromId(1));
+		assertEquals("See also", n.getText());
+		assertEquals("Introduction", n.getSection().getHeading());
+		assertEquals(1, manager.count(Note.class));
+
+		manager.removeData(Note.fromId(1));
+		assertEquals(0, size(NOTES));
+		assertEquals(2, size(null));
+	}
+
+	@Test
+	public void removesNamedGraph() throws JRDFAnnotationException {
+		manager.record(note(1, "See also", 2, "Introduction"));
+		manager.record(note(3, "Compare", 4, "Conclusion"));
+
+		manager.removeGraph(NOTES);
+		assertFalse(manager.exists(Note.fromId(1)));
+		assertEquals(0, manager.count(Note.class));
+		assertTrue(manager.exists(Section.fromId(4)));
+	}
+
+	@Test
+	public void keepsTenantsApart() throws JRDFAnnotationException {
+		PersistenceManager a = manager(TENANT_A);
+		PersistenceManager b = manager(TENANT_B);
+		a.record(note(1, "Tenant A", 2, "A"));
+		b.record(note(1, "Tenant B", 2, "B"));
+
+		// the notes share their graph, but the sections do not.
+		assertEquals(0, size(null));
+		assertEquals(2, size(TENANT_A));
+		assertEquals(2, size(TENANT_B));
+		assertEquals("A", ((Section) a.retrieve(Section.fromId(2))).getHeading());
+		assertEquals("B", ((Section) b.retrieve(Section.fromId(2))).getHeading());
+		assertEquals(1, a.count(Section.class));
+
+		b.removeGraph(TENANT_B);
+		assertFalse(b.exists(Section.fromId(2)));
+		assertTrue(a.exists(Section.fromId(2)));
+	}
+
+	@Test
+	public void switchesGraph() throws JRDFAnnotationException {
+		Section s = Section.fromId(2);
+		Section.fillData(s, "A");
+		manager.setGraph(TENANT_A);
+		manager.record(s);
+
+		manager.setGraph(TENANT_B);
+		assertFalse(manager.exists(Section.fromId(2)));
+		assertEquals(0, manager.count(Section.class));
+		Section.fillData(s, "B");
+		manager.record(s);
+
+		manager.setGraph(TENANT_A);
+		assertEquals("A", ((Section) manager.retrieve(Section.fromId(2))).getHeading());
+		manager.setGraph(null);
+		assertFalse(manager.exists(Section.fromId(2)));
+		assertEquals(0, size(null));
+	}
+}
@@ -0,0 +1,50 @@
+package com.stinja.jrdf;
+
+@IdentifiedByField(idField = "noteId")
+@ResourcePrefix(abbreviated = "schema:", full = "http://www.stinja.com/jrdf/schema#")
+@NamedGraph(uri = "http://www.stinja.com/jrdf/graphs/notes")
+public class Note {
+
+	public static Note fromId(int noteId) {
+		Note result = new Note();
+		result.noteId = noteId;
+		return result;
+	}
+
+	public static void fillData(
+		Note n,
+		String text,
+		Section section) {
+		n.text = text;
+		n.section = section;
+	}
+
+	public int getNoteId() {
+		return noteId;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public Section getSection() {
+		return section;
+	}
+
+	@PropertyField(
+		rdfProperty = "noteId", 
+		valueClazz = Integer.class, 
+		policy = Policy.IDENTIFIER)
+	private int noteId;
+
+	@PropertyField(
+		rdfProperty = "text",
+		valueClazz = String.class,
+		policy = Policy.EXACTLY_ONE)
+	private String text;
+
+	@PropertyField(
+		rdfProperty = "annotates",
+		valueClazz = Section.class)
+	private Section section;
+}
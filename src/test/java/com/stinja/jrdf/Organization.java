@@ -25,6 +25,18 @@ public class Organization {
 				members; 
 	}
 
+	public int getOrgId() {
+		return orgId;
+	}
+
+	public String getOfficialName() {
+		return officialName;
+	}
+
+	public Collection<ContactInfo> getMembers() {
+		return members;
+	}
+
 	@PropertyField(
 		rdfProperty = "orgId", 
 		valueClazz = Integer.class, 
@@ -0,0 +1,135 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ReadWrite;
+
+import org.apache.jena.update.UpdateAction;
+import org.apache.jena.update.UpdateRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reads and records the views given to @Paged fields.
+ */
+
+public class PagedSetTest {
+	private Dataset dataset;
+	private List<String> queries;
+	private List<String> updates;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException {
+		dataset = DatasetFactory.createTxnMem();
+		queries = new ArrayList<String>();
+		updates = new ArrayList<String>();
+		// remembers the requests sent to the Dataset.
+		StorageBackend backend = new DatasetBackend(dataset) {
+			public void select(String query, Consumer<QuerySolution> action) {
+				queries.add(query);
+				super.select(query, action);
+			}
+
+			public void update(String operations) {
+				updates.add(operations);
+				super.update(operations);
+			}
+
+			public void update(UpdateRequest request) {
+				updates.add(request.toString());
+				super.update(request);
+			}
+		};
+		manager = new PersistenceManager(backend, RoundTripTest.ANON_STEM);
+		manager.setRetrievalExecutor(null);
+		manager.manageClasses(new Class[] { Archive.class, Section.class });
+
+		Set<Section> sections = new HashSet<Section>();
+		for (int i = 0; i < 10; i++) {
+			Section s = Section.fromId(i);
+			Section.fillData(s, "Heading " + i);
+			sections.add(s);
+		}
+		Archive archive = Archive.fromId(1);
+		Archive.fillData(archive, new HashSet<String>(Arrays.asList("x", "y")), sections);
+		manager.record(archive);
+	}
+
+	private Archive retrieve() throws JRDFAnnotationException {
+		return (Archive) manager.retrieve(Archive.fromId(1));
+	}
+
+	@Test
+	public void readsValuesWithTheSameLexicalForm() throws JRDFAnnotationException {
+		String archive = manager.getURI(Archive.fromId(1));
+		dataset.begin(ReadWrite.WRITE);
+		try {
+			UpdateAction.parseExecute(
+				String.format(
+					"INSERT DATA { %s <http://www.stinja.com/jrdf/schema#label> \"x\"@en , \"x\"^^<http://www.w3.org/2001/XMLSchema#token> }",
+					archive),
+				dataset);
+			dataset.commit();
+		} finally {
+			dataset.end();
+		}
+
+		List<String> labels = new ArrayList<String>(retrieve().getLabels());
+		assertEquals(4, labels.size());
+		assertEquals(4, retrieve().getLabels().size());
+	}
+
+	@Test
+	public void retrievesResourcesOfAPageTogether() throws JRDFAnnotationException {
+		Archive archive = retrieve();
+		queries.clear();
+
+		Set<Integer> ids = new HashSet<Integer>();
+		for (Section s : archive.getSections())
+			ids.add(s.getSectionId());
+		assertEquals(10, ids.size());
+		assertTrue(String.valueOf(queries.size()), queries.size() <= 4);
+	}
+
+	@Test
+	public void writesOnlyChanges() throws JRDFAnnotationException {
+		Archive archive = retrieve();
+		manager.removeData(Archive.fromId(2));
+		manager.removeData(Archive.fromId(1));
+		archive.getLabels().add("z");
+		queries.clear();
+		updates.clear();
+		manager.record(archive);
+
+		// the views are neither read nor deleted.
+		for (String query : queries)
+			assertFalse(query, query.contains("ORDER BY"));
+		for (String update : updates) {
+			assertFalse(update, update.contains("schema:label ?"));
+			assertFalse(update, update.contains("schema:archivedSection ?"));
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("z")), new HashSet<String>(retrieve().getLabels()));
+	}
+
+	@Test(expected = IllegalValueException.class)
+	public void refusesToRecordViewForAnotherResource() throws JRDFAnnotationException {
+		Archive archive = retrieve();
+		Archive copy = Archive.fromId(2);
+		Archive.fillData(copy, archive.getLabels(), archive.getSections());
+		manager.record(copy);
+	}
+}
@@ -0,0 +1,60 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records and retrieves arrays of primitives, whose values are
+ * persisted as sets.
+ */
+
+public class PrimitiveArrayTest {
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() {
+		manager = new PersistenceManager(DatasetFactory.createTxnMem(), RoundTripTest.ANON_STEM);
+		manager.manageClass(Measurement.class);
+	}
+
+	@Test
+	public void retrievesValuesInAscendingOrder() throws JRDFAnnotationException {
+		Measurement m = Measurement.fromId(1L);
+		Measurement.fillData(m, new int[] { 3, -1, 2 },
+			new double[] { 2.5, Double.NEGATIVE_INFINITY, -0.5, Double.POSITIVE_INFINITY });
+		manager.record(m);
+
+		Measurement again = (Measurement) manager.retrieve(m);
+		assertArrayEquals(new int[] { -1, 2, 3 }, again.getCounts());
+		assertArrayEquals(
+			new double[] { Double.NEGATIVE_INFINITY, -0.5, 2.5, Double.POSITIVE_INFINITY },
+			again.getReadings(), 0.0);
+	}
+
+	@Test
+	public void retrievesEmptyArray() throws JRDFAnnotationException {
+		Measurement m = Measurement.fromId(1L);
+		Measurement.fillData(m, new int[0], new double[] { 1.0 });
+		manager.record(m);
+
+		assertArrayEquals(new int[0], ((Measurement) manager.retrieve(m)).getCounts());
+	}
+
+	@Test(expected = IllegalValueException.class)
+	public void rejectsDuplicateDoubles() throws JRDFAnnotationException {
+		Measurement m = Measurement.fromId(1L);
+		Measurement.fillData(m, null, new double[] { 1.0, 2.0, 1.0 });
+		manager.record(m);
+	}
+
+	@Test(expected = IllegalValueException.class)
+	public void rejectsDuplicateInts() throws JRDFAnnotationException {
+		Measurement m = Measurement.fromId(1L);
+		Measurement.fillData(m, new int[] { 7, 7 }, new double[] { 1.0 });
+		manager.record(m);
+	}
+}
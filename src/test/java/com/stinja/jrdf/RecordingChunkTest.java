@@ -0,0 +1,99 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+
+import org.apache.jena.system.Txn;
+
+import org.junit.Test;
+
+/**
+ * Records the same objects with different recording chunk sizes, and
+ * with and without a recording executor, and checks that each writes
+ * the same graph.
+ */
+
+public class RecordingChunkTest {
+	private static List<Object> documents(int n) {
+		List<Object> documents = new ArrayList<Object>();
+		for (int i = 0; i < n; i++) {
+			Section first = Section.fromId(10 * i);
+			Section.fillData(first, "Introduction " + i);
+			Section second = Section.fromId(10 * i + 1);
+			Section.fillData(second, "Conclusion " + i);
+			Document d = Document.fromId(i);
+			Document.fillData(d, "Document " + i, new HashSet<Section>(Arrays.asList(first, second)));
+			documents.add(d);
+		}
+		return documents;
+	}
+
+	/**
+	 * Records the documents, and then changes to them, with the given
+	 * chunk size and recording executor, and returns the Dataset they 
+	 * were recorded in.
+	 */
+	private static Dataset record(int chunkSize, Executor executor) throws JRDFAnnotationException {
+		Dataset dataset = DatasetFactory.createTxnMem();
+		PersistenceManager manager = new PersistenceManager(dataset, RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] { Document.class, Section.class });
+		manager.setRecordingChunkSize(chunkSize);
+		manager.setRecordingExecutor(executor);
+
+		manager.record(documents(25));
+		List<Object> changed = manager.retrieveAll(documents(25));
+		for (Object o : changed) {
+			Document d = (Document) o;
+			Document.fillData(d, d.getTitle() + " (revised)", d.getSections());
+			d.getSections().removeIf(s -> s.getSectionId() % 10 == 1);
+		}
+		manager.record(changed);
+		return dataset;
+	}
+
+	private static Model snapshot(Dataset dataset) {
+		return Txn.calculateRead(dataset, () -> 
+			ModelFactory.createDefaultModel().add(dataset.getDefaultModel()));
+	}
+
+	@Test
+	public void writesSameGraphWithAnyChunkSize() throws JRDFAnnotationException {
+		Model whole = snapshot(record(1000, null));
+		assertEquals(25 * 2 + 25 * 2 * 2 + 25, whole.size());
+
+		for (int chunkSize : new int[] { 1, 7, 25 })
+			assertTrue("chunk size " + chunkSize, 
+				snapshot(record(chunkSize, null)).isIsomorphicWith(whole));
+	}
+
+	@Test
+	public void writesSameGraphConcurrently() throws JRDFAnnotationException {
+		Model serial = snapshot(record(1000, null));
+
+		for (int chunkSize : new int[] { 1, 7, 1000 }) {
+			AtomicInteger tasks = new AtomicInteger();
+			Executor executor = task -> {
+				tasks.incrementAndGet();
+				ForkJoinPool.commonPool().execute(task);
+			};
+			assertTrue("chunk size " + chunkSize, 
+				snapshot(record(chunkSize, executor)).isIsomorphicWith(serial));
+			// even a single chunk is converted by several tasks.
+			assertTrue("chunk size " + chunkSize, tasks.get() > 2);
+		}
+	}
+}
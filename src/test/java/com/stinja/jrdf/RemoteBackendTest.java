@@ -0,0 +1,85 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.apache.jena.fuseki.main.FusekiServer;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+
+import org.apache.jena.system.Txn;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records and retrieves the test classes through a ConnectionBackend
+ * on a Fuseki server embedded in the test.
+ */
+
+public class RemoteBackendTest {
+	private Dataset dataset;
+	private FusekiServer server;
+	private ConnectionBackend backend;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws IOException {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		dataset = DatasetFactory.createTxnMem();
+		server = FusekiServer.create()
+			.port(port)
+			.add("/ds", dataset)
+			.build();
+		server.start();
+
+		backend = ConnectionBackend.remote(String.format("http://localhost:%d/ds", port));
+		manager = new PersistenceManager(backend, RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] {
+			ContactInfo.class, Organization.class, Appointment.class
+		});
+	}
+
+	@After
+	public void tearDown() {
+		backend.close();
+		server.stop();
+	}
+
+	@Test
+	public void recordsAndRetrievesThroughEndpoint() throws JRDFAnnotationException {
+		manager.record(RoundTripTest.organization(1, 10));
+		assertTrue(Txn.calculateRead(dataset, () -> dataset.getDefaultModel().size()) > 0);
+
+		Organization org = (Organization) manager.retrieve(
+			manager.getURI(Organization.fromId(1)), Organization.class);
+		assertEquals("Analytical Engines 1", org.getOfficialName());
+		assertEquals(2, org.getMembers().size());
+		ContactInfo ada = RoundTripTest.member(org, 10);
+		assertEquals("Lovelace", ada.getFamilyName());
+		assertSame(org, ada.getAppointments().iterator().next().getOrganization());
+
+		assertEquals(2, manager.count(ContactInfo.class));
+		assertEquals(1, manager.find(Criteria.of(ContactInfo.class).equalTo("familyName", "Lovelace")).size());
+	}
+
+	@Test
+	public void removesResourcesThroughEndpoint() throws JRDFAnnotationException {
+		manager.record(RoundTripTest.organization(1, 10));
+
+		manager.removeResource(manager.getURI(ContactInfo.fromId(11)));
+		assertFalse(manager.exists(ContactInfo.fromId(11)));
+		Organization org = (Organization) manager.retrieve(Organization.fromId(1));
+		assertEquals(1, org.getMembers().size());
+	}
+}
@@ -0,0 +1,99 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.jena.query.Dataset;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ResourceFactory;
+
+import org.apache.jena.system.Txn;
+
+import org.apache.jena.tdb2.TDB2Factory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Removes resources, and the resources they own, from a TDB2 Dataset.
+ */
+
+public class RemovalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Dataset dataset;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws IOException {
+		dataset = TDB2Factory.connectDataset(folder.newFolder().getPath());
+		manager = new PersistenceManager(dataset, RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] {
+			ContactInfo.class, Organization.class, Appointment.class,
+			Document.class, Section.class
+		});
+	}
+
+	private boolean mentions(String uri) {
+		return Txn.calculateRead(dataset, () -> {
+			Model model = dataset.getDefaultModel();
+			String full = uri.substring(1, uri.length() - 1);
+			return model.containsResource(ResourceFactory.createResource(full));
+		});
+	}
+
+	private static Document document(int docId) {
+		Document d = Document.fromId(docId);
+		Section first = Section.fromId(10 * docId);
+		Section.fillData(first, "Introduction");
+		Section second = Section.fromId(10 * docId + 1);
+		Section.fillData(second, "Conclusion");
+		Document.fillData(d, "Document " + docId, new HashSet<Section>(Arrays.asList(first, second)));
+		return d;
+	}
+
+	@Test
+	public void removesStatementsAboutAndReferringToResource() throws JRDFAnnotationException {
+		manager.record(RoundTripTest.organization(1, 10));
+		String uri = manager.getURI(ContactInfo.fromId(10));
+		assertTrue(mentions(uri));
+
+		manager.removeResource(uri);
+		assertFalse(mentions(uri));
+		assertEquals(1, ((Organization) manager.retrieve(Organization.fromId(1))).getMembers().size());
+		assertTrue(manager.exists(ContactInfo.fromId(11)));
+	}
+
+	@Test
+	public void removesOwnedResources() throws JRDFAnnotationException {
+		manager.record(document(1));
+		manager.record(document(2));
+
+		manager.removeResource(manager.getURI(Document.fromId(1)), Document.class);
+		assertFalse(manager.exists(Document.fromId(1)));
+		assertFalse(mentions(manager.getURI(Section.fromId(10))));
+		assertFalse(mentions(manager.getURI(Section.fromId(11))));
+		assertEquals(2, manager.count(Section.class));
+		assertEquals(2, ((Document) manager.retrieve(Document.fromId(2))).getSections().size());
+	}
+
+	@Test
+	public void leavesResourcesThatAreNotOwned() throws JRDFAnnotationException {
+		manager.record(RoundTripTest.organization(1, 10));
+
+		manager.removeResource(manager.getURI(Organization.fromId(1)), Organization.class);
+		assertFalse(manager.exists(Organization.fromId(1)));
+		assertEquals(2, manager.count(ContactInfo.class));
+	}
+}
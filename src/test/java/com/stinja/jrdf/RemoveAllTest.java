@@ -0,0 +1,88 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Removes the data of many objects, and many resources, at once.
+ */
+
+public class RemoveAllTest {
+	private List<String> updates;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException {
+		updates = new ArrayList<String>();
+		// remembers the updates sent to the Dataset.
+		StorageBackend backend = new DatasetBackend(DatasetFactory.createTxnMem()) {
+			public void update(String operations) {
+				updates.add(operations);
+				super.update(operations);
+			}
+		};
+		manager = new PersistenceManager(backend, RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] {
+			ContactInfo.class, Organization.class, Appointment.class
+		});
+		for (int i = 0; i < 5; i++)
+			manager.record(RoundTripTest.organization(i, 10 * i));
+		updates.clear();
+	}
+
+	@Test
+	public void removesObjectsOfSeveralClassesWithOneUpdate() throws JRDFAnnotationException {
+		manager.setRecordingChunkSize(1);
+		manager.removeAll(Arrays.asList(
+			ContactInfo.fromId(10),
+			ContactInfo.fromId(20),
+			Organization.fromId(3),
+			Appointment.fromIds(ContactInfo.fromId(41), Organization.fromId(4)),
+			ContactInfo.fromId(99)));
+
+		assertEquals(1, updates.size());
+		assertFalse(manager.exists(ContactInfo.fromId(10)));
+		assertFalse(manager.exists(ContactInfo.fromId(20)));
+		assertFalse(manager.exists(Organization.fromId(3)));
+		assertFalse(manager.exists(Appointment.fromIds(ContactInfo.fromId(41), Organization.fromId(4))));
+		assertEquals(8, manager.count(ContactInfo.class));
+		assertEquals(4, manager.count(Organization.class));
+		assertEquals(9, manager.count(Appointment.class));
+		assertTrue(manager.exists(ContactInfo.fromId(11)));
+	}
+
+	@Test
+	public void removesDataOfURIs() throws JRDFAnnotationException {
+		List<String> uris = new ArrayList<String>();
+		for (int i = 0; i < 5; i++)
+			uris.add(manager.getURI(ContactInfo.fromId(10 * i + 1)));
+		manager.removeAll(uris, ContactInfo.class);
+
+		assertEquals(1, updates.size());
+		assertEquals(5, manager.count(ContactInfo.class));
+		for (int i = 0; i < 5; i++)
+			assertFalse(manager.exists(ContactInfo.fromId(10 * i + 1)));
+	}
+
+	@Test
+	public void removesResourcesAndReferencesToThem() throws JRDFAnnotationException {
+		manager.removeResources(Arrays.asList(
+			manager.getURI(ContactInfo.fromId(0)),
+			manager.getURI(ContactInfo.fromId(11))));
+
+		assertEquals(8, manager.count(ContactInfo.class));
+		assertEquals(1, ((Organization) manager.retrieve(Organization.fromId(0))).getMembers().size());
+		assertEquals(1, ((Organization) manager.retrieve(Organization.fromId(1))).getMembers().size());
+		assertEquals(2, ((Organization) manager.retrieve(Organization.fromId(2))).getMembers().size());
+	}
+}
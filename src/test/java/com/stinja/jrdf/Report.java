@@ -0,0 +1,31 @@
+package com.stinja.jrdf;
+
+import java.util.Collections;
+
+@RDFType(uri = "http://www.stinja.com/jrdf/schema#Report")
+public class Report extends Document {
+
+	public static Report fromId(int docId) {
+		Report result = new Report();
+		result.docId = docId;
+		return result;
+	}
+
+	public static void fillData(
+		Report r,
+		String title,
+		String author) {
+		Document.fillData(r, title, Collections.<Section>emptySet());
+		r.author = author;
+	}
+
+	public String getAuthor() {
+		return author;
+	}
+
+	@PropertyField(
+		rdfProperty = "author",
+		valueClazz = String.class,
+		policy = Policy.EXACTLY_ONE)
+	private String author;
+}
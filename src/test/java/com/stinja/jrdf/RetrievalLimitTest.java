@@ -0,0 +1,117 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Retrieves objects within the limits of a PersistenceManager, and
+ * records them again without overwriting what was not loaded.
+ */
+
+public class RetrievalLimitTest {
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException {
+		manager = new PersistenceManager(DatasetFactory.createTxnMem(), RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] {
+			ContactInfo.class, Organization.class, Appointment.class
+		});
+		manager.record(RoundTripTest.organization(1, 10));
+	}
+
+	private Appointment appointment() throws JRDFAnnotationException {
+		return (Appointment) manager.retrieve(
+			Appointment.fromIds(ContactInfo.fromId(10), Organization.fromId(1)));
+	}
+
+	/**
+	 * Checks that the data recorded in setUp() is still there.
+	 */
+	private void assertUnchanged() throws JRDFAnnotationException {
+		Organization org = (Organization) manager.retrieve(Organization.fromId(1));
+		assertEquals("Analytical Engines 1", org.getOfficialName());
+		assertEquals(2, org.getMembers().size());
+		ContactInfo ada = RoundTripTest.member(org, 10);
+		assertEquals("Lovelace", ada.getFamilyName());
+		assertEquals(2, ada.getGivenNames().size());
+		assertEquals(1, ada.getAppointments().size());
+		assertEquals("Clerk",
+			RoundTripTest.member(org, 11).getAppointments().iterator().next().getOfficialTitle());
+	}
+
+	@Test
+	public void leavesStubsPastMaximumDepth() throws JRDFAnnotationException {
+		manager.setMaxRetrievalDepth(0);
+		Appointment appointment = appointment();
+
+		assertEquals("Director", appointment.getOfficialTitle());
+		assertEquals(1, appointment.getOrganization().getOrgId());
+		assertNull(appointment.getOrganization().getOfficialName());
+	}
+
+	@Test
+	public void recordsStubsAsReferences() throws JRDFAnnotationException {
+		manager.setMaxRetrievalDepth(0);
+		Appointment appointment = appointment();
+		Appointment.fillData(appointment, "Chair");
+		manager.record(appointment);
+
+		manager.setMaxRetrievalDepth(Integer.MAX_VALUE);
+		assertEquals("Chair", appointment().getOfficialTitle());
+		assertUnchanged();
+	}
+
+	@Test
+	public void recordsObjectsRetrievedToDepthOne() throws JRDFAnnotationException {
+		manager.setMaxRetrievalDepth(1);
+		manager.record(appointment());
+
+		manager.setMaxRetrievalDepth(Integer.MAX_VALUE);
+		assertUnchanged();
+	}
+
+	@Test
+	public void findsNodesOfStubsWithoutIdentifiers() throws JRDFAnnotationException {
+		manager.setMaxRetrievalDepth(0);
+		ContactInfo ada = (ContactInfo) manager.retrieve(ContactInfo.fromId(10));
+		Appointment stub = ada.getAppointments().iterator().next();
+		assertNull(stub.getAppointee());
+
+		assertTrue(manager.exists(stub));
+		manager.record(ada);
+		manager.record(stub);
+
+		manager.setMaxRetrievalDepth(Integer.MAX_VALUE);
+		assertUnchanged();
+	}
+
+	@Test
+	public void recordsObjectsPastSizeLimit() throws JRDFAnnotationException {
+		manager.setMaxRetrievedBytes(1);
+		Organization org = (Organization) manager.retrieve(Organization.fromId(1));
+		assertNull(RoundTripTest.member(org, 10).getFamilyName());
+		manager.record(org);
+		manager.record(RoundTripTest.member(org, 10));
+
+		manager.setMaxRetrievedBytes(Long.MAX_VALUE);
+		assertUnchanged();
+	}
+
+	@Test
+	public void leavesFieldsPastObjectLimitUnwritten() throws JRDFAnnotationException {
+		manager.setMaxRetrievedObjects(1);
+		Organization org = (Organization) manager.retrieve(Organization.fromId(1));
+		assertNull(org.getMembers());
+		manager.record(org);
+
+		manager.setMaxRetrievedObjects(Integer.MAX_VALUE);
+		assertUnchanged();
+	}
+}
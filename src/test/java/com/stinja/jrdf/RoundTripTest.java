@@ -0,0 +1,126 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records the test classes in an in-memory Dataset and checks that
+ * they are retrieved as they were recorded.
+ */
+
+public class RoundTripTest {
+	static final String ANON_STEM = "http://www.stinja.com/jrdf/anon#";
+
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() {
+		manager = new PersistenceManager(DatasetFactory.createTxnMem(), ANON_STEM);
+		manager.manageClasses(new Class[] {
+			ContactInfo.class, Organization.class, Appointment.class, VitalInfo.class
+		});
+	}
+
+	/**
+	 * Creates an Organization with two members, each of whom holds an
+	 * Appointment in it.
+	 */
+	static Organization organization(int orgId, int firstPersonId) {
+		Organization org = Organization.fromId(orgId);
+		ContactInfo ada = ContactInfo.fromId(firstPersonId);
+		ContactInfo bob = ContactInfo.fromId(firstPersonId + 1);
+		Appointment adaAppointment = Appointment.fromIds(ada, org);
+		Appointment.fillData(adaAppointment, "Director");
+		Appointment bobAppointment = Appointment.fromIds(bob, org);
+		Appointment.fillData(bobAppointment, "Clerk");
+		ContactInfo.fillData(ada, Arrays.asList("Ada", "Augusta"), "Lovelace",
+			new HashSet<Appointment>(Collections.singleton(adaAppointment)));
+		ContactInfo.fillData(bob, Collections.singleton("Bob"), null,
+			new HashSet<Appointment>(Collections.singleton(bobAppointment)));
+		Organization.fillData(org, "Analytical Engines " + orgId,
+			new HashSet<ContactInfo>(Arrays.asList(ada, bob)));
+		return org;
+	}
+
+	static ContactInfo member(Organization org, int personId) {
+		for (ContactInfo ci : org.getMembers())
+			if (ci.getPersonId() == personId)
+				return ci;
+		return null;
+	}
+
+	@Test
+	public void retrievesRecordedGraphOfObjects() throws JRDFAnnotationException {
+		manager.record(organization(1, 10));
+
+		Organization org = (Organization) manager.retrieve(
+			manager.getURI(Organization.fromId(1)), Organization.class);
+		assertEquals(1, org.getOrgId());
+		assertEquals("Analytical Engines 1", org.getOfficialName());
+		assertEquals(2, org.getMembers().size());
+
+		ContactInfo ada = member(org, 10);
+		assertEquals(new HashSet<String>(Arrays.asList("Ada", "Augusta")),
+			new HashSet<String>(ada.getGivenNames()));
+		assertEquals("Lovelace", ada.getFamilyName());
+		assertNull(member(org, 11).getFamilyName());
+
+		Appointment appointment = ada.getAppointments().iterator().next();
+		assertEquals("Director", appointment.getOfficialTitle());
+		assertSame(ada, appointment.getAppointee());
+		assertSame(org, appointment.getOrganization());
+	}
+
+	@Test
+	public void recordsChangesToRetrievedObjects() throws JRDFAnnotationException {
+		manager.record(organization(1, 10));
+		String uri = manager.getURI(ContactInfo.fromId(10));
+
+		ContactInfo ada = (ContactInfo) manager.retrieve(uri, ContactInfo.class);
+		ada.getGivenNames().remove("Augusta");
+		ada.getGivenNames().add("King");
+		ContactInfo.fillData(ada, ada.getGivenNames(), "Byron", ada.getAppointments());
+		manager.record(ada);
+
+		ContactInfo again = (ContactInfo) manager.retrieve(uri, ContactInfo.class);
+		assertEquals(new HashSet<String>(Arrays.asList("Ada", "King")),
+			new HashSet<String>(again.getGivenNames()));
+		assertEquals("Byron", again.getFamilyName());
+		assertEquals(1, again.getAppointments().size());
+	}
+
+	@Test
+	public void retrievesLiteralsOfSeveralTypes() throws JRDFAnnotationException {
+		VitalInfo vi = VitalInfo.fromId(10);
+		VitalInfo.fillData(vi, HairColor.RED, 70.5, 36);
+		manager.record(vi);
+
+		VitalInfo again = (VitalInfo) manager.retrieve(vi);
+		assertEquals(HairColor.RED, again.getHairColor());
+		assertEquals(70.5, again.getHeightInches(), 0.0);
+		assertEquals(36, again.getAge());
+	}
+
+	@Test
+	public void removesData() throws JRDFAnnotationException {
+		manager.record(organization(1, 10));
+		assertTrue(manager.exists(ContactInfo.fromId(11)));
+		assertEquals(2, manager.count(ContactInfo.class));
+
+		manager.removeData(ContactInfo.fromId(11));
+		assertFalse(manager.exists(ContactInfo.fromId(11)));
+		assertEquals(1, manager.count(ContactInfo.class));
+	}
+}
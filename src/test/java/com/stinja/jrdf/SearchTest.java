@@ -0,0 +1,99 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Searches the @Searchable fields of recorded objects in a Dataset with
+ * an in-memory text index.
+ */
+
+public class SearchTest {
+	private StorageBackend backend;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException, IOException {
+		backend = DatasetBackend.withTextIndex(DatasetFactory.createTxnMem(), null, Book.class);
+		manager = manager(null);
+		manager.record(Arrays.asList(
+			book(1, "The Analytical Engine"),
+			book(2, "Engines of the Industrial Age"),
+			book(3, "A History of Poetry"),
+			book(4, "Engine Engine Engine")
+		));
+	}
+
+	private PersistenceManager manager(String graph) {
+		PersistenceManager result = new PersistenceManager(backend, RoundTripTest.ANON_STEM);
+		result.manageClasses(new Class[] { Book.class, Section.class });
+		result.setGraph(graph);
+		return result;
+	}
+
+	private static Book book(int bookId, String title) {
+		Book b = Book.fromId(bookId);
+		Book.fillData(b, title, "History", 1900, new HashSet<String>());
+		return b;
+	}
+
+	private static Set<Integer> ids(List<Object> books) {
+		Set<Integer> ids = new HashSet<Integer>();
+		for (Object o : books)
+			ids.add(((Book) o).getBookId());
+		return ids;
+	}
+
+	@Test
+	public void findsWords() throws JRDFAnnotationException {
+		assertEquals(new HashSet<Integer>(Arrays.asList(1, 4)), ids(manager.search(Book.class, "engine", 10)));
+		assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 4)), ids(manager.search(Book.class, "engine*", 10)));
+		assertEquals(new HashSet<Integer>(Arrays.asList(3)), ids(manager.search(Book.class, "poetry", 10)));
+		assertTrue(manager.search(Book.class, "novel", 10).isEmpty());
+	}
+
+	@Test
+	public void ordersByScore() throws JRDFAnnotationException {
+		List<Object> books = manager.search(Book.class, "engine", 1);
+		assertEquals(1, books.size());
+		assertEquals(4, ((Book) books.get(0)).getBookId());
+		assertEquals("Engine Engine Engine", ((Book) books.get(0)).getTitle());
+	}
+
+	@Test
+	public void followsRecordedValues() throws JRDFAnnotationException {
+		Book b = (Book) manager.retrieve(Book.fromId(3));
+		Book.fillData(b, "A History of Engines", b.getGenre(), b.getYear(), b.getKeywords());
+		manager.record(b);
+		assertTrue(manager.search(Book.class, "poetry", 10).isEmpty());
+		assertEquals(new HashSet<Integer>(Arrays.asList(2, 3)), ids(manager.search(Book.class, "engines", 10)));
+
+		manager.removeData(Book.fromId(4));
+		assertEquals(new HashSet<Integer>(Arrays.asList(1)), ids(manager.search(Book.class, "engine", 10)));
+	}
+
+	@Test
+	public void searchesGraphOfManager() throws JRDFAnnotationException {
+		PersistenceManager tenant = manager("http://www.stinja.com/jrdf/graphs/a");
+		tenant.record(book(5, "Engine Manuals"));
+
+		assertEquals(new HashSet<Integer>(Arrays.asList(5)), ids(tenant.search(Book.class, "engine", 10)));
+		assertEquals(new HashSet<Integer>(Arrays.asList(1, 4)), ids(manager.search(Book.class, "engine", 10)));
+	}
+
+	@Test(expected = JRDFAnnotationException.class)
+	public void rejectsClassWithoutSearchableFields() throws JRDFAnnotationException {
+		manager.search(Section.class, "introduction", 10);
+	}
+}
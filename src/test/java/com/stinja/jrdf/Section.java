@@ -0,0 +1,38 @@
+package com.stinja.jrdf;
+
+@IdentifiedByField(idField = "sectionId")
+@ResourcePrefix(abbreviated = "schema:", full = "http://www.stinja.com/jrdf/schema#")
+public class Section {
+
+	public static Section fromId(int sectionId) {
+		Section result = new Section();
+		result.sectionId = sectionId;
+		return result;
+	}
+
+	public static void fillData(
+		Section s,
+		String heading) {
+		s.heading = heading;
+	}
+
+	public int getSectionId() {
+		return sectionId;
+	}
+
+	public String getHeading() {
+		return heading;
+	}
+
+	@PropertyField(
+		rdfProperty = "sectionId", 
+		valueClazz = Integer.class, 
+		policy = Policy.IDENTIFIER)
+	private int sectionId;
+
+	@PropertyField(
+		rdfProperty = "heading",
+		valueClazz = String.class,
+		policy = Policy.EXACTLY_ONE)
+	private String heading;
+}
@@ -0,0 +1,130 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.query.Dataset;
+
+import org.apache.jena.system.Txn;
+
+import org.apache.jena.tdb2.TDB2Factory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Shards a PersistenceManager across several TDB2 Datasets, each in
+ * its own directory.
+ */
+
+public class ShardingTest {
+	private static final int SHARDS = 3;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<Dataset> datasets;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws IOException {
+		datasets = new ArrayList<Dataset>();
+		for (int i = 0; i < SHARDS; i++)
+			datasets.add(TDB2Factory.connectDataset(folder.newFolder().getPath()));
+		manager = createManager();
+	}
+
+	private PersistenceManager createManager() {
+		List<StorageBackend> shards = new ArrayList<StorageBackend>();
+		for (Dataset ds : datasets)
+			shards.add(new DatasetBackend(ds));
+		PersistenceManager result = new PersistenceManager(shards, RoundTripTest.ANON_STEM);
+		result.manageClasses(new Class[] {
+			ContactInfo.class, Organization.class, Appointment.class
+		});
+		return result;
+	}
+
+	private void recordOrganizations(int n) throws JRDFAnnotationException {
+		for (int i = 0; i < n; i++)
+			manager.record(RoundTripTest.organization(i, 100 + 2 * i));
+	}
+
+	@Test
+	public void spreadsResourcesAcrossShards() throws JRDFAnnotationException {
+		recordOrganizations(10);
+
+		for (Dataset ds : datasets)
+			assertTrue(Txn.calculateRead(ds, () -> ds.getDefaultModel().size()) > 0);
+	}
+
+	@Test
+	public void retrievesAcrossShards() throws JRDFAnnotationException {
+		recordOrganizations(10);
+
+		for (int i = 0; i < 10; i++) {
+			Organization org = (Organization) manager.retrieve(Organization.fromId(i));
+			assertEquals("Analytical Engines " + i, org.getOfficialName());
+			assertEquals(2, org.getMembers().size());
+			for (ContactInfo ci : org.getMembers()) {
+				Appointment appointment = ci.getAppointments().iterator().next();
+				assertSame(org, appointment.getOrganization());
+				assertSame(ci, appointment.getAppointee());
+			}
+		}
+	}
+
+	@Test
+	public void findsAppointmentsByIdentifyingValues() throws JRDFAnnotationException {
+		recordOrganizations(10);
+
+		Appointment probe = Appointment.fromIds(ContactInfo.fromId(104), Organization.fromId(2));
+		Appointment appointment = (Appointment) manager.retrieve(probe);
+		assertNotNull(appointment);
+		assertEquals("Director", appointment.getOfficialTitle());
+	}
+
+	@Test
+	public void mergesScansOfEveryShard() throws JRDFAnnotationException {
+		recordOrganizations(10);
+
+		assertEquals(20, manager.count(ContactInfo.class));
+		assertEquals(20, manager.count(Appointment.class));
+		assertEquals(10, manager.find(Criteria.of(Appointment.class).equalTo("officialTitle", "Clerk")).size());
+		assertEquals(10, manager.find(Criteria.of(ContactInfo.class).equalTo("familyName", "Lovelace")).size());
+	}
+
+	@Test
+	public void routesResourcesStablyAcrossManagers() throws JRDFAnnotationException {
+		recordOrganizations(10);
+
+		PersistenceManager other = createManager();
+		Appointment probe = Appointment.fromIds(ContactInfo.fromId(107), Organization.fromId(3));
+		assertEquals(manager.getURI(ContactInfo.fromId(107)), other.getURI(ContactInfo.fromId(107)));
+		assertEquals("Clerk", ((Appointment) other.retrieve(probe)).getOfficialTitle());
+	}
+
+	@Test
+	public void removesReferencesFromOtherShards() throws JRDFAnnotationException {
+		recordOrganizations(10);
+
+		for (int i = 0; i < 10; i++)
+			manager.removeResource(manager.getURI(ContactInfo.fromId(101 + 2 * i)));
+		for (int i = 0; i < 10; i++) {
+			assertFalse(manager.exists(ContactInfo.fromId(101 + 2 * i)));
+			assertEquals(1, ((Organization) manager.retrieve(Organization.fromId(i))).getMembers().size());
+		}
+		assertEquals(10, manager.count(ContactInfo.class));
+	}
+}
@@ -0,0 +1,48 @@
+package com.stinja.jrdf;
+
+@IdentifiedByContent
+@ResourcePrefix(abbreviated = "schema:", full = "http://www.stinja.com/jrdf/schema#")
+public class Tag {
+
+	public static Tag fromIds(String name, String language) {
+		Tag result = new Tag();
+		result.name = name;
+		result.language = language;
+		return result;
+	}
+
+	public static void fillData(
+		Tag t,
+		String description) {
+		t.description = description;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getLanguage() {
+		return language;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	@PropertyField(
+		rdfProperty = "tagName", 
+		valueClazz = String.class, 
+		policy = Policy.IDENTIFIER)
+	private String name;
+
+	@PropertyField(
+		rdfProperty = "tagLanguage", 
+		valueClazz = String.class, 
+		policy = Policy.IDENTIFIER)
+	private String language;
+
+	@PropertyField(
+		rdfProperty = "description",
+		valueClazz = String.class)
+	private String description;
+}
@@ -0,0 +1,101 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.apache.jena.query.DatasetFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records retrieved collections, which write only their changes as
+ * long as the values in the graph are known to be theirs. Either way,
+ * the objects in a collection are recorded along with it.
+ */
+
+public class TrackedSetTest {
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException {
+		manager = new PersistenceManager(DatasetFactory.createTxnMem(), RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] {
+			ContactInfo.class, Organization.class, Appointment.class
+		});
+		manager.record(RoundTripTest.organization(1, 10));
+		manager.record(RoundTripTest.organization(2, 20));
+	}
+
+	private String familyName(int personId) throws JRDFAnnotationException {
+		return ((ContactInfo) manager.retrieve(ContactInfo.fromId(personId))).getFamilyName();
+	}
+
+	private int members(int orgId) throws JRDFAnnotationException {
+		return ((Organization) manager.retrieve(Organization.fromId(orgId))).getMembers().size();
+	}
+
+	/**
+	 * Renames a member of the Organization in memory, and adds a new
+	 * member to it, before recording the Organization.
+	 */
+	private void changeAndRecord(Organization org) throws JRDFAnnotationException {
+		ContactInfo ada = RoundTripTest.member(org, 10);
+		ContactInfo.fillData(ada, ada.getGivenNames(), "Renamed", ada.getAppointments());
+		ContactInfo carl = ContactInfo.fromId(12);
+		ContactInfo.fillData(carl, Collections.singleton("Carl"), null, null);
+		org.getMembers().add(carl);
+		manager.record(org);
+	}
+
+	@Test
+	public void writesChangesAndChangedMembers() throws JRDFAnnotationException {
+		changeAndRecord((Organization) manager.retrieve(Organization.fromId(1)));
+
+		assertEquals(3, members(1));
+		assertEquals("Renamed", familyName(10));
+	}
+
+	@Test
+	public void keepsTrackingAfterUnrelatedRemovals() throws JRDFAnnotationException {
+		Organization org = (Organization) manager.retrieve(Organization.fromId(1));
+		manager.removeResource(manager.getURI(ContactInfo.fromId(20)));
+		manager.removeData(Organization.fromId(2));
+		changeAndRecord(org);
+
+		assertEquals(3, members(1));
+		assertEquals("Renamed", familyName(10));
+	}
+
+	@Test
+	public void rewritesSetAfterRemovalOfMember() throws JRDFAnnotationException {
+		Organization org = (Organization) manager.retrieve(Organization.fromId(1));
+		manager.removeResource(manager.getURI(ContactInfo.fromId(11)));
+		changeAndRecord(org);
+
+		assertEquals(3, members(1));
+		assertTrue(manager.exists(ContactInfo.fromId(11)));
+		assertEquals("Renamed", familyName(10));
+	}
+
+	@Test
+	public void rewritesSetAfterRemovalOfOwner() throws JRDFAnnotationException {
+		Organization org = (Organization) manager.retrieve(Organization.fromId(1));
+		manager.removeData(Organization.fromId(1));
+		changeAndRecord(org);
+
+		assertEquals(3, members(1));
+		assertEquals("Renamed", familyName(10));
+	}
+
+	@Test
+	public void rewritesSetAfterGraphChange() throws JRDFAnnotationException {
+		Organization org = (Organization) manager.retrieve(Organization.fromId(1));
+		manager.removeGraph("http://www.stinja.com/jrdf/unused");
+		changeAndRecord(org);
+
+		assertEquals("Renamed", familyName(10));
+	}
+}
@@ -0,0 +1,169 @@
+package com.stinja.jrdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+
+import org.apache.jena.update.UpdateAction;
+import org.apache.jena.update.UpdateRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records objects with a @Version field, whose writes are guarded by
+ * their versions.
+ */
+
+public class VersionTest {
+	private Dataset dataset;
+	private Runnable interloper;
+	private PersistenceManager manager;
+
+	@Before
+	public void setUp() throws JRDFAnnotationException {
+		dataset = DatasetFactory.createTxnMem();
+		// runs the interloper, if there is one, just before the next
+		// update, as a concurrent writer might.
+		StorageBackend backend = new DatasetBackend(dataset) {
+			public void update(UpdateRequest request) {
+				Runnable r = interloper;
+				interloper = null;
+				if (r != null)
+					r.run();
+				super.update(request);
+			}
+		};
+		manager = new PersistenceManager(backend, RoundTripTest.ANON_STEM);
+		manager.manageClasses(new Class[] { Account.class });
+	}
+
+	private static Account account(int accountId, String owner, String... holders) {
+		Account a = Account.fromId(accountId);
+		Account.fillData(a, owner, new HashSet<String>(Arrays.asList(holders)));
+		return a;
+	}
+
+	private Account retrieve(int accountId) throws JRDFAnnotationException {
+		return (Account) manager.retrieve(Account.fromId(accountId));
+	}
+
+	@Test
+	public void createsAtVersionOne() throws JRDFAnnotationException {
+		Account a = account(1, "Ada", "Ada");
+		manager.record(a);
+
+		assertEquals(1, a.getVersion());
+		assertEquals(1, retrieve(1).getVersion());
+		assertEquals("Ada", retrieve(1).getOwner());
+	}
+
+	@Test
+	public void rejectsSecondCreation() throws JRDFAnnotationException {
+		manager.record(account(1, "Ada", "Ada"));
+		Account other = account(1, "Bob", "Bob");
+		try {
+			manager.record(other);
+			fail();
+		} catch (VersionConflictException e) {
+			assertEquals(Arrays.asList(other), e.getStaleObjects());
+		}
+
+		assertEquals(0, other.getVersion());
+		Account again = retrieve(1);
+		assertEquals("Ada", again.getOwner());
+		assertEquals(new HashSet<String>(Arrays.asList("Ada")), again.getHolders());
+		assertEquals(1, again.getVersion());
+	}
+
+	@Test
+	public void rejectsStaleWrite() throws JRDFAnnotationException {
+		manager.record(account(1, "Ada", "Ada"));
+		Account first = retrieve(1);
+		Account second = retrieve(1);
+
+		Account.fillData(first, "Ada Lovelace", first.getHolders());
+		first.getHolders().add("Bob");
+		manager.record(first);
+		assertEquals(2, first.getVersion());
+
+		Account.fillData(second, "Charles", second.getHolders());
+		second.getHolders().remove("Ada");
+		second.getHolders().add("Charles");
+		try {
+			manager.record(second);
+			fail();
+		} catch (VersionConflictException e) {
+			assertSame(second, e.getStaleObjects().get(0));
+		}
+
+		assertEquals(1, second.getVersion());
+		Account again = retrieve(1);
+		assertEquals("Ada Lovelace", again.getOwner());
+		assertEquals(new HashSet<String>(Arrays.asList("Ada", "Bob")), again.getHolders());
+		assertEquals(2, again.getVersion());
+	}
+
+	@Test
+	public void writesObjectsThatAreNotStale() throws JRDFAnnotationException {
+		manager.record(Arrays.asList(account(1, "Ada", "Ada"), account(2, "Bob", "Bob")));
+		Account stale = retrieve(1);
+		Account fresh = retrieve(2);
+		Account other = retrieve(1);
+		Account.fillData(other, "Charles", other.getHolders());
+		manager.record(other);
+		Account.fillData(stale, "Dora", stale.getHolders());
+		Account.fillData(fresh, "Bob Babbage", fresh.getHolders());
+		manager.setRecordingChunkSize(1);
+
+		try {
+			manager.record(Arrays.asList(stale, fresh, account(3, "Eve")));
+			fail();
+		} catch (VersionConflictException e) {
+			assertEquals(Arrays.asList(stale), e.getStaleObjects());
+		}
+
+		assertEquals("Charles", retrieve(1).getOwner());
+		assertEquals("Bob Babbage", retrieve(2).getOwner());
+		assertEquals(2, fresh.getVersion());
+		assertEquals("Eve", retrieve(3).getOwner());
+	}
+
+	@Test
+	public void rejectsWriteAfterConcurrentWrite() throws JRDFAnnotationException {
+		manager.record(account(1, "Ada", "Ada"));
+		Account a = retrieve(1);
+		Account.fillData(a, "Charles", a.getHolders());
+		a.getHolders().add("Charles");
+
+		// another writer records the account after it has been
+		// converted, but before it is written.
+		String uri = manager.getURI(a);
+		interloper = () -> UpdateAction.parseExecute(
+			String.format(
+				"PREFIX schema: <http://www.stinja.com/jrdf/schema#>\n"
+				+ "DELETE WHERE { %1$s schema:version ?v ; schema:owner ?o } ;\n"
+				+ "INSERT DATA { %1$s schema:version 2 ; schema:owner \"Bob\" }",
+				uri),
+			dataset);
+		try {
+			manager.record(a);
+			fail();
+		} catch (VersionConflictException e) {
+			assertSame(a, e.getStaleObjects().get(0));
+		}
+
+		assertEquals(1, a.getVersion());
+		Account again = retrieve(1);
+		assertEquals("Bob", again.getOwner());
+		assertEquals(new HashSet<String>(Arrays.asList("Ada")), again.getHolders());
+		assertEquals(2, again.getVersion());
+	}
+}
@@ -20,6 +20,22 @@ public class VitalInfo {
 		vi.age = age;
 	}
 
+	public int getPersonId() {
+		return personId;
+	}
+
+	public HairColor getHairColor() {
+		return hairColor;
+	}
+
+	public double getHeightInches() {
+		return heightInches;
+	}
+
+	public int getAge() {
+		return age;
+	}
+
 	@PropertyField(
 		rdfProperty = "personId", 
 		valueClazz = Integer.class, 